@@ -0,0 +1,325 @@
+/**
+ *  ISEL, LEIC, Concurrent Programming
+ *
+ *  Bounded message queue following the kernel style, using an *explicit Java
+ *  monitor* with specific notifications.
+ *
+ *  There are two request queues: one for the receivers, waiting for a message,
+ *  and other for the senders, waiting for space in the queue. Each request has
+ *  its own condition variable, so only the threads whose requests are completed
+ *  are notified.
+ *
+ *  - A sender that finds a blocked receiver hands the message directly to it,
+ *    so the message is never buffered.
+ *  - A receiver that takes a message from the buffer completes the request of
+ *    the first blocked sender, moving its message to the free position at the
+ *    end of the buffer, which keeps the messages in FIFO order. If the buffer is
+ *    empty (capacity 0), the receiver takes the message directly from the sender.
+ *
+ *  With capacity 0 each send is a rendezvous with a receive (synchronous queue).
+ *
+ *  Compile with: javac BoundedMessageQueueKernelStyle.java
+ *  Execute with: java BoundedMessageQueueKernelStyle
+ *
+ */
+
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.*;
+
+public final class BoundedMessageQueueKernelStyle<T> {
+	// explicit Java monitor that suports the synchronzation of shared data access
+	// and supports also the control synchronization.
+	private final Lock lock = new ReentrantLock();
+
+	// the type used to hold a receive request
+	private class ReceiveRequest {
+		final Condition okToReceive;	// where the receiver waits
+		T receivedMsg;					// received message
+		boolean done;					// true when done
+
+		ReceiveRequest(Condition okToReceive) { this.okToReceive = okToReceive; }
+	}
+
+	// the type used to hold a send request
+	private class SendRequest {
+		final Condition okToSend;		// where the sender waits
+		final T sentMsg;				// message to send
+		boolean done;					// true when done
+
+		SendRequest(Condition okToSend, T sentMsg) {
+			this.okToSend = okToSend;
+			this.sentMsg = sentMsg;
+		}
+	}
+
+	// queues of pending receive and send requests
+	private final LinkedList<ReceiveRequest> recvQueue = new LinkedList<ReceiveRequest>();
+	private final LinkedList<SendRequest> sendQueue = new LinkedList<SendRequest>();
+
+	// synchronization state: list of messages pending for reception, with at most
+	// "capacity" messages
+	private final LinkedList<T> pendingMessages = new LinkedList<T>();
+	private final int capacity;
+
+	// initialize the message queue
+	public BoundedMessageQueueKernelStyle(int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("capacity");
+		this.capacity = capacity;
+	}
+
+	// send a message to the queue, waiting while the queue is full; returns false
+	// when it times out
+	public boolean send(T sentMsg, long millisTimeout) throws InterruptedException {
+		if (sentMsg == null)
+			throw new IllegalArgumentException("sentMsg");
+		// if the was previously interrupted, throw the appropriate exception
+		if (Thread.interrupted())
+			throw new InterruptedException();
+
+		lock.lock();
+		try {
+			// try to deliver the message directly to a blocked receiver
+			if (recvQueue.size() > 0) {
+				ReceiveRequest request = recvQueue.poll();
+				request.receivedMsg = sentMsg;
+				request.done = true;
+				request.okToReceive.signal();
+				return true;
+			}
+			// if there is space and no sender before us, buffer the message
+			if (sendQueue.size() == 0 && pendingMessages.size() < capacity) {
+				pendingMessages.addLast(sentMsg);
+				return true;
+			}
+			// if a null time out was specified, return failure.
+			if (millisTimeout == 0)
+				return false;
+
+			SendRequest request = new SendRequest(lock.newCondition(), sentMsg);
+			sendQueue.addLast(request);		// enqueue the "request" at the end of "sendQueue"
+			boolean isTimed = millisTimeout > 0;
+			long nanosTimeout = isTimed ? TimeUnit.MILLISECONDS.toNanos(millisTimeout) : 0L;
+			do {
+				try {
+					if (isTimed) {
+						if (nanosTimeout <= 0L) {
+							// the specified time limit has expired; since the senders
+							// are served in FIFO order and all need the same space,
+							// removing our request does not satisfy other senders.
+							sendQueue.remove(request);
+							return false;
+						}
+						nanosTimeout = request.okToSend.awaitNanos(nanosTimeout);
+					} else
+						request.okToSend.await();
+				} catch (InterruptedException ie) {
+					// if the message was already taken, re-assert interrupt and return
+					// normally; else remove request from queue and throw
+					if (request.done) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+					sendQueue.remove(request);
+					throw ie;
+				}
+			} while (!request.done);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void send(T sentMsg) throws InterruptedException { send(sentMsg, -1L); }
+
+	// take the message of the first blocked sender, completing its request
+	private T takeFromSender() {
+		SendRequest request = sendQueue.poll();
+		request.done = true;
+		request.okToSend.signal();
+		return request.sentMsg;
+	}
+
+	// receive the next message from the queue; returns null when it times out
+	public T receive(long millisTimeout) throws InterruptedException {
+		// if the was previously interrupted, throw the appropriate exception
+		if (Thread.interrupted())
+			throw new InterruptedException();
+
+		lock.lock();
+		try {
+			if (pendingMessages.size() > 0) {
+				T receivedMsg = pendingMessages.removeFirst();
+				// a position was freed, so the first blocked sender can proceed
+				if (sendQueue.size() > 0)
+					pendingMessages.addLast(takeFromSender());
+				return receivedMsg;
+			}
+			// the buffer is empty, but there may be a sender when capacity is 0
+			if (sendQueue.size() > 0)
+				return takeFromSender();
+			// if a null time out was specified, return failure.
+			if (millisTimeout == 0)
+				return null;
+
+			ReceiveRequest request = new ReceiveRequest(lock.newCondition());
+			recvQueue.addLast(request);		// enqueue the "request" at the end of "recvQueue"
+			boolean isTimed = millisTimeout > 0;
+			long nanosTimeout = isTimed ? TimeUnit.MILLISECONDS.toNanos(millisTimeout) : 0L;
+			do {
+				try {
+					if (isTimed) {
+						if (nanosTimeout <= 0L) {
+							// the specified time limit has expired.
+							// Here we know that our request was not met.
+							recvQueue.remove(request);
+							return null;
+						}
+						nanosTimeout = request.okToReceive.awaitNanos(nanosTimeout);
+					} else
+						request.okToReceive.await();
+				} catch (InterruptedException ie) {
+					// if a message was already delivered, re-assert interrupt and return
+					// it; else remove request from queue and throw
+					if (request.done) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+					recvQueue.remove(request);
+					throw ie;
+				}
+			} while (!request.done);
+			return request.receivedMsg;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public T receive() throws InterruptedException { return receive(-1L); }
+
+	// returns the number of buffered messages
+	public int size() {
+		lock.lock();
+		try {
+			return pendingMessages.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getCapacity() { return capacity; }
+
+	/**
+	 *  Test code
+	 */
+
+	// many producers and consumers; each message must be received exactly once and
+	// the buffer must never hold more than "capacity" messages
+	private static boolean testProducersConsumers(int capacity) throws InterruptedException {
+		final int PRODUCERS = 4, CONSUMERS = 4;
+		final int MESSAGES = 100000;
+		BoundedMessageQueueKernelStyle<Integer> queue = new BoundedMessageQueueKernelStyle<>(capacity);
+		AtomicLong sum = new AtomicLong();
+		AtomicInteger received = new AtomicInteger(), overflows = new AtomicInteger();
+		Thread[] consumers = new Thread[CONSUMERS];
+		for (int i = 0; i < CONSUMERS; i++) {
+			consumers[i] = new Thread(() -> {
+				try {
+					Integer msg;
+					while ((msg = queue.receive(100)) != null) {
+						if (queue.size() > capacity)
+							overflows.incrementAndGet();
+						sum.addAndGet(msg);
+						received.incrementAndGet();
+					}
+				} catch (InterruptedException ie) {}
+			});
+			consumers[i].start();
+		}
+		Thread[] producers = new Thread[PRODUCERS];
+		for (int i = 0; i < PRODUCERS; i++) {
+			final int pid = i;
+			producers[i] = new Thread(() -> {
+				try {
+					for (int m = pid; m < MESSAGES; m += PRODUCERS)
+						queue.send(m);
+				} catch (InterruptedException ie) {}
+			});
+			producers[i].start();
+		}
+		for (Thread producer : producers)
+			producer.join();
+		// the consumers exit when they time out
+		for (Thread consumer : consumers)
+			consumer.join();
+		long expected = (long)MESSAGES * (MESSAGES - 1) / 2;
+		System.out.printf("--capacity %d: received: %d, sum: %d, expected: %d, overflows: %d%n",
+						  capacity, received.get(), sum.get(), expected, overflows.get());
+		return received.get() == MESSAGES && sum.get() == expected && overflows.get() == 0;
+	}
+
+	// a sender blocks while the queue is full, times out or is interrupted without
+	// changing the queue, and its message is kept in FIFO order when space is freed
+	private static boolean testBackpressure() throws InterruptedException {
+		BoundedMessageQueueKernelStyle<Integer> queue = new BoundedMessageQueueKernelStyle<>(2);
+		boolean full = queue.send(1, 0) && queue.send(2, 0) && !queue.send(3, 0) &&
+					   !queue.send(3, 50) && queue.size() == 2;
+		boolean[] interrupted = new boolean[1];
+		Thread interruptedSender = new Thread(() -> {
+			try {
+				queue.send(-1);
+			} catch (InterruptedException ie) {
+				interrupted[0] = true;
+			}
+		});
+		interruptedSender.start();
+		Thread.sleep(50);
+		interruptedSender.interrupt();
+		interruptedSender.join();
+		Thread sender = new Thread(() -> {
+			try {
+				queue.send(3);
+			} catch (InterruptedException ie) {}
+		});
+		sender.start();
+		Thread.sleep(50);
+		boolean blocked = sender.isAlive();
+		boolean inOrder = queue.receive(0) == 1;
+		sender.join();
+		inOrder &= queue.receive(0) == 2 && queue.receive(0) == 3 && queue.receive(0) == null;
+		System.out.printf("--full: %b, interrupted: %b, blocked: %b, in order: %b%n",
+						  full, interrupted[0], blocked, inOrder);
+		return full && interrupted[0] && blocked && inOrder;
+	}
+
+	// with capacity 0 a message is handed directly from the sender to the receiver
+	private static boolean testRendezvous() throws InterruptedException {
+		BoundedMessageQueueKernelStyle<String> queue = new BoundedMessageQueueKernelStyle<>(0);
+		boolean noBuffer = !queue.send("lost", 0) && queue.receive(0) == null;
+		String[] received = new String[1];
+		Thread receiver = new Thread(() -> {
+			try {
+				received[0] = queue.receive();
+			} catch (InterruptedException ie) {}
+		});
+		receiver.start();
+		Thread.sleep(50);
+		// the receiver is blocked, so the send completes immediately
+		boolean handedOff = queue.send("hello", 0);
+		receiver.join();
+		return noBuffer && handedOff && "hello".equals(received[0]) && queue.size() == 0;
+	}
+
+	public static void main(String... args) throws InterruptedException {
+		for (int capacity : new int[] { 0, 1, 16 })
+			System.out.printf("-->test bounded message queue producers/consumers (capacity %d): %s%n",
+							  capacity, testProducersConsumers(capacity) ? "passed" : "failed");
+		System.out.printf("-->test bounded message queue backpressure: %s%n",
+						  testBackpressure() ? "passed" : "failed");
+		System.out.printf("-->test bounded message queue rendezvous: %s%n",
+						  testRendezvous() ? "passed" : "failed");
+	}
+}
@@ -7,14 +7,30 @@
  *
  *  Realizations for the case of semaphore and message queue synchronizers.
  * 
- *  Note: To compile the java code contained in this file it will be necessary
- *        to comment the excerpts that contain pseudo-code.
+ *  Note: To compile the java code contained in this file it is necessary to
+ *        comment the excerpts that contain pseudo-code. These excerpts are
+ *        commented by default; to uncomment one, prefix the line that starts
+ *        it, "/***", with "//".
+ *
+ *  Note: KernelStyleSynchronizer.java contains a compilable and reusable version of
+ *        the generic synchronizer with specific notifications, used to implement
+ *        KernelStyleSemaphore.java and KernelStyleMessageQueue.java.
  *
  *  Carlos Martins, October 2018
  */
 
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.*;
 
 /**
@@ -35,7 +51,7 @@ class AcquireResult {}
  * NOTE: This code does not provide for the possibility of a thread blocked being
  *       interrupted (see implementation based on implicit .NET monitors below).
  */
-///***
+/***
  public class GenericSynchronizerKernelStylePseudoCode {
     // lock used to synchronize access to mutable shared state
 	private Lock _lock = new Lock();
@@ -141,7 +157,7 @@ class AcquireResult {}
  *     of the acquire operations due to timeout or interruption.
  */
 
- ///***
+ /***
 class GenericSynchronizerKernelStyleImplicitMonitor {
 	// implicit Java monitor that synchronizes access to the mutable shared state
 	// and supports also the control synchronization on its condition variable.
@@ -192,9 +208,9 @@ class GenericSynchronizerKernelStyleImplicitMonitor {
         update "syncState" according to "releaseArgs";
     }
 	
-	/**
-	 * Methods that are independent of the synchronizer semantics
-	 */
+	//
+	// Methods that are independent of the synchronizer semantics
+	//
 
 	// generic acquire operation; returns null when it times out
     public AcquireResult acquire(AcquireArgs acquireArgs, long millisTimeout) throws InterruptedException {
@@ -217,11 +233,11 @@ class GenericSynchronizerKernelStyleImplicitMonitor {
         	Request request = new Request(acquireArgs);
         	reqQueue.addLast(request);
 			
-            TimeoutHolder th = new TimeoutHolder(millisTimeout);
+            long deadline = TimeoutHolder.deadline(millisTimeout);
         	do {
                 try {
-                    if (th.isTimed()) {
-				        if ((millisTimeout = th.value()) <= 0) {
+                    if (TimeoutHolder.isTimed(deadline)) {
+				        if ((millisTimeout = TimeoutHolder.remainingMillis(deadline)) <= 0) {
                             // the timeout limit has expired - here we are sure that the
 					        // acquire resquest is still pending. So, we must remove the
 							// request from the queue.
@@ -305,6 +321,133 @@ class GenericSynchronizerKernelStyleImplicitMonitor {
 }
 //**/
 
+/**
+ * The generic synchronizer based on an *implicit Java monitor*, with support
+ * for timeout on the acquire operation, that wakes up only the threads whose
+ * acquires were satisfied.
+ *
+ * Notes:
+ *  1. With an implicit monitor there is only one condition variable, so each release
+ *     that satisfies one acquire must notify all blocked threads (notifyAll) and each
+ *     of them must reacquire the monitor just to check "request.done".
+ *  2. In this implementation the acquirer threads wait *outside* the monitor using
+ *     LockSupport.park, and the releaser unparks exactly the threads whose requests
+ *     were satisfied (specific notifications). The field "done" is volatile, since it
+ *     is read outside the monitor, and the satisfied threads do not need to reacquire
+ *     the monitor.
+ *  3. On timeout or interruption the acquirer reacquires the monitor to check again
+ *     if the request was satisfied in the meantime; only otherwise it gives up.
+ */
+
+/***
+class GenericSynchronizerKernelStyleImplicitMonitorSpecificNotifications {
+	// implicit Java monitor that synchronizes access to the mutable shared state
+	private final Object monitor = new Object();
+	
+	// the instances of this type describe an acquire request, namely their arguments,
+	// result, status (not done/done) and the thread to unpark.
+	private static class Request {
+		final AcquireArgs acquireArgs;  // acquire arguments
+		final Thread thread;			// the acquirer thread
+		AcquireResult acquireResult;    // acquire result
+		volatile boolean done;          // true when the acquire is completed
+		
+		Request(AcquireArgs args) {
+			acquireArgs = args;
+			thread = Thread.currentThread();
+		}
+	}
+    
+	// queue of pending acquire requests
+	private final LinkedList<Request> reqQueue = new LinkedList<Request>();
+    
+	// synchonization state
+	private SynchState syncState;
+	
+	// initialize
+	public GenericSynchronizerKernelStyleImplicitMonitorSpecificNotifications(InitializeArgs initiallArgs) {
+		initialize "syncState" according to information specified in "initialArgs";
+	}
+
+	// canAcquire, currentSynchStateAllowsAquire, acquireSideEffect and updateStateOnRelease
+	// are the same as in GenericSynchronizerKernelStyleImplicitMonitor
+
+	// generic acquire operation; returns null when it times out
+    public AcquireResult acquire(AcquireArgs acquireArgs, long millisTimeout) throws InterruptedException {
+        if (Thread.interrupted())
+            throw new InterruptedException();
+
+		Request request;
+        synchronized(monitor) {
+        	if (reqQueue.size() == 0 && canAcquire(acquireArgs))
+            	return acquireSideEffect(acquireArgs);
+			
+			// create a Request object and enqueue it at the end of request queue
+        	request = new Request(acquireArgs);
+        	reqQueue.addLast(request);
+		}
+
+		// wait outside the monitor until a releaser thread completes our request
+		boolean interrupted = false;
+        long deadline = TimeoutHolder.deadline(millisTimeout);
+        long nanosTimeout;
+		while (!request.done) {
+			if (TimeoutHolder.isTimed(deadline)) {
+				if ((nanosTimeout = TimeoutHolder.remainingNanos(deadline)) <= 0)
+					break;
+				LockSupport.parkNanos(this, nanosTimeout);
+			} else
+				LockSupport.park(this);
+			if (Thread.interrupted()) {
+				interrupted = true;
+				break;
+			}
+		}
+		if (!request.done) {
+			synchronized(monitor) {
+				// the request may have been completed before we reacquire the monitor
+				if (!request.done) {
+					// give up the acquire, as in GenericSynchronizerKernelStyleImplicitMonitor
+					reqQueue.remove(request);
+					if (currentSynchStateAllowsAquire())
+						performPossibleAcquires();
+					if (interrupted)
+						throw new InterruptedException();
+					return null;
+				}
+			}
+		}
+		// the requested acquire operation completed successfully; if we were interrupted
+		// re-assert the interrupt.
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		return request.acquireResult;
+    }
+
+    // perform as many acquires as possible, waking up only the satisfied acquirers
+    private void performPossibleAcquires() {
+        while (reqQueue.size() > 0) {
+            Request request = reqQueue.peek();
+            if (!canAcquire(request.acquireArgs))
+                break;
+            reqQueue.removeFirst();
+            request.acquireResult = acquireSideEffect(request.acquireArgs);
+            request.done = true;		// volatile write, after the result
+			// *specific notification*
+			LockSupport.unpark(request.thread);
+        }
+    }
+    
+    // generic release operation
+    public void release(ReleaseArgs releaseArgs) {
+        synchronized(monitor) {
+            updateStateOnRelease(releaseArgs);
+            performPossibleAcquires();
+		}
+    }
+}
+//**/
+
 /**
  * The generic synchronizer based on an *explicit Java monitor*
  * (implemented by the class MonitorEx), with support for timeout on the acquire
@@ -314,7 +457,7 @@ class GenericSynchronizerKernelStyleImplicitMonitor {
  * implementation uses thread-specific notification.
  */
 
-///***
+/***
 class GenericSynchronizerKernelStyleExplicitMonitorSpecificNotifications {
     // explicit Java monitor that suports the synchronzation of shared data access
     // and supports also the control synchronization.
@@ -486,8 +629,8 @@ class SemaphoreKernelStyleImplicitMonitor {
 	
 	// initialize the semaphore
 	public SemaphoreKernelStyleImplicitMonitor(int initialPermits) {
-		if (initial < 0)
-			throw new IllegalArgumentException("initialPermits")
+		if (initialPermits < 0)
+			throw new IllegalArgumentException("initialPermits");
 		permits = initialPermits;
 	}
 	
@@ -529,11 +672,11 @@ class SemaphoreKernelStyleImplicitMonitor {
             Request request = new Request(acquires);
             reqQueue.addLast(request);
 			
-            TimeoutHolder th = new TimeoutHolder(millisTimeout);
+            long deadline = TimeoutHolder.deadline(millisTimeout);
             do {
                 try {
-                    if (th.isTimed()) {
-                        if ((millisTimeout = th.value()) <= 0) {
+                    if (TimeoutHolder.isTimed(deadline)) {
+                        if ((millisTimeout = TimeoutHolder.remainingMillis(deadline)) <= 0) {
                             // the specified time limit has expired
                             reqQueue.remove(request);
 
@@ -615,6 +758,137 @@ class SemaphoreKernelStyleImplicitMonitor {
     }
 }
 
+/**
+ * Semaphore following the kernel style, using an *implicit Java monitor*, with
+ * support for timeout on the acquire operation, where the acquirer threads park
+ * outside the monitor and only the satisfied acquirers are unparked (see
+ * GenericSynchronizerKernelStyleImplicitMonitorSpecificNotifications).
+ */
+
+class SemaphoreKernelStyleImplicitMonitorSpecificNotifications {
+    // implicit Java monitor that synchronizes access to the mutable shared state
+    private final Object monitor = new Object();
+	
+	// the request object
+	private static class Request {
+		final int acquires;     // the number of requested permits
+		final Thread thread;	// the acquirer thread
+		volatile boolean done;  // true when completed; it is read outside the monitor
+
+		Request(int acquires) {
+			this.acquires = acquires;
+			thread = Thread.currentThread();
+		}
+	}
+	// the queue of pending acquire requests
+	private final LinkedList<Request> reqQueue = new LinkedList<Request>();
+	
+	// the synchronization state: the number of available permits
+	private int permits;
+	
+	// initialize the semaphore
+	public SemaphoreKernelStyleImplicitMonitorSpecificNotifications(int initialPermits) {
+		if (initialPermits < 0)
+			throw new IllegalArgumentException("initialPermits");
+		permits = initialPermits;
+	}
+	
+	// if there are sufficient permits, return true; false otherwise.
+    private boolean canAcquire(int acquires) { return permits >= acquires; }
+    
+    // if there are threads in the queue, return whether the number of available
+    // permits is sufficient to satisfy the request of the thread that
+    // is at the front of the queue
+    private boolean currentSynchStateAllowsAcquire() {
+        return reqQueue.size() > 0 && permits >= reqQueue.peek().acquires;
+    }
+	
+	// after acquire deduct the permissions granted
+	private void acquireSideEffect(int acquires) { permits -= acquires; }
+	
+	// update the available permits in accordance with the permits released
+	private void updateStateOnRelease(int releases) { permits += releases; }
+
+    // acquires the specified number of permits; return false when it times out
+    public boolean acquire(int acquires, long millisTimeout)  throws InterruptedException {
+        // if the was previously interrupted, throw the appropriate exception
+        if (Thread.interrupted())
+            throw new InterruptedException();
+
+		Request request;
+        synchronized(monitor) {
+			// if the queue is empty and there are sufficient permits, decrement the
+			// number of available permits, and return success
+            if (reqQueue.size() == 0 && canAcquire(acquires)) {
+                acquireSideEffect(acquires);
+                return true;
+            }
+            request = new Request(acquires);
+            reqQueue.addLast(request);
+		}
+		
+		// wait outside the monitor until a releaser thread completes our request
+		boolean interrupted = false;
+		long deadline = TimeoutHolder.deadline(millisTimeout);
+		long nanosTimeout;
+		while (!request.done) {
+			if (TimeoutHolder.isTimed(deadline)) {
+				if ((nanosTimeout = TimeoutHolder.remainingNanos(deadline)) <= 0)
+					break;
+				LockSupport.parkNanos(this, nanosTimeout);
+			} else
+				LockSupport.park(this);
+			if (Thread.interrupted()) {
+				interrupted = true;
+				break;
+			}
+		}
+		if (!request.done) {
+			synchronized(monitor) {
+				// the request may have been completed before we reacquire the monitor
+				if (!request.done) {
+					reqQueue.remove(request);
+
+					// this withdrawal may create conditions to satisfy the requests of the
+					// next threads (see SemaphoreKernelStyleImplicitMonitor)
+					if (currentSynchStateAllowsAcquire())
+						performPossibleAcquires();
+					if (interrupted)
+						throw new InterruptedException();
+					return false;
+				}
+			}
+		}
+		// if the acquire operation was already done, re-assert interrupt and return normally
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		return true;
+    }
+
+    // perform the possible pending acquires
+    private void performPossibleAcquires() {
+        while (reqQueue.size() > 0) {
+            Request request = reqQueue.peek();
+            if (!canAcquire(request.acquires))
+                break;
+            reqQueue.removeFirst();
+            acquireSideEffect(request.acquires);
+            request.done = true;
+			// *specific notification*: unpark only the acquirer thread, which does not
+			// need to reacquire the monitor
+			LockSupport.unpark(request.thread);
+        }
+    }
+
+    //releases the specified number of permits
+    public void release(int releases) {
+        synchronized(monitor) {
+            updateStateOnRelease(releases);
+            performPossibleAcquires();
+        }
+    }
+}
+
 /**
  * Semaphore following the kernel style, using an *explicit Java monitor*, with
  * support for timeout on the acquire operation.
@@ -768,8 +1042,22 @@ class MessageQueueKernelStyleImplicitMonitor<T> {
 
     // the type used to hold a receive request
     private class Request {
+		final int max;			// the maximum number of messages of a batch, 0 for receive
 		T receivedMsg;	    // received message
+		List<T> receivedMsgs;	// received messages of a batch
 		boolean done;		// true when done
+
+		Request(int max) { this.max = max; }
+
+		// deliver one message to the request
+		void deliver(T msg) {
+			if (max > 0) {
+				receivedMsgs = new ArrayList<>(1);
+				receivedMsgs.add(msg);
+			} else
+				receivedMsg = msg;
+			done = true;
+		}
 	}
     
     // queue of pending receive requests
@@ -788,6 +1076,14 @@ class MessageQueueKernelStyleImplicitMonitor<T> {
     // when a message is received, it must be removed from the pending message list
     private T receiveSideEffect() { return pendingMessages.removeFirst(); }
 
+    // when a batch of messages is received, they must be removed from the pending message list
+    private List<T> receiveSideEffect(int max) {
+        List<T> msgs = new ArrayList<>(Math.min(max, pendingMessages.size()));
+        while (msgs.size() < max && canReceive())
+            msgs.add(pendingMessages.removeFirst());
+        return msgs;
+    }
+
     // add the sent message to the pending messages list
     private void updateStateOnSend(T sentMessage) {
         pendingMessages.addLast(sentMessage);
@@ -802,13 +1098,13 @@ class MessageQueueKernelStyleImplicitMonitor<T> {
         synchronized(monitor) {            
             if (reqQueue.size() == 0 && canReceive())
                 return receiveSideEffect();
-            Request request = new Request();
+            Request request = new Request(0);
             reqQueue.addLast(request);          // enqueue the "request" at the end of "reqQueue"
-            TimeoutHolder th = new TimeoutHolder(millisTimeout);
+            long deadline = TimeoutHolder.deadline(millisTimeout);
             do {
                 try {
-                    if (th.isTimed()) {
-                        if ((millisTimeout = th.value()) <= 0) {
+                    if (TimeoutHolder.isTimed(deadline)) {
+                        if ((millisTimeout = TimeoutHolder.remainingMillis(deadline)) <= 0) {
                             // the specified time limit has expired.
 					        // Here we know that our request was not met.
                             reqQueue.remove(request);
@@ -840,8 +1136,7 @@ class MessageQueueKernelStyleImplicitMonitor<T> {
             if (reqQueue.size() > 0) {
                 // here we know that the queue has one message, so we do not call "canAcquire"
                 Request request = reqQueue.poll();
-                request.receivedMsg = receiveSideEffect();
-                request.done = true;
+                request.deliver(receiveSideEffect());
                 
 				// even if we release only one thread, we do not know its position of the queue
                 // of the condition variable, so it is necessary to notify all blocked threads,
@@ -851,14 +1146,14 @@ class MessageQueueKernelStyleImplicitMonitor<T> {
         }
     }
 
-    // send a message to the queue (optimized)
+    // send a message to the queue (optimized): the message is delivered directly to
+    // the first blocked receiver, if any, so that it is never buffered
     public void SendOptimized(T sentMsg) {
         synchronized(monitor) {
             // try to deliver the message directly to a blocked thread
             if (reqQueue.size() > 0) {
                 Request request = reqQueue.poll();
-                request.receivedMsg = sentMsg;
-                request.done = true;
+                request.deliver(sentMsg);
 
                 // even if we release only one thread, we do not know its position of the queue
                 // of the condition variable, so it is necessary to notify all blocked threads,
@@ -870,6 +1165,235 @@ class MessageQueueKernelStyleImplicitMonitor<T> {
             }
         }
     }
+
+    // receive up to "max" messages from the queue, waiting until there is at least one;
+    // returns null when it times out
+    public List<T> receiveAll(int max, long millisTimeout) throws InterruptedException {
+        if (max < 1)
+            throw new IllegalArgumentException("max");
+        // if the was previously interrupted, throw the appropriate exception
+        if (Thread.interrupted())
+            throw new InterruptedException();
+
+        synchronized(monitor) {
+            // take as many pending messages as possible with one monitor acquisition
+            if (reqQueue.size() == 0 && canReceive())
+                return receiveSideEffect(max);
+            Request request = new Request(max);
+            reqQueue.addLast(request);
+            long deadline = TimeoutHolder.deadline(millisTimeout);
+            do {
+                try {
+                    if (TimeoutHolder.isTimed(deadline)) {
+                        if ((millisTimeout = TimeoutHolder.remainingMillis(deadline)) <= 0) {
+                            reqQueue.remove(request);
+                            return null;
+                        }
+                        monitor.wait(millisTimeout);
+                    } else
+                        monitor.wait();
+                } catch (InterruptedException ie) {
+                    if (request.done) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    reqQueue.remove(request);
+                    throw ie;
+                }
+            } while (!request.done);
+            return request.receivedMsgs;
+        }
+    }
+
+	// send a list of messages to the queue, with only one monitor acquisition and,
+	// at most, one notification
+    public void sendAll(List<T> sentMsgs) {
+        synchronized(monitor) {
+			int delivered = deliverToWaitingReceivers(sentMsgs);
+			pendingMessages.addAll(sentMsgs.subList(delivered, sentMsgs.size()));
+			if (delivered > 0)
+				monitor.notifyAll();
+		}
+	}
+
+	// deliver the messages directly to the waiting receivers, in FIFO order, where the
+	// receiver of a batch gets as many messages as it requested; returns the number of
+	// messages delivered.
+	private int deliverToWaitingReceivers(List<T> msgs) {
+		int delivered = 0;
+		while (reqQueue.size() > 0 && delivered < msgs.size()) {
+			Request request = reqQueue.poll();
+			if (request.max == 0) {
+				request.deliver(msgs.get(delivered++));
+			} else {
+				int count = Math.min(request.max, msgs.size() - delivered);
+				request.receivedMsgs = new ArrayList<>(msgs.subList(delivered, delivered + count));
+				request.done = true;
+				delivered += count;
+			}
+		}
+		return delivered;
+	}
+}
+
+/**
+ * Message queue following the kernel style, using an *implicit Java monitor*,
+ * with support for timeout on the receive operation, where the receiver threads
+ * park outside the monitor and only the satisfied receivers are unparked.
+ */
+
+class MessageQueueKernelStyleImplicitMonitorSpecificNotification<T> {
+    // implicit Java monitor that synchronizes access to the mutable shared state
+    private final Object monitor = new Object();
+
+    // the type used to hold a receive request
+    private class Request {
+		final Thread thread = Thread.currentThread();	// the receiver thread
+		final int max;			// the maximum number of messages of a batch, 0 for receive
+		T receivedMsg;	    	// received message
+		List<T> receivedMsgs;	// received messages of a batch
+		volatile boolean done;	// true when done; it is read outside the monitor
+
+		Request(int max) { this.max = max; }
+
+		// deliver one message to the request
+		void deliver(T msg) {
+			if (max > 0) {
+				receivedMsgs = new ArrayList<>(1);
+				receivedMsgs.add(msg);
+			} else
+				receivedMsg = msg;
+			done = true;
+		}
+	}
+    
+    // queue of pending receive requests
+    private final LinkedList<Request> reqQueue = new LinkedList<Request>();
+    
+	// synchronization state: list of messages pending for reception
+    private final LinkedList<T> pendingMessages = new LinkedList<T>();
+
+    // initialize the message queue
+	public MessageQueueKernelStyleImplicitMonitorSpecificNotification() { }
+
+    // receive the next message from the queue; returns null when it times out
+    public T receive(long millisTimeout) throws InterruptedException {
+        // if the was previously interrupted, throw the appropriate exception
+        if (Thread.interrupted())
+            throw new InterruptedException();
+
+		Request request;
+        synchronized(monitor) {            
+            if (reqQueue.size() == 0 && pendingMessages.size() > 0)
+                return pendingMessages.removeFirst();
+            request = new Request(0);
+            reqQueue.addLast(request);
+		}
+		return awaitRequest(request, millisTimeout) ? request.receivedMsg : null;
+    }
+
+    // receive up to "max" messages from the queue, waiting until there is at least one;
+    // returns null when it times out
+    public List<T> receiveAll(int max, long millisTimeout) throws InterruptedException {
+		if (max < 1)
+			throw new IllegalArgumentException("max");
+        if (Thread.interrupted())
+            throw new InterruptedException();
+
+		Request request;
+        synchronized(monitor) {
+			// take as many pending messages as possible with one monitor acquisition
+            if (reqQueue.size() == 0 && pendingMessages.size() > 0) {
+				List<T> msgs = new ArrayList<>(Math.min(max, pendingMessages.size()));
+				while (msgs.size() < max && pendingMessages.size() > 0)
+					msgs.add(pendingMessages.removeFirst());
+				return msgs;
+			}
+            request = new Request(max);
+            reqQueue.addLast(request);
+		}
+		return awaitRequest(request, millisTimeout) ? request.receivedMsgs : null;
+	}
+
+	// wait outside the monitor until a sender thread completes the request; returns
+	// false when it times out
+	private boolean awaitRequest(Request request, long millisTimeout) throws InterruptedException {
+		boolean interrupted = false;
+		long deadline = TimeoutHolder.deadline(millisTimeout);
+		long nanosTimeout;
+		while (!request.done) {
+			if (TimeoutHolder.isTimed(deadline)) {
+				if ((nanosTimeout = TimeoutHolder.remainingNanos(deadline)) <= 0)
+					break;
+				LockSupport.parkNanos(this, nanosTimeout);
+			} else
+				LockSupport.park(this);
+			if (Thread.interrupted()) {
+				interrupted = true;
+				break;
+			}
+		}
+		if (!request.done) {
+			synchronized(monitor) {
+				// the request may have been completed before we reacquire the monitor
+				if (!request.done) {
+					reqQueue.remove(request);
+					if (interrupted)
+						throw new InterruptedException();
+					return false;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		return true;
+	}
+
+	// send a message to the queue, delivering it directly to a blocked thread, if any
+	// (as SendOptimized)
+    public void Send(T sentMsg) {
+		synchronized(monitor) {
+            if (reqQueue.size() > 0) {
+                Request request = reqQueue.poll();
+                request.deliver(sentMsg);
+				// *specific notification*
+				LockSupport.unpark(request.thread);
+            } else {
+                // no receiving thread, so the message is left in the respective queue
+                pendingMessages.addLast(sentMsg);
+            }
+        }
+    }
+
+	// send a list of messages to the queue with only one monitor acquisition, unparking
+	// only the receivers that got messages
+    public void sendAll(List<T> sentMsgs) {
+		synchronized(monitor) {
+			int delivered = deliverToWaitingReceivers(sentMsgs);
+			pendingMessages.addAll(sentMsgs.subList(delivered, sentMsgs.size()));
+		}
+	}
+
+	// deliver the messages directly to the waiting receivers, in FIFO order, where the
+	// receiver of a batch gets as many messages as it requested; returns the number of
+	// messages delivered.
+	private int deliverToWaitingReceivers(List<T> msgs) {
+		int delivered = 0;
+		while (reqQueue.size() > 0 && delivered < msgs.size()) {
+			Request request = reqQueue.poll();
+			if (request.max == 0) {
+				request.deliver(msgs.get(delivered++));
+			} else {
+				int count = Math.min(request.max, msgs.size() - delivered);
+				request.receivedMsgs = new ArrayList<>(msgs.subList(delivered, delivered + count));
+				request.done = true;
+				delivered += count;
+			}
+			// *specific notification*
+			LockSupport.unpark(request.thread);
+		}
+		return delivered;
+	}
 }
 
 /**
@@ -887,10 +1411,25 @@ class MessageQueueKernelStyleExplicitMonitorSpecificNotification<T> {
     // the type used to hold a receive request
     private class Request {
         final Condition okToReceive;
+        final int max; // the maximum number of messages of a batch, 0 for receive
         T receivedMsg; // received message
+        List<T> receivedMsgs; // received messages of a batch
         boolean done; // true when done
 
-        Request(Condition okToRec) { okToReceive = okToRec; }
+        Request(Condition okToRec, int max) {
+            okToReceive = okToRec;
+            this.max = max;
+        }
+
+        // deliver one message to the request
+        void deliver(T msg) {
+            if (max > 0) {
+                receivedMsgs = new ArrayList<>(1);
+                receivedMsgs.add(msg);
+            } else
+                receivedMsg = msg;
+            done = true;
+        }
     }
 
     // queue of pending receive requests
@@ -909,6 +1448,14 @@ class MessageQueueKernelStyleExplicitMonitorSpecificNotification<T> {
     // when a message is received, it must be removed from the pending message list
     private T receiveSideEffect() { return pendingMessages.removeFirst(); }
 
+    // when a batch of messages is received, they must be removed from the pending message list
+    private List<T> receiveSideEffect(int max) {
+        List<T> msgs = new ArrayList<>(Math.min(max, pendingMessages.size()));
+        while (msgs.size() < max && canReceive())
+            msgs.add(pendingMessages.removeFirst());
+        return msgs;
+    }
+
     // add the sent message to the pending messages list
     private void updateStateOnSend(T sentMessage) { pendingMessages.addLast(sentMessage); }
 
@@ -922,7 +1469,7 @@ class MessageQueueKernelStyleExplicitMonitorSpecificNotification<T> {
         try {
 			if (reqQueue.size() == 0 && canReceive())
 				return receiveSideEffect();
-			Request request = new Request(lock.newCondition());
+			Request request = new Request(lock.newCondition(), 0);
             reqQueue.addLast(request); // enqueue the "request" at the end of request queue
             boolean isTimed = millisTimeout > 0;
             long nanosTimeout = isTimed ? TimeUnit.MILLISECONDS.toNanos(millisTimeout) : 0L;
@@ -964,8 +1511,7 @@ class MessageQueueKernelStyleExplicitMonitorSpecificNotification<T> {
             if (reqQueue.size() > 0) {
                 // here we know that the queue has one message, so we do not call "canAcquire"
                 Request request = reqQueue.poll();
-                request.receivedMsg = receiveSideEffect();
-                request.done = true;
+                request.deliver(receiveSideEffect());
                 // notify the receiver thread on its private condition varaiable.
                 request.okToReceive.signal();
             }
@@ -974,15 +1520,15 @@ class MessageQueueKernelStyleExplicitMonitorSpecificNotification<T> {
         }
     }
 
-    // send a message to the queue (optimized)
+    // send a message to the queue (optimized): the message is delivered directly to
+    // the first blocked receiver, if any, so that it is never buffered
     public void SendOptimized(T sentMsg) {
         lock.lock();
         try {
             // try to deliver the message directly to a blocked thread
             if (reqQueue.size() > 0) {
                 Request request = reqQueue.poll();
-                request.receivedMsg = sentMsg;
-                request.done = true;
+                request.deliver(sentMsg);
                 // notify the receiver thread on its private condition varaiable.
                 request.okToReceive.signal();
             } else {
@@ -993,8 +1539,436 @@ class MessageQueueKernelStyleExplicitMonitorSpecificNotification<T> {
             lock.unlock();
         }
     }
+
+    // receive up to "max" messages from the queue, waiting until there is at least one;
+    // returns null when it times out
+    public List<T> receiveAll(int max, long millisTimeout) throws InterruptedException {
+        if (max < 1)
+            throw new IllegalArgumentException("max");
+        // if the was previously interrupted, throw the appropriate exception
+        if (Thread.interrupted())
+            throw new InterruptedException();
+
+        lock.lock();
+        try {
+            // take as many pending messages as possible with one lock acquisition
+            if (reqQueue.size() == 0 && canReceive())
+                return receiveSideEffect(max);
+            Request request = new Request(lock.newCondition(), max);
+            reqQueue.addLast(request);
+            boolean isTimed = millisTimeout > 0;
+            long nanosTimeout = isTimed ? TimeUnit.MILLISECONDS.toNanos(millisTimeout) : 0L;
+            do {
+                try {
+                    if (isTimed) {
+                        if (nanosTimeout <= 0L) {
+                            reqQueue.remove(request);
+                            return null;
+                        }
+                        nanosTimeout = request.okToReceive.awaitNanos(nanosTimeout);
+                    } else
+                        request.okToReceive.await();
+                } catch (InterruptedException ie) {
+                    if (request.done) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    reqQueue.remove(request);
+                    throw ie;
+                }
+            } while (!request.done);
+            return request.receivedMsgs;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // send a list of messages to the queue with only one lock acquisition, signalling
+    // only the receivers that got messages
+    public void sendAll(List<T> sentMsgs) {
+        lock.lock();
+        try {
+            int delivered = deliverToWaitingReceivers(sentMsgs);
+            pendingMessages.addAll(sentMsgs.subList(delivered, sentMsgs.size()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+	// deliver the messages directly to the waiting receivers, in FIFO order, where the
+	// receiver of a batch gets as many messages as it requested; returns the number of
+	// messages delivered.
+	private int deliverToWaitingReceivers(List<T> msgs) {
+		int delivered = 0;
+		while (reqQueue.size() > 0 && delivered < msgs.size()) {
+			Request request = reqQueue.poll();
+			if (request.max == 0) {
+				request.deliver(msgs.get(delivered++));
+			} else {
+				int count = Math.min(request.max, msgs.size() - delivered);
+				request.receivedMsgs = new ArrayList<>(msgs.subList(delivered, delivered + count));
+				request.done = true;
+				delivered += count;
+			}
+			// notify the receiver thread on its private condition varaiable.
+			request.okToReceive.signal();
+		}
+		return delivered;
+	}
 }
 
 public class GenericSynchronizerKernelStyle {
-    public static void main(String... args) {}
+
+	// the interface used to test and benchmark the semaphores with implicit monitors
+	private interface Semaphore {
+		boolean acquire(int acquires, long millisTimeout) throws InterruptedException;
+		void release(int releases);
+	}
+
+	private static Semaphore newSemaphore(int initial, boolean specificNotifications) {
+		if (specificNotifications) {
+			SemaphoreKernelStyleImplicitMonitorSpecificNotifications sem =
+							new SemaphoreKernelStyleImplicitMonitorSpecificNotifications(initial);
+			return new Semaphore() {
+				public boolean acquire(int acquires, long millisTimeout) throws InterruptedException {
+					return sem.acquire(acquires, millisTimeout);
+				}
+				public void release(int releases) { sem.release(releases); }
+			};
+		}
+		SemaphoreKernelStyleImplicitMonitor sem = new SemaphoreKernelStyleImplicitMonitor(initial);
+		return new Semaphore() {
+			public boolean acquire(int acquires, long millisTimeout) throws InterruptedException {
+				return sem.acquire(acquires, millisTimeout);
+			}
+			public void release(int releases) { sem.release(releases); }
+		};
+	}
+
+	// the interfaces used to test and benchmark the message queues; the rendezvous
+	// queue and KernelStyleMessageQueue have no batch operations, so they are only
+	// a MessageQueue
+	private interface MessageQueue<T> {
+		T receive(long millisTimeout) throws InterruptedException;
+		void send(T sentMsg) throws InterruptedException;
+	}
+
+	private interface BatchMessageQueue<T> extends MessageQueue<T> {
+		List<T> receiveAll(int max, long millisTimeout) throws InterruptedException;
+		void sendAll(List<T> sentMsgs);
+	}
+
+	// the kinds "notifyAll optimized" and "condition optimized" send with SendOptimized
+	private static <T> BatchMessageQueue<T> newBatchMessageQueue(String kind) {
+		boolean optimized = kind.endsWith(" optimized");
+		switch (optimized ? kind.substring(0, kind.length() - " optimized".length()) : kind) {
+		case "notifyAll": {
+			MessageQueueKernelStyleImplicitMonitor<T> queue = new MessageQueueKernelStyleImplicitMonitor<>();
+			return new BatchMessageQueue<T>() {
+				public T receive(long millisTimeout) throws InterruptedException {
+					return queue.receive(millisTimeout);
+				}
+				public void send(T sentMsg) {
+					if (optimized)
+						queue.SendOptimized(sentMsg);
+					else
+						queue.Send(sentMsg);
+				}
+				public List<T> receiveAll(int max, long millisTimeout) throws InterruptedException {
+					return queue.receiveAll(max, millisTimeout);
+				}
+				public void sendAll(List<T> sentMsgs) { queue.sendAll(sentMsgs); }
+			};
+		}
+		case "park/unpark": {
+			MessageQueueKernelStyleImplicitMonitorSpecificNotification<T> queue =
+								new MessageQueueKernelStyleImplicitMonitorSpecificNotification<>();
+			return new BatchMessageQueue<T>() {
+				public T receive(long millisTimeout) throws InterruptedException {
+					return queue.receive(millisTimeout);
+				}
+				public void send(T sentMsg) { queue.Send(sentMsg); }
+				public List<T> receiveAll(int max, long millisTimeout) throws InterruptedException {
+					return queue.receiveAll(max, millisTimeout);
+				}
+				public void sendAll(List<T> sentMsgs) { queue.sendAll(sentMsgs); }
+			};
+		}
+		default: {
+			MessageQueueKernelStyleExplicitMonitorSpecificNotification<T> queue =
+								new MessageQueueKernelStyleExplicitMonitorSpecificNotification<>();
+			return new BatchMessageQueue<T>() {
+				public T receive(long millisTimeout) throws InterruptedException {
+					return queue.receive(millisTimeout);
+				}
+				public void send(T sentMsg) {
+					if (optimized)
+						queue.SendOptimized(sentMsg);
+					else
+						queue.Send(sentMsg);
+				}
+				public List<T> receiveAll(int max, long millisTimeout) throws InterruptedException {
+					return queue.receiveAll(max, millisTimeout);
+				}
+				public void sendAll(List<T> sentMsgs) { queue.sendAll(sentMsgs); }
+			};
+		}
+		}
+	}
+
+	private static <T> MessageQueue<T> newMessageQueue(String kind) {
+		if (kind.equals("KernelStyleMessageQueue")) {
+			// the message queue built on the reusable KernelStyleSynchronizer
+			KernelStyleMessageQueue<T> queue = new KernelStyleMessageQueue<>();
+			return new MessageQueue<T>() {
+				public T receive(long millisTimeout) throws InterruptedException {
+					return queue.receive(millisTimeout);
+				}
+				public void send(T sentMsg) { queue.send(sentMsg); }
+			};
+		}
+		if (!kind.equals("rendezvous"))
+			return newBatchMessageQueue(kind);
+		// the bounded message queue with capacity 0 (synchronous queue)
+		BoundedMessageQueueKernelStyle<T> queue = new BoundedMessageQueueKernelStyle<>(0);
+		return new MessageQueue<T>() {
+			public T receive(long millisTimeout) throws InterruptedException {
+				return queue.receive(millisTimeout);
+			}
+			public void send(T sentMsg) throws InterruptedException { queue.send(sentMsg); }
+		};
+	}
+
+	// returns the sum of the context switches of all the threads of the process, read
+	// from /proc on Linux, or -1 when not available.
+	private static long contextSwitches() {
+		long total = 0;
+		try (DirectoryStream<Path> tasks = Files.newDirectoryStream(Paths.get("/proc/self/task"))) {
+			for (Path task : tasks) {
+				try {
+					for (String line : Files.readAllLines(task.resolve("status"))) {
+						if (line.startsWith("voluntary_ctxt_switches") ||
+							line.startsWith("nonvoluntary_ctxt_switches"))
+							total += Long.parseLong(line.substring(line.indexOf(':') + 1).trim());
+					}
+				} catch (IOException ioe) {}	// the thread exited meanwhile
+			}
+		} catch (IOException | RuntimeException ex) {
+			return -1L;
+		}
+		return total;
+	}
+
+	// use the semaphore as a lock with timeouts, checking mutual exclusion
+	private static boolean testSemaphoreAsLock(boolean specificNotifications) throws InterruptedException {
+		final int THREADS = 10;
+		final int RUN_TIME = 2000;
+		final int MAX_ACQUIRE_TIMEOUT = 10;
+		Semaphore lockSem = newSemaphore(1, specificNotifications);
+		AtomicInteger inside = new AtomicInteger(), violations = new AtomicInteger();
+		AtomicInteger acquires = new AtomicInteger(), timeouts = new AtomicInteger();
+		Thread[] threads = new Thread[THREADS];
+		for (int i = 0; i < THREADS; i++) {
+			final int tid = i;
+			threads[i] = new Thread(() -> {
+				Random rnd = new Random(tid);
+				try {
+					while (!Thread.currentThread().isInterrupted()) {
+						if (!lockSem.acquire(1, rnd.nextInt(MAX_ACQUIRE_TIMEOUT))) {
+							timeouts.incrementAndGet();
+							continue;
+						}
+						try {
+							if (inside.incrementAndGet() != 1)
+								violations.incrementAndGet();
+							acquires.incrementAndGet();
+							if (rnd.nextInt(100) == 0)
+								Thread.sleep(1);
+						} finally {
+							inside.decrementAndGet();
+							lockSem.release(1);
+						}
+					}
+				} catch (InterruptedException ie) {}
+			});
+			threads[i].start();
+		}
+		Thread.sleep(RUN_TIME);
+		for (Thread thread : threads) {
+			thread.interrupt();
+			thread.join();
+		}
+		System.out.printf("--semaphore as lock (%s): acquires: %d, timeouts: %d, violations: %d%n",
+						  specificNotifications ? "park/unpark" : "notifyAll", acquires.get(),
+						  timeouts.get(), violations.get());
+		// all the permits must be available
+		return violations.get() == 0 && lockSem.acquire(1, 0) && !lockSem.acquire(1, 0);
+	}
+
+	// send and receive messages with many receivers; each message is received once
+	private static boolean testMessageQueue() throws InterruptedException {
+		final int RECEIVERS = 8;
+		final int MESSAGES = 100000;
+		MessageQueueKernelStyleImplicitMonitorSpecificNotification<Integer> queue =
+							new MessageQueueKernelStyleImplicitMonitorSpecificNotification<>();
+		AtomicInteger received = new AtomicInteger();
+		Thread[] receivers = new Thread[RECEIVERS];
+		for (int i = 0; i < RECEIVERS; i++) {
+			receivers[i] = new Thread(() -> {
+				try {
+					while (queue.receive(100) != null)
+						received.incrementAndGet();
+				} catch (InterruptedException ie) {}
+			});
+			receivers[i].start();
+		}
+		for (int m = 0; m < MESSAGES; m++)
+			queue.Send(m);
+		for (Thread receiver : receivers)
+			receiver.join();
+		System.out.printf("--message queue (park/unpark): received: %d%n", received.get());
+		return received.get() == MESSAGES;
+	}
+
+	// send batches of messages to receivers of batches; each message is received once,
+	// no batch is larger than requested, and the messages of a batch keep the send order
+	private static boolean testBatchMessageQueue(String kind) throws InterruptedException {
+		final int RECEIVERS = 8;
+		final int BATCHES = 10000, BATCH_SIZE = 10, MAX_RECEIVE = 4;
+		BatchMessageQueue<Integer> queue = newBatchMessageQueue(kind);
+		AtomicInteger received = new AtomicInteger(), violations = new AtomicInteger();
+		Thread[] receivers = new Thread[RECEIVERS];
+		for (int i = 0; i < RECEIVERS; i++) {
+			receivers[i] = new Thread(() -> {
+				try {
+					List<Integer> msgs;
+					while ((msgs = queue.receiveAll(MAX_RECEIVE, 100)) != null) {
+						if (msgs.isEmpty() || msgs.size() > MAX_RECEIVE)
+							violations.incrementAndGet();
+						for (int m = 1; m < msgs.size(); m++) {
+							if (msgs.get(m) <= msgs.get(m - 1))
+								violations.incrementAndGet();
+						}
+						received.addAndGet(msgs.size());
+					}
+				} catch (InterruptedException ie) {}
+			});
+			receivers[i].start();
+		}
+		for (int b = 0; b < BATCHES; b++) {
+			List<Integer> batch = new ArrayList<>(BATCH_SIZE);
+			for (int m = 0; m < BATCH_SIZE; m++)
+				batch.add(b * BATCH_SIZE + m);
+			queue.sendAll(batch);
+		}
+		for (Thread receiver : receivers)
+			receiver.join();
+		System.out.printf("--batch message queue (%s): received: %d, violations: %d%n",
+						  kind, received.get(), violations.get());
+		// the queue is empty; a timeout of 0 is infinite in the condition queue, as in its receive
+		return received.get() == BATCHES * BATCH_SIZE && violations.get() == 0 &&
+			   queue.receiveAll(MAX_RECEIVE, 1) == null;
+	}
+
+	/**
+	 * Benchmark: WAITERS threads are blocked on the semaphore and each release of one
+	 * permit satisfies exactly one of them. With notifyAll every release wakes up all
+	 * the remaining waiters (a "herd"), each reacquiring the monitor just to check its
+	 * request; with park/unpark only the satisfied waiter is woken up.
+	 */
+	private static void benchmarkHerd(boolean specificNotifications, int waiters)
+											throws InterruptedException {
+		Semaphore sem = newSemaphore(0, specificNotifications);
+		AtomicInteger acquired = new AtomicInteger();
+		CountDownLatch exit = new CountDownLatch(1);
+		Thread[] threads = new Thread[waiters];
+		for (int i = 0; i < waiters; i++) {
+			threads[i] = new Thread(() -> {
+				try {
+					sem.acquire(1, -1L);
+					acquired.incrementAndGet();
+					exit.await();	// the thread must stay alive to count its context switches
+				} catch (InterruptedException ie) {}
+			});
+			threads[i].start();
+		}
+		// wait until all the threads are blocked on the semaphore
+		for (Thread thread : threads) {
+			while (thread.getState() != Thread.State.WAITING)
+				Thread.sleep(1);
+		}
+		long switches = contextSwitches();
+		long start = System.nanoTime();
+		for (int i = 1; i <= waiters; i++) {
+			sem.release(1);
+			// wait until the satisfied waiter proceeds
+			while (acquired.get() < i)
+				Thread.yield();
+		}
+		long elapsed = System.nanoTime() - start;
+		long after = contextSwitches();
+		exit.countDown();
+		for (Thread thread : threads)
+			thread.join();
+		System.out.printf("%s, %d, %d, %s%n", specificNotifications ? "park/unpark" : "notifyAll",
+						  waiters, elapsed / 1000000, switches < 0 ? "n/a" : "" + (after - switches));
+	}
+
+	/**
+	 * Benchmark: ping-pong between two threads through two message queues, where each
+	 * message is delivered to a receiver that is already blocked. Measures the round
+	 * trip latency, whose percentiles show the cost of the notification used, and of
+	 * buffering the message in Send against delivering it directly in SendOptimized.
+	 */
+	private static void benchmarkPingPong(String kind) throws InterruptedException {
+		final int WARMUP = 5000, ROUNDS = 20000;
+		MessageQueue<Integer> ping = newMessageQueue(kind), pong = newMessageQueue(kind);
+		Thread echo = new Thread(() -> {
+			try {
+				Integer msg;
+				while ((msg = ping.receive(-1L)) >= 0)
+					pong.send(msg);
+			} catch (InterruptedException ie) {}
+		});
+		echo.start();
+		long[] rtts = new long[ROUNDS];
+		for (int i = -WARMUP; i < ROUNDS; i++) {
+			long start = System.nanoTime();
+			ping.send(i + WARMUP);
+			pong.receive(-1L);
+			if (i >= 0)
+				rtts[i] = System.nanoTime() - start;
+		}
+		ping.send(-1);
+		echo.join();
+		java.util.Arrays.sort(rtts);
+		System.out.printf("%s, %d, %d, %d%n", kind, rtts[ROUNDS / 2] / 1000,
+						  rtts[ROUNDS * 99 / 100] / 1000, rtts[ROUNDS - 1] / 1000);
+	}
+
+	public static void main(String... args) throws InterruptedException {
+		for (boolean specificNotifications : new boolean[] { false, true })
+			System.out.printf("-->test semaphore as lock (%s): %s%n",
+							  specificNotifications ? "park/unpark" : "notifyAll",
+							  testSemaphoreAsLock(specificNotifications) ? "passed" : "failed");
+		System.out.printf("-->test message queue (park/unpark): %s%n",
+						  testMessageQueue() ? "passed" : "failed");
+		for (String kind : new String[] { "notifyAll", "park/unpark", "condition" })
+			System.out.printf("-->test batch message queue (%s): %s%n", kind,
+							  testBatchMessageQueue(kind) ? "passed" : "failed");
+
+		System.out.println("-->benchmark: one permit released at a time to blocked waiters");
+		System.out.println("notification, waiters, ms, context switches");
+		for (int waiters = 100; waiters <= 500; waiters += 200) {
+			benchmarkHerd(false, waiters);
+			benchmarkHerd(true, waiters);
+		}
+
+		System.out.println("-->benchmark: ping-pong round trip latency (us)");
+		System.out.println("queue, p50, p99, max");
+		for (String kind : new String[] { "notifyAll", "notifyAll optimized", "park/unpark",
+										  "condition", "condition optimized", "KernelStyleMessageQueue",
+										  "rendezvous" })
+			benchmarkPingPong(kind);
+	}
 }
@@ -33,7 +33,7 @@ class AcquireResult {}
  * of monitors).
  */
 
-///***
+/***
 class GenericSynchronizerMonitorStylePseudoCode {
 	// lock that synchronizes the access to the mutable shared state
 	private Lock lock = new Lock();
@@ -98,7 +98,7 @@ class GenericSynchronizerMonitorStylePseudoCode {
  * support for timeout on the acquire operation.
  */
 
-///***
+/***
 class GenericSynchronizerMonitorStyleImplicitMonitor {
 	// implicit Java monitor provides synchronization of the access to the shared
 	// mutable state, supports the control synchronization inherent to
@@ -134,10 +134,10 @@ class GenericSynchronizerMonitorStyleImplicitMonitor {
         synchronized(monitor) {
 			if (canAcquire(acquireArgs))
 				return acquireSideEffect(acquireArgs);
-			TimeoutHolder th = new TimeoutHolder(millisTimeout);
+			long deadline = TimeoutHolder.deadline(millisTimeout);
 			do {
-				if (th.isTimed()) {
-					if ((millisTimeout = th.value()) <= 0)
+				if (TimeoutHolder.isTimed(deadline)) {
+					if ((millisTimeout = TimeoutHolder.remainingMillis(deadline)) <= 0)
 						return null;		// timeout
 					monitor.wait(millisTimeout);
 				} else
@@ -164,7 +164,7 @@ class GenericSynchronizerMonitorStyleImplicitMonitor {
  * support for timeout on the acquire operation.
  */
 
-///***
+/***
 class GenericSynchronizerMonitorStyleExplicitMonitor {
 	// explicit Java monitor that suports the synchronzation of shared data access
 	// and supports also the control synchronization.
@@ -236,6 +236,12 @@ class GenericSynchronizerMonitorStyleExplicitMonitor {
 /**
  * Semaphore following the monitor style, using an *implicit Java monitor*, with
  * support for timeout on the acquire operation.
+ *
+ * In the non-fair mode the acquirers barge: a thread that arrives may acquire the
+ * permits even if other threads are waiting, which maximizes the throughput but may
+ * starve the waiters (mainly those that request more permits). In the fair mode, the
+ * waiters are served in FIFO order: a thread only acquires when the queue of waiters
+ * is empty or it is at the head of the queue, so the waiting is bounded.
  */
 
 class SemaphoreMonitorStyleImplictMonitor {
@@ -246,16 +252,26 @@ class SemaphoreMonitorStyleImplictMonitor {
 	// synchronization state
 	private int permits;
 
+	// the fairness mode and, in fair mode, the queue of waiting threads
+	private final boolean fair;
+	private final LinkedList<Thread> waiters = new LinkedList<Thread>();
+
 	// initialize the semaphore
-	public SemaphoreMonitorStyleImplictMonitor(int initial) {
+	public SemaphoreMonitorStyleImplictMonitor(int initial, boolean fair) {
 		if (initial > 0)
 			permits = initial;
+		this.fair = fair;
 	}
 
+	public SemaphoreMonitorStyleImplictMonitor(int initial) { this(initial, false); }
+
 	// if the pending permits e equal or greater to the request,
 	// we can acquire immediately
 	private boolean canAcquire(int acquires) { return permits >= acquires; }
 
+	// in fair mode, the current thread can acquire only if it is the first waiter
+	private boolean isTurnOf(Thread thread) { return !fair || waiters.peekFirst() == thread; }
+
 	// deduce the acquired permits
 	private void acquireSideEffect(int acquires) { permits -= acquires; }
 
@@ -265,22 +281,39 @@ class SemaphoreMonitorStyleImplictMonitor {
 	// acquires the specified number of permits
 	public boolean acquire(int acquires, long millisTimeout) throws InterruptedException {
 		synchronized(monitor) {
-			if (canAcquire(acquires)) {
+			// in non-fair mode the waiters do not prevent barging
+			if ((!fair || waiters.size() == 0) && canAcquire(acquires)) {
 				acquireSideEffect(acquires);
 				return true;
 			}
-			TimeoutHolder th = new TimeoutHolder(millisTimeout);
-			do {
-				if (th.isTimed()) {
-					if ((millisTimeout = th.value()) <= 0)
-						return false; // timeout
-					monitor.wait(millisTimeout);
-				} else
-					monitor.wait();
-			} while (!canAcquire(acquires));
-			// successful acquire
-			acquireSideEffect(acquires);
-			return true;
+			Thread current = Thread.currentThread();
+			if (fair)
+				waiters.addLast(current);
+			boolean acquired = false;
+			try {
+				long deadline = TimeoutHolder.deadline(millisTimeout);
+				do {
+					if (TimeoutHolder.isTimed(deadline)) {
+						if ((millisTimeout = TimeoutHolder.remainingMillis(deadline)) <= 0)
+							return false; // timeout
+						monitor.wait(millisTimeout);
+					} else
+						monitor.wait();
+				} while (!(isTurnOf(current) && canAcquire(acquires)));
+				// successful acquire
+				acquireSideEffect(acquires);
+				acquired = true;
+				return true;
+			} finally {
+				if (fair) {
+					boolean wasFirst = waiters.peekFirst() == current;
+					waiters.remove(current);
+					// the next waiter may be able to acquire, with the remaining permits
+					// or because we give up
+					if (wasFirst && (acquired ? permits > 0 : waiters.size() > 0))
+						monitor.notifyAll();
+				}
+			}
 		}
 	}
 
@@ -295,7 +328,8 @@ class SemaphoreMonitorStyleImplictMonitor {
 
 /**
  * Semaphore following the monitor style, using an *explicit Java monitors*,
- * with timeout support on acquire operation.
+ * with timeout support on acquire operation, and the same fairness modes of
+ * SemaphoreMonitorStyleImplictMonitor.
  */
 
  class SemaphoreMonitorStyleExplicitMonitor {
@@ -306,16 +340,26 @@ class SemaphoreMonitorStyleImplictMonitor {
 
 	// synchronization state
 	private int permits;
+
+	// the fairness mode and, in fair mode, the queue of waiting threads
+	private final boolean fair;
+	private final LinkedList<Thread> waiters = new LinkedList<Thread>();
 	
 	// initialize the semaphore
-	public SemaphoreMonitorStyleExplicitMonitor(int initial) {
+	public SemaphoreMonitorStyleExplicitMonitor(int initial, boolean fair) {
 		if (initial > 0)
 			permits = initial;
+		this.fair = fair;
 	}
+
+	public SemaphoreMonitorStyleExplicitMonitor(int initial) { this(initial, false); }
 	
 	// if the pending permits e equal or greater to the request,
 	// we can acquire immediately
 	private boolean canAcquire(int acquires) { return permits >= acquires; }
+
+	// in fair mode, the current thread can acquire only if it is the first waiter
+	private boolean isTurnOf(Thread thread) { return !fair || waiters.peekFirst() == thread; }
 	
 	// deduce the acquired permits
 	private void acquireSideEffect(int acquires) { permits -= acquires; }
@@ -327,22 +371,39 @@ class SemaphoreMonitorStyleImplictMonitor {
 	public boolean acquire(int acquires, long millisTimeout) throws InterruptedException {
 		lock.lock();
 		try {
-			if (canAcquire(acquires)) {
+			// in non-fair mode the waiters do not prevent barging
+			if ((!fair || waiters.size() == 0) && canAcquire(acquires)) {
                 acquireSideEffect(acquires);
 				return true;
 			}
-			boolean isTimed = millisTimeout > 0;
-			long nanosTimeout = isTimed ? TimeUnit.MILLISECONDS.toNanos(millisTimeout) : 0L;
-			do {
-				if (isTimed) {
-					if (nanosTimeout <= 0)
-						return false;
-					nanosTimeout = okToAcquire.awaitNanos(nanosTimeout);
-				} else
-					okToAcquire.await();
-			} while (!canAcquire(acquires));
-			acquireSideEffect(acquires);
-			return true;
+			Thread current = Thread.currentThread();
+			if (fair)
+				waiters.addLast(current);
+			boolean acquired = false;
+			try {
+				boolean isTimed = millisTimeout >= 0;
+				long nanosTimeout = isTimed ? TimeUnit.MILLISECONDS.toNanos(millisTimeout) : 0L;
+				do {
+					if (isTimed) {
+						if (nanosTimeout <= 0)
+							return false;
+						nanosTimeout = okToAcquire.awaitNanos(nanosTimeout);
+					} else
+						okToAcquire.await();
+				} while (!(isTurnOf(current) && canAcquire(acquires)));
+				acquireSideEffect(acquires);
+				acquired = true;
+				return true;
+			} finally {
+				if (fair) {
+					boolean wasFirst = waiters.peekFirst() == current;
+					waiters.remove(current);
+					// the next waiter may be able to acquire, with the remaining permits
+					// or because we give up
+					if (wasFirst && (acquired ? permits > 0 : waiters.size() > 0))
+						okToAcquire.signalAll();
+				}
+			}
 		} finally {
 			lock.unlock();
 		}
@@ -390,14 +451,14 @@ class MessageQueueMonitorStyleImplicitMonitor<T> {
         synchronized(monitor) {
 			if (canReceive())
 				return receiveSideEffect();
-			TimeoutHolder th = new TimeoutHolder(millisTimeout);
+			long deadline = TimeoutHolder.deadline(millisTimeout);
 			do {
-				if (th.isTimed()) {
-					if ((millisTimeout = th.value()) <= 0)
+				if (TimeoutHolder.isTimed(deadline)) {
+					if ((millisTimeout = TimeoutHolder.remainingMillis(deadline)) <= 0)
 						return null;	// timeout
 					monitor.wait(millisTimeout);
 				} else
-					monitor.wait(millisTimeout);
+					monitor.wait();
 			} while (!canReceive());
         	return receiveSideEffect();
 		}
@@ -471,3 +532,190 @@ class MessageQueueMonitorStyleExplicitMonitor<T> {
 		}
 	}
 }
+
+/**
+ * Test and benchmark of the fair and non-fair modes of the monitor style semaphores,
+ * compared with the kernel style semaphore.
+ *
+ * Compile with: javac GenericSynchronizerMonitorStyle.java TimeoutHolder.java
+ *                     KernelStyleSemaphore.java KernelStyleSynchronizer.java Delayer.java
+ */
+
+public class GenericSynchronizerMonitorStyle {
+
+	// the interface used to test and benchmark the semaphores
+	private interface Semaphore {
+		boolean acquire(int acquires, long millisTimeout) throws InterruptedException;
+		void release(int releases);
+	}
+
+	private static Semaphore newSemaphore(String kind, int initial) {
+		switch (kind) {
+		case "implicit non-fair":
+		case "implicit fair": {
+			SemaphoreMonitorStyleImplictMonitor sem =
+						new SemaphoreMonitorStyleImplictMonitor(initial, kind.endsWith(" fair"));
+			return new Semaphore() {
+				public boolean acquire(int acquires, long millisTimeout) throws InterruptedException {
+					return sem.acquire(acquires, millisTimeout);
+				}
+				public void release(int releases) { sem.release(releases); }
+			};
+		}
+		case "explicit non-fair":
+		case "explicit fair": {
+			SemaphoreMonitorStyleExplicitMonitor sem =
+						new SemaphoreMonitorStyleExplicitMonitor(initial, kind.endsWith(" fair"));
+			return new Semaphore() {
+				public boolean acquire(int acquires, long millisTimeout) throws InterruptedException {
+					return sem.acquire(acquires, millisTimeout);
+				}
+				public void release(int releases) { sem.release(releases); }
+			};
+		}
+		default: {
+			KernelStyleSemaphore sem = new KernelStyleSemaphore(initial, kind.endsWith("fast path"));
+			return new Semaphore() {
+				public boolean acquire(int acquires, long millisTimeout) throws InterruptedException {
+					return sem.acquire(acquires, millisTimeout);
+				}
+				public void release(int releases) { sem.release(releases); }
+			};
+		}
+		}
+	}
+
+	private static final String[] MONITOR_STYLE = {
+		"implicit non-fair", "implicit fair", "explicit non-fair", "explicit fair"
+	};
+
+	private static final String[] KERNEL_STYLE = { "kernel style", "kernel style fast path" };
+
+	// start a thread that acquires the specified permits, without time limit
+	private static Thread startAcquirer(Semaphore sem, int acquires) {
+		Thread thread = new Thread(() -> {
+			try {
+				sem.acquire(acquires, -1L);
+			} catch (InterruptedException ie) {}
+		});
+		thread.start();
+		return thread;
+	}
+
+	// wait until the thread blocks
+	private static void waitUntilBlocked(Thread thread) throws InterruptedException {
+		while (thread.getState() != Thread.State.WAITING)
+			Thread.sleep(1);
+	}
+
+	// an acquire of one permit may overtake a blocked acquire of three permits only
+	// in the non-fair mode; also an acquire that arrives does not barge in fair mode.
+	private static boolean testFairness(String kind) throws InterruptedException {
+		boolean fair = kind.endsWith(" fair");
+		Semaphore sem = newSemaphore(kind, 0);
+		Thread big = startAcquirer(sem, 3);
+		waitUntilBlocked(big);
+		Thread small = startAcquirer(sem, 1);
+		waitUntilBlocked(small);
+		sem.release(1);
+		small.join(100);
+		boolean overtaken = !small.isAlive();
+		// an arriving thread can only take the permit in non-fair mode
+		boolean barged = !overtaken && sem.acquire(1, 0);
+		if (barged)
+			sem.release(1);
+		sem.release(3);
+		big.join();
+		small.join();
+		// in both modes all the permits were acquired
+		boolean passed = (fair ? !overtaken && !barged : overtaken) && !sem.acquire(1, 0);
+		System.out.printf("--%s: overtaken: %b, barged: %b%n", kind, overtaken, barged);
+		return passed;
+	}
+
+	// a waiter that times out at the head of the queue must not block the others
+	private static boolean testFairTimeout(String kind) throws InterruptedException {
+		Semaphore sem = newSemaphore(kind, 1);
+		boolean timedOut = !sem.acquire(2, 20);
+		Thread small = startAcquirer(sem, 1);
+		small.join(1000);
+		return timedOut && !small.isAlive();
+	}
+
+	// set to stop the threads of the benchmark
+	private static volatile boolean stopBenchmark;
+
+	/**
+	 * Benchmark: the threads acquire and release one permit of a semaphore with
+	 * one permit during RUN_TIME ms. Shows the throughput, the tail latency of acquire,
+	 * and the minimum and maximum number of acquires of the threads, which show the
+	 * (un)fairness of the semaphore.
+	 */
+	private static void benchmark(String kind, int threads) throws InterruptedException {
+		final int RUN_TIME = 1000;
+		final int MAX_SAMPLES = 1 << 18;
+		Semaphore sem = newSemaphore(kind, 1);
+		stopBenchmark = false;
+		long[][] latencies = new long[threads][MAX_SAMPLES];
+		int[] counts = new int[threads];
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			final int tid = i;
+			workers[i] = new Thread(() -> {
+				try {
+					int count = 0;
+					while (!stopBenchmark) {
+						long start = System.nanoTime();
+						sem.acquire(1, -1L);
+						long elapsed = System.nanoTime() - start;
+						if (count < MAX_SAMPLES)
+							latencies[tid][count] = elapsed;
+						count++;
+						sem.release(1);
+					}
+					counts[tid] = count;
+				} catch (InterruptedException ie) {}
+			});
+			workers[i].start();
+		}
+		Thread.sleep(RUN_TIME);
+		stopBenchmark = true;
+		for (Thread worker : workers)
+			worker.join();
+		long total = 0;
+		int min = Integer.MAX_VALUE, max = 0, samples = 0;
+		for (int count : counts) {
+			total += count;
+			min = Math.min(min, count);
+			max = Math.max(max, count);
+			samples += Math.min(count, MAX_SAMPLES);
+		}
+		long[] all = new long[samples];
+		for (int i = 0, k = 0; i < threads; i++) {
+			int n = Math.min(counts[i], MAX_SAMPLES);
+			System.arraycopy(latencies[i], 0, all, k, n);
+			k += n;
+		}
+		java.util.Arrays.sort(all);
+		System.out.printf("%s, %d, %d, %d, %d, %d, %d%n", kind, threads, total * 1000 / RUN_TIME,
+						  all[samples * 99 / 100] / 1000, all[samples - 1] / 1000, min, max);
+	}
+
+	public static void main(String... args) throws InterruptedException {
+		for (String kind : MONITOR_STYLE)
+			System.out.printf("-->test %s semaphore fairness: %s%n", kind,
+							  testFairness(kind) ? "passed" : "failed");
+		for (String kind : MONITOR_STYLE)
+			System.out.printf("-->test %s semaphore timeout: %s%n", kind,
+							  testFairTimeout(kind) ? "passed" : "failed");
+
+		System.out.println("-->benchmark: acquire/release of one permit");
+		System.out.println("semaphore, threads, acquires/s, p99 (us), max (us), min/thread, max/thread");
+		for (int threads = 2; threads <= 8; threads *= 2) {
+			for (String kind : MONITOR_STYLE)
+				benchmark(kind, threads);
+			for (String kind : KERNEL_STYLE)
+				benchmark(kind, threads);
+		}
+	}
+}
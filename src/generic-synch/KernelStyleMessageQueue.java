@@ -0,0 +1,132 @@
+/**
+ *  ISEL, LEIC, Concurrent Programming
+ *
+ *  Message queue following the kernel style, defined through the hooks of the
+ *  generic synchronizer KernelStyleSynchronizer: receive is the acquire operation
+ *  and send is the release operation. A message sent when there are receivers waiting
+ *  is delivered directly to the first one; it is buffered only when none is waiting.
+ *
+ *  Compile with: javac KernelStyleMessageQueue.java KernelStyleSynchronizer.java Delayer.java
+ *  Execute with: java KernelStyleMessageQueue
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class KernelStyleMessageQueue<T> extends KernelStyleSynchronizer<Void, T, T> {
+
+	// synchronization state: list of messages pending for reception
+	private final LinkedList<T> pendingMessages = new LinkedList<T>();
+
+	// initialize the message queue
+	public KernelStyleMessageQueue() { }
+
+	// returns true if there is an pending message, which means that receive
+	// can succeed immediately
+	@Override
+	protected boolean canAcquire(Void args) { return pendingMessages.size() > 0; }
+
+	// when a message is received, it must be removed from the pending message list
+	@Override
+	protected T acquireSideEffect(Void args) { return pendingMessages.removeFirst(); }
+
+	// add the sent message to the pending messages list
+	@Override
+	protected void updateStateOnRelease(T sentMessage) { pendingMessages.addLast(sentMessage); }
+
+	// when there is a receiver waiting, there are no pending messages, so the sent
+	// message is delivered directly to it, without passing through the list
+	@Override
+	protected T releaseToWaiter(Void args, T sentMessage) { return sentMessage; }
+
+	// receive the next message from the queue; returns null when it times out
+	public T receive(long millisTimeout) throws InterruptedException {
+		return doAcquire(null, millisTimeout);
+	}
+
+	// receive asynchronously the next message from the queue; the future completes
+	// with null when it times out
+	public CompletableFuture<T> receiveAsync(long millisTimeout) {
+		return doAcquireAsync(null, millisTimeout);
+	}
+
+	// send a message to the queue
+	public void send(T sentMsg) {
+		if (sentMsg == null)
+			throw new IllegalArgumentException("sentMsg");
+		doRelease(sentMsg);
+	}
+
+	/**
+	 *  Test code
+	 */
+
+	// many producers and consumers; each message must be received exactly once
+	private static boolean testProducersConsumers() throws InterruptedException {
+		final int PRODUCERS = 4, CONSUMERS = 4;
+		final int MESSAGES = 100000;
+		KernelStyleMessageQueue<Integer> queue = new KernelStyleMessageQueue<>();
+		AtomicLong sum = new AtomicLong();
+		AtomicInteger received = new AtomicInteger();
+		Thread[] consumers = new Thread[CONSUMERS];
+		for (int i = 0; i < CONSUMERS; i++) {
+			consumers[i] = new Thread(() -> {
+				try {
+					Integer msg;
+					while ((msg = queue.receive(100)) != null) {
+						sum.addAndGet(msg);
+						received.incrementAndGet();
+					}
+				} catch (InterruptedException ie) {}
+			});
+			consumers[i].start();
+		}
+		Thread[] producers = new Thread[PRODUCERS];
+		for (int i = 0; i < PRODUCERS; i++) {
+			final int pid = i;
+			producers[i] = new Thread(() -> {
+				for (int m = pid; m < MESSAGES; m += PRODUCERS)
+					queue.send(m);
+			});
+			producers[i].start();
+		}
+		for (Thread producer : producers)
+			producer.join();
+		// the consumers exit when they time out
+		for (Thread consumer : consumers)
+			consumer.join();
+		long expected = (long)MESSAGES * (MESSAGES - 1) / 2;
+		System.out.printf("--received: %d, sum: %d, expected: %d%n", received.get(), sum.get(), expected);
+		return received.get() == MESSAGES && sum.get() == expected;
+	}
+
+	// async receivers waiting before the messages are sent are served in FIFO order,
+	// and a pending receive times out with null
+	private static boolean testAsyncReceive() {
+		final int RECEIVERS = 100;
+		KernelStyleMessageQueue<Integer> queue = new KernelStyleMessageQueue<>();
+		List<CompletableFuture<Integer>> receives = new ArrayList<>();
+		for (int i = 0; i < RECEIVERS; i++)
+			receives.add(queue.receiveAsync(-1L));
+		for (int i = 0; i < RECEIVERS; i++)
+			queue.send(i);
+		boolean inOrder = true;
+		for (int i = 0; i < RECEIVERS; i++)
+			inOrder &= receives.get(i).join() == i;
+		boolean timedOut = queue.receiveAsync(10).join() == null;
+		System.out.printf("--async receives in order: %b, timed out: %b%n", inOrder, timedOut);
+		return inOrder && timedOut && queue.getQueueLength() == 0;
+	}
+
+	public static void main(String... args) throws InterruptedException {
+		System.out.printf("-->test message queue producers/consumers: %s%n",
+						  testProducersConsumers() ? "passed" : "failed");
+		System.out.printf("-->test message queue async receive: %s%n",
+						  testAsyncReceive() ? "passed" : "failed");
+	}
+}
@@ -0,0 +1,290 @@
+/**
+ *  ISEL, LEIC, Concurrent Programming
+ *
+ *  Semaphore following the kernel style, defined through the hooks of the
+ *  generic synchronizer KernelStyleSynchronizer.
+ *
+ *  Compile with: javac KernelStyleSemaphore.java KernelStyleSynchronizer.java Delayer.java
+ *  Execute with: java KernelStyleSemaphore
+ *
+ */
+
+import java.util.Random;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class KernelStyleSemaphore extends KernelStyleSynchronizer<Integer, Boolean, Integer> {
+
+	// the synchronization state: the number of available permits. It is only accessed
+	// while holding the lock, unless the lock-free fast path is used.
+	private final AtomicInteger permits;
+
+	// initialize the semaphore
+	public KernelStyleSemaphore(int initial, boolean lockFreeFastPath) {
+		super(lockFreeFastPath);
+		if (initial < 0)
+			throw new IllegalArgumentException("initial");
+		permits = new AtomicInteger(initial);
+	}
+
+	public KernelStyleSemaphore(int initial) { this(initial, false); }
+
+	// if there are sufficient permits, return true; false otherwise.
+	@Override
+	protected boolean canAcquire(Integer acquires) { return permits.get() >= acquires; }
+
+	// after acquire deduct the permissions granted
+	@Override
+	protected Boolean acquireSideEffect(Integer acquires) {
+		permits.set(permits.get() - acquires);
+		return Boolean.TRUE;
+	}
+
+	// update the available permits in accordance with the permits released
+	@Override
+	protected void updateStateOnRelease(Integer releases) {
+		int observed = permits.get();
+		if (observed + releases < observed)
+			throw new IllegalStateException("Exceeded the maximum number of permits");
+		permits.set(observed + releases);
+	}
+
+	// lock-free version of canAcquire and acquireSideEffect
+	@Override
+	protected Boolean tryAcquireFast(Integer acquires) {
+		while (true) {
+			int observed = permits.get();
+			if (observed < acquires)
+				return null;
+			if (permits.compareAndSet(observed, observed - acquires))
+				return Boolean.TRUE;
+		}
+	}
+
+	// lock-free version of updateStateOnRelease
+	@Override
+	protected void tryReleaseFast(Integer releases) {
+		while (true) {
+			int observed = permits.get();
+			if (observed + releases < observed)
+				throw new IllegalStateException("Exceeded the maximum number of permits");
+			if (permits.compareAndSet(observed, observed + releases))
+				return;
+		}
+	}
+
+	// an async acquire that times out completes with false
+	@Override
+	protected Boolean timeoutResult() { return Boolean.FALSE; }
+
+	// acquires the specified number of permits; return false when it times out
+	public boolean acquire(int acquires, long millisTimeout) throws InterruptedException {
+		if (acquires < 1)
+			throw new IllegalArgumentException("acquires");
+		return doAcquire(acquires, millisTimeout) != null;
+	}
+
+	// acquires one permit; return false when it times out
+	public boolean tryAcquire(long millisTimeout) throws InterruptedException {
+		return acquire(1, millisTimeout);
+	}
+
+	public void acquire() throws InterruptedException { acquire(1, -1L); }
+
+	// acquires asynchronously the specified number of permits; the future completes
+	// with false when it times out
+	public CompletableFuture<Boolean> acquireAsync(int acquires, long millisTimeout) {
+		if (acquires < 1)
+			throw new IllegalArgumentException("acquires");
+		return doAcquireAsync(acquires, millisTimeout);
+	}
+
+	public CompletableFuture<Boolean> tryAcquireAsync(long millisTimeout) {
+		return acquireAsync(1, millisTimeout);
+	}
+
+	public CompletableFuture<Boolean> acquireAsync() { return acquireAsync(1, -1L); }
+
+	// releases the specified number of permits
+	public void release(int releases) {
+		if (releases < 1)
+			throw new IllegalArgumentException("releases");
+		doRelease(releases);
+	}
+
+	public void release() { release(1); }
+
+	public int availablePermits() { return permits.get(); }
+
+	/**
+	 *  Test code
+	 */
+
+	// use the semaphore as a lock, checking mutual exclusion
+	private static boolean testSemaphoreAsLock(boolean lockFreeFastPath) throws InterruptedException {
+		final int THREADS = 10;
+		final int RUN_TIME = 2000;
+		final int MAX_ACQUIRE_TIMEOUT = 10;
+		KernelStyleSemaphore lockSem = new KernelStyleSemaphore(1, lockFreeFastPath);
+		AtomicInteger inside = new AtomicInteger(), violations = new AtomicInteger();
+		AtomicInteger acquires = new AtomicInteger(), timeouts = new AtomicInteger();
+		Thread[] threads = new Thread[THREADS];
+		for (int i = 0; i < THREADS; i++) {
+			final int tid = i;
+			threads[i] = new Thread(() -> {
+				Random rnd = new Random(tid);
+				try {
+					while (!Thread.currentThread().isInterrupted()) {
+						if (!lockSem.tryAcquire(rnd.nextInt(MAX_ACQUIRE_TIMEOUT))) {
+							timeouts.incrementAndGet();
+							continue;
+						}
+						try {
+							if (inside.incrementAndGet() != 1)
+								violations.incrementAndGet();
+							acquires.incrementAndGet();
+							if (rnd.nextInt(100) == 0)
+								Thread.sleep(1);
+						} finally {
+							inside.decrementAndGet();
+							lockSem.release();
+						}
+					}
+				} catch (InterruptedException ie) {}
+			});
+			threads[i].start();
+		}
+		Thread.sleep(RUN_TIME);
+		for (Thread thread : threads) {
+			thread.interrupt();
+			thread.join();
+		}
+		System.out.printf("--semaphore as lock (%s): acquires: %d, timeouts: %d, violations: %d%n",
+						  lockFreeFastPath ? "lock-free fast path" : "lock", acquires.get(),
+						  timeouts.get(), violations.get());
+		return violations.get() == 0 && lockSem.availablePermits() == 1 && lockSem.getQueueLength() == 0;
+	}
+
+	// check that a multi-permit acquire at the head of the queue is not overtaken
+	private static boolean testFifoOrder(boolean lockFreeFastPath) throws InterruptedException {
+		KernelStyleSemaphore sem = new KernelStyleSemaphore(0, lockFreeFastPath);
+		Thread big = new Thread(() -> {
+			try {
+				sem.acquire(3, -1L);
+			} catch (InterruptedException ie) {}
+		});
+		big.start();
+		while (sem.getQueueLength() == 0)
+			Thread.yield();
+		Thread small = new Thread(() -> {
+			try {
+				sem.acquire(1, -1L);
+			} catch (InterruptedException ie) {}
+		});
+		small.start();
+		while (sem.getQueueLength() < 2)
+			Thread.yield();
+		sem.release(2);
+		Thread.sleep(50);
+		// the small acquire must not overtake the big one
+		boolean bothWaited = big.isAlive() && small.isAlive() && sem.availablePermits() == 2;
+		sem.release(2);
+		big.join();
+		small.join();
+		return bothWaited && sem.availablePermits() == 0;
+	}
+
+	// mix async and sync acquires, with timeouts and cancellations; at the end all the
+	// permits must be available
+	private static boolean testAsyncAcquires(boolean lockFreeFastPath) throws InterruptedException {
+		final int ACQUIRES = 4000;
+		final int PERMITS = 4;
+		KernelStyleSemaphore sem = new KernelStyleSemaphore(PERMITS, lockFreeFastPath);
+		AtomicInteger acquired = new AtomicInteger(), timeouts = new AtomicInteger();
+		AtomicInteger cancelled = new AtomicInteger(), inside = new AtomicInteger();
+		AtomicInteger violations = new AtomicInteger(), released = new AtomicInteger();
+		Random rnd = new Random(0);
+		List<CompletableFuture<Void>> continuations = new ArrayList<>();
+
+		// a synchronous party competes with the async ones
+		Thread syncParty = new Thread(() -> {
+			try {
+				while (!Thread.currentThread().isInterrupted()) {
+					if (sem.tryAcquire(1)) {
+						sem.release();
+					}
+				}
+			} catch (InterruptedException ie) {}
+		});
+		syncParty.start();
+		for (int i = 0; i < ACQUIRES; i++) {
+			CompletableFuture<Boolean> acquire = sem.tryAcquireAsync(rnd.nextInt(100));
+			if (rnd.nextInt(20) == 0 && sem.tryCancelAcquireAsync(acquire)) {
+				cancelled.incrementAndGet();
+				continue;
+			}
+			continuations.add(acquire.thenAccept((success) -> {
+				if (!success) {
+					timeouts.incrementAndGet();
+					return;
+				}
+				if (inside.incrementAndGet() > PERMITS)
+					violations.incrementAndGet();
+				acquired.incrementAndGet();
+				// hold the permit for a while
+				Delayer.delay(() -> {
+					inside.decrementAndGet();
+					released.incrementAndGet();
+					sem.release();
+				}, 1, TimeUnit.MILLISECONDS);
+			}));
+		}
+		CompletableFuture.allOf(continuations.toArray(new CompletableFuture<?>[0])).join();
+		while (released.get() < acquired.get())
+			Thread.sleep(10);
+		syncParty.interrupt();
+		syncParty.join();
+		System.out.printf("--async acquires (%s): acquired: %d, timeouts: %d, cancelled: %d, violations: %d%n",
+						  lockFreeFastPath ? "lock-free fast path" : "lock", acquired.get(),
+						  timeouts.get(), cancelled.get(), violations.get());
+		return acquired.get() + timeouts.get() + cancelled.get() == ACQUIRES && violations.get() == 0 &&
+			   sem.availablePermits() == PERMITS && sem.getQueueLength() == 0;
+	}
+
+	// the request of a semaphore cannot be cancelled through another semaphore, whose
+	// request queue it does not belong to
+	private static boolean testCancelForeignRequest() {
+		KernelStyleSemaphore sem = new KernelStyleSemaphore(0), other = new KernelStyleSemaphore(0);
+		CompletableFuture<Boolean> acquire = sem.tryAcquireAsync(-1L);
+		boolean rejected = false;
+		try {
+			other.tryCancelAcquireAsync(acquire);
+		} catch (IllegalArgumentException iae) {
+			rejected = true;
+		}
+		boolean pending = !acquire.isDone() && sem.getQueueLength() == 1 && other.getQueueLength() == 0;
+		boolean cancelled = sem.tryCancelAcquireAsync(acquire);
+		System.out.printf("--foreign cancel rejected: %b, still pending: %b, cancelled by owner: %b%n",
+						  rejected, pending, cancelled);
+		return rejected && pending && cancelled && sem.getQueueLength() == 0;
+	}
+
+	public static void main(String... args) throws InterruptedException {
+		for (boolean fastPath : new boolean[] { false, true }) {
+			System.out.printf("-->test semaphore as lock (%s): %s%n",
+							  fastPath ? "lock-free fast path" : "lock",
+							  testSemaphoreAsLock(fastPath) ? "passed" : "failed");
+			System.out.printf("-->test semaphore FIFO order (%s): %s%n",
+							  fastPath ? "lock-free fast path" : "lock",
+							  testFifoOrder(fastPath) ? "passed" : "failed");
+			System.out.printf("-->test semaphore async acquires (%s): %s%n",
+							  fastPath ? "lock-free fast path" : "lock",
+							  testAsyncAcquires(fastPath) ? "passed" : "failed");
+		}
+		System.out.printf("-->test semaphore foreign cancel: %s%n",
+						  testCancelForeignRequest() ? "passed" : "failed");
+	}
+}
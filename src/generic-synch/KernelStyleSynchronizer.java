@@ -0,0 +1,434 @@
+/**
+ *  ISEL, LEIC, Concurrent Programming
+ *
+ *  Reusable generic synchronizer following the "kernel style", based on an
+ *  *explicit Java monitor* with specific notifications.
+ *
+ *  This class contains the code that is independent of the synchronizer semantics
+ *  (request queue, timeout, interruption and performPossibleAcquires) which, in
+ *  GenericSynchronizerKernelStyle.java, is repeated in each synchronizer. A concrete
+ *  synchronizer only defines its synchronization state and the hooks canAcquire,
+ *  acquireSideEffect and updateStateOnRelease, as in the pseudo-code. The optional
+ *  hook releaseToWaiter delivers a release directly to the request at the head of
+ *  the queue, as SendOptimized does in GenericSynchronizerKernelStyle.java.
+ *
+ *  Optionally, the synchronizer may have a lock-free fast path: if the synchronization
+ *  state is kept in atomic variables, the hooks tryAcquireFast and tryReleaseFast
+ *  are used instead and the lock is only acquired when there are waiters.
+ *
+ *  The acquire operation has also an asynchronous interface, where each request is
+ *  itself a CompletableFuture<> that is completed outside the lock (as in SemaphoreAsync).
+ *  The synchronous and asynchronous requests share the same request queue.
+ *
+ *  Compile with: javac KernelStyleSynchronizer.java Delayer.java
+ *
+ */
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.*;
+
+public abstract class KernelStyleSynchronizer<A, R, L> {
+	// explicit Java monitor that suports the synchronzation of shared data access
+	// and supports also the control synchronization.
+	private final Lock lock = new ReentrantLock();
+
+	// the instances of this type describe an acquire request, namely their arguments,
+	// the condition variable where the acquirer thread is waiting, the result and
+	// status (not done/done) of the operation. The requests are linked in the
+	// request queue, so removing a request on timeout or interruption takes O(1).
+	//
+	// The asynchronous requests have no condition variable: the request is the future
+	// returned to the caller and it is also the timeout cancellation handler.
+	private final class Request extends CompletableFuture<R> implements Runnable {
+		final A acquireArgs;			// acquire arguments
+		R acquireResult;				// acquire result
+		boolean done;					// true when the acquire is done
+		final Condition okToAcquire;	// condition variable where the acquirer thread is blocked
+		ScheduledFuture<?> timer;		// timeout's timer of an async request
+		Request prev, next;				// links of the request queue
+
+		Request(A args, Condition okToAcq) {
+			acquireArgs = args;
+			okToAcquire = okToAcq;
+		}
+
+		boolean isAsync() { return okToAcquire == null; }
+
+		// returns the synchronizer that created the request
+		KernelStyleSynchronizer<A, R, L> owner() { return KernelStyleSynchronizer.this; }
+
+		/**
+		 * This is the timeout cancellation handler of an async request
+		 */
+		@Override
+		public void run() {
+			List<Request> satisfied = null;
+			boolean complete = false;
+			lock.lock();
+			try {
+				if (!done) {
+					remove(this);
+					complete = done = true;
+					satisfied = performPossibleAcquires();
+				}
+			} finally {
+				lock.unlock();
+			}
+			if (complete) {
+				// Complete previously satisfied requests
+				completeSatisfiedAsyncAcquires(satisfied);
+				// Complete this completable future, indicating timeout
+				complete(timeoutResult());
+			}
+		}
+
+		/**
+		 * Disposes the resources associated with the async request
+		 */
+		void close() {
+			if (timer != null)
+				timer.cancel(false);
+		}
+	}
+
+	// intrusive queue of pending acquire requests, a circular doubly-linked list
+	// with a sentinel node
+	private final Request reqQueue = new Request(null, null);
+
+	// the number of requests in the queue; it is volatile since it is read without
+	// the lock on the fast path
+	private volatile int waiters;
+
+	// true if the synchronizer uses the lock-free fast path hooks
+	private final boolean lockFreeFastPath;
+
+	protected KernelStyleSynchronizer(boolean lockFreeFastPath) {
+		this.lockFreeFastPath = lockFreeFastPath;
+		reqQueue.prev = reqQueue.next = reqQueue;
+	}
+
+	protected KernelStyleSynchronizer() { this(false); }
+
+	/**
+	 * Hooks that define the synchronizer semantics, called while holding the lock.
+	 */
+
+	// returns true if the synchronization state allows the acquire on behalf of the
+	// thread that is at the head of the queue or the current thread if the queue is empty.
+	protected boolean canAcquire(A acquireArgs) {
+		throw new UnsupportedOperationException();
+	}
+
+	// executes the processing associated with a successful acquire and
+	// returns the proper acquire result, which must not be null.
+	protected R acquireSideEffect(A acquireArgs) {
+		throw new UnsupportedOperationException();
+	}
+
+	// update synchronization state due to a release operation according to "releaseArgs".
+	protected void updateStateOnRelease(L releaseArgs) {
+		throw new UnsupportedOperationException();
+	}
+
+	// direct handoff: if the release can be delivered directly to the acquire request at
+	// the head of the queue, returns its acquire result, without changing the
+	// synchronization state; otherwise returns null, and the release updates the state
+	// with updateStateOnRelease. It is not used on the lock-free fast path.
+	protected R releaseToWaiter(A acquireArgs, L releaseArgs) { return null; }
+
+	/**
+	 * Hooks of the lock-free fast path, that may be called without holding the lock,
+	 * so they must update the synchronization state atomically.
+	 */
+
+	// if the synchronization state allows the acquire, atomically executes the acquire
+	// side effect and returns the acquire result; otherwise returns null.
+	protected R tryAcquireFast(A acquireArgs) {
+		throw new UnsupportedOperationException();
+	}
+
+	// atomically update synchronization state due to a release operation.
+	protected void tryReleaseFast(L releaseArgs) {
+		throw new UnsupportedOperationException();
+	}
+
+	// the result of an async acquire that times out; as the synchronous acquire, the
+	// default result is null.
+	protected R timeoutResult() { return null; }
+
+	// tries to acquire according to the synchronizer hooks; returns null if not possible.
+	private R tryAcquire(A acquireArgs) {
+		if (lockFreeFastPath)
+			return tryAcquireFast(acquireArgs);
+		return canAcquire(acquireArgs) ? acquireSideEffect(acquireArgs) : null;
+	}
+
+	/**
+	 * Request queue management, called while holding the lock.
+	 */
+
+	// removes a request from the queue and marks it as done with the specified result;
+	// the async requests are returned in "satisfied", to be completed after releasing
+	// the lock, and the threads of the synchronous ones are notified
+	private List<Request> satisfy(Request request, R result, List<Request> satisfied) {
+		remove(request);
+		request.acquireResult = result;
+		request.done = true;
+
+		if (request.isAsync()) {
+			if (satisfied == null)
+				satisfied = new ArrayList<>(1);
+			satisfied.add(request);
+		} else {
+			// *specific notification* - the acquirer thread is blocked on its private condition variable
+			request.okToAcquire.signal();
+		}
+		return satisfied;
+	}
+
+	private void enqueue(Request request) {
+		request.prev = reqQueue.prev;
+		request.next = reqQueue;
+		reqQueue.prev.next = request;
+		reqQueue.prev = request;
+		waiters++;
+	}
+
+	private void remove(Request request) {
+		request.prev.next = request.next;
+		request.next.prev = request.prev;
+		request.prev = request.next = null;
+		waiters--;
+	}
+
+	/**
+	 * Methods that are independent of the synchronizer semantics
+	 */
+
+	// generic acquire operation; returns null when it times out. A negative timeout
+	// means infinite and zero means an immediate acquire.
+	protected final R doAcquire(A acquireArgs, long millisTimeout) throws InterruptedException {
+		// if the was previously interrupted, throw the appropriate exception
+		if (Thread.interrupted())
+			throw new InterruptedException();
+
+		// lock-free fast path: if there are no waiters, try to acquire without the lock
+		R result;
+		if (lockFreeFastPath && waiters == 0 && (result = tryAcquireFast(acquireArgs)) != null)
+			return result;
+
+		List<Request> satisfied = null;
+		lock.lock();
+		try {
+			if (waiters == 0 && (result = tryAcquire(acquireArgs)) != null)
+				return result;
+			boolean isTimed = millisTimeout >= 0;
+			if (isTimed && millisTimeout == 0)
+				return null;
+			Request request = new Request(acquireArgs, lock.newCondition());
+			enqueue(request); // enqueue "request" at the end of the request queue
+
+			// on the lock-free fast path, the state may have been changed by a releaser
+			// that did not see this waiter, so we must recheck after enqueue.
+			if (lockFreeFastPath)
+				satisfied = performPossibleAcquires();
+
+			long nanosTimeout = isTimed ? TimeUnit.MILLISECONDS.toNanos(millisTimeout) : 0L;
+			while (!request.done) {
+				try {
+					if (isTimed) {
+						if (nanosTimeout <= 0L) {
+							// the timeout limit has expired - here we are sure that the
+							// acquire resquest is still pending. So, we remove the request
+							// from the queue and return failure
+							remove(request);
+
+							// After remove the request of the current thread from queue, *it is possible*
+							// that the current synhcronization allows now to satisfy another queued
+							// acquires.
+							satisfied = addSatisfied(satisfied, performPossibleAcquires());
+							return null;
+						}
+						nanosTimeout = request.okToAcquire.awaitNanos(nanosTimeout);
+					} else
+						request.okToAcquire.await();
+				} catch (InterruptedException ie) {
+					// the thread may be interrupted when the requested acquire operation
+					// is already performed, in which case you can no longer give up
+					if (request.done) {
+						// re-assert the interrupt and return normally, indicating to the
+						// caller that the operation was successfully completed
+						Thread.currentThread().interrupt();
+						break;
+					}
+					// remove the request from the queue and throw InterruptedException
+					remove(request);
+					satisfied = addSatisfied(satisfied, performPossibleAcquires());
+					throw ie;
+				}
+			}
+			// the request acquire operation completed successfully
+			return request.acquireResult;
+		} finally {
+			lock.unlock();
+			completeSatisfiedAsyncAcquires(satisfied);
+		}
+	}
+
+	// perform as many acquires as possible, returning the satisfied async requests,
+	// which must be completed after releasing the lock
+	private List<Request> performPossibleAcquires() {
+		List<Request> satisfied = null;
+		while (waiters > 0) {
+			Request request = reqQueue.next;
+			R result = tryAcquire(request.acquireArgs);
+			if (result == null)
+				break;
+			satisfied = satisfy(request, result, satisfied);
+		}
+		return satisfied;
+	}
+
+	private List<Request> addSatisfied(List<Request> satisfied, List<Request> more) {
+		if (satisfied == null)
+			return more;
+		if (more != null)
+			satisfied.addAll(more);
+		return satisfied;
+	}
+
+	/**
+	 * Complete the futures of the satisfied async requests.
+	 *
+	 * Note: This method is called when calling thread *does not* own the lock, to
+	 *       prevent reentrancy when synchronous continuations are executed.
+	 */
+	private void completeSatisfiedAsyncAcquires(List<Request> toComplete) {
+		if (toComplete != null) {
+			for (Request request : toComplete) {
+				// release allocated resources and complete the underlying future
+				request.close();
+				request.complete(request.acquireResult);
+			}
+		}
+	}
+
+	// generic asynchronous acquire operation; the returned future is completed with the
+	// acquire result or, if the timeout expires, with timeoutResult(). A negative timeout
+	// means infinite and zero means an immediate acquire.
+	protected final CompletableFuture<R> doAcquireAsync(A acquireArgs, long millisTimeout) {
+		// lock-free fast path: if there are no waiters, try to acquire without the lock
+		R result;
+		if (lockFreeFastPath && waiters == 0 && (result = tryAcquireFast(acquireArgs)) != null)
+			return CompletableFuture.completedFuture(result);
+
+		List<Request> satisfied = null;
+		lock.lock();
+		try {
+			if (waiters == 0 && (result = tryAcquire(acquireArgs)) != null)
+				return CompletableFuture.completedFuture(result);
+			boolean isTimed = millisTimeout >= 0;
+			if (isTimed && millisTimeout == 0)
+				return CompletableFuture.completedFuture(timeoutResult());
+
+			// create an async request and insert it in the request queue
+			Request request = new Request(acquireArgs, null);
+			enqueue(request);
+
+			/**
+			 * If a timeout was specified, start a timer.
+			 * Since that all paths of code that cancel the timer execute on other
+			 * threads and must aquire the lock, we has the guarantee that the field
+			 * "request.timer" is correctly set when the method Request.close()
+			 * is called.
+			 */
+			if (isTimed)
+				request.timer = Delayer.delay(request, millisTimeout, TimeUnit.MILLISECONDS);
+			// on the lock-free fast path, recheck after enqueue (see doAcquire)
+			if (lockFreeFastPath)
+				satisfied = performPossibleAcquires();
+			return request;
+		} finally {
+			lock.unlock();
+			completeSatisfiedAsyncAcquires(satisfied);
+		}
+	}
+
+	/**
+	 * Try to cancel an asynchronous request identified by the underlying
+	 * completable future. The futures of the acquires completed immediately
+	 * cannot be cancelled, and neither can the requests of another synchronizer,
+	 * which are linked in its own request queue.
+	 */
+	public final boolean tryCancelAcquireAsync(CompletableFuture<R> acquireFuture) {
+		if (!(acquireFuture instanceof KernelStyleSynchronizer<?, ?, ?>.Request) ||
+			((KernelStyleSynchronizer<?, ?, ?>.Request)acquireFuture).owner() != this) {
+			if (acquireFuture != null && acquireFuture.isDone())
+				return false;
+			throw new IllegalArgumentException("acquireFuture");
+		}
+		@SuppressWarnings("unchecked")
+		Request request = (Request)acquireFuture;
+		List<Request> satisfied = null;
+		boolean complete = false;
+		lock.lock();
+		try {
+			if (!request.done) {
+				remove(request);
+				complete = request.done = true;
+				// Check to see if now, we can satisfy other pending requests
+				satisfied = performPossibleAcquires();
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (complete) {
+			// Complete the CompletableFutures of satisfied requests
+			completeSatisfiedAsyncAcquires(satisfied);
+
+			// Dispose the timer resoure and complete completable future in cancelled state
+			request.close();
+			request.cancel(false);
+			return true;
+		}
+		return false;
+	}
+
+	// generic release operation
+	protected final void doRelease(L releaseArgs) {
+		if (lockFreeFastPath) {
+			// update the state without the lock; since "waiters" is volatile, this read
+			// is not reordered with the write of the state, so either we see the waiter
+			// or the waiter sees the new state after enqueue.
+			tryReleaseFast(releaseArgs);
+			if (waiters == 0)
+				return;
+		}
+		List<Request> satisfied;
+		lock.lock();
+		try {
+			R result;
+			if (!lockFreeFastPath && waiters > 0 &&
+				(result = releaseToWaiter(reqQueue.next.acquireArgs, releaseArgs)) != null) {
+				// the release was delivered to the head request and the state is unchanged,
+				// so no other acquire became possible
+				satisfied = satisfy(reqQueue.next, result, null);
+			} else {
+				if (!lockFreeFastPath)
+					updateStateOnRelease(releaseArgs);
+				satisfied = performPossibleAcquires();
+			}
+		} finally {
+			lock.unlock();
+		}
+		// After we release the lock complete the futures of the satisfied async requests.
+		completeSatisfiedAsyncAcquires(satisfied);
+	}
+
+	// returns the number of threads waiting to acquire (approximate without the lock)
+	public final int getQueueLength() { return waiters; }
+}
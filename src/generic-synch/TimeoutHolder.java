@@ -1,38 +1,75 @@
-
 /***
  *  ISEL, LEIC, Concurrent Programming
  *
  *  Auxiliary class used to processe timeout when using Lampson and Redell monitors.
- *  
+ *
  *  In order to standardize with the written code for .NET, we consider that a
  *  negative value of timeout corresponds to the wait without time limit, a value
  *  of zero corresponde to no wait, with the remaining positive values being an
  *  effective timeout in the specified units.
- * 
+ *
+ *  The deadline is a primitive long, in System.nanoTime() units, so computing it
+ *  allocates nothing and it is not affected by changes to the wall-clock time.
+ *  As nanoTime values can have any sign, the infinite deadline is represented by
+ *  zero (INFINITE), and a timed deadline that happens to be zero is moved 1 ns
+ *  ahead. A timeout longer than MAX_TIMED_NANOS (about 146 years) is infinite, so
+ *  the sum with nanoTime and the differences between deadlines do not overflow.
+ *  Typical use, in a wait loop:
+ *
+ *		long deadline = TimeoutHolder.deadline(millisTimeout);
+ *		do {
+ *			if (TimeoutHolder.isTimed(deadline)) {
+ *				if ((millisTimeout = TimeoutHolder.remainingMillis(deadline)) <= 0)
+ *					return false;	// timeout
+ *				monitor.wait(millisTimeout);
+ *			} else
+ *				monitor.wait();
+ *		} while (!canAcquire());
+ *
  *  Carlos Martins, October 2018
  *
  ***/
 
 import java.util.concurrent.TimeUnit;
 
-public class TimeoutHolder {
-	private final long deadline;		// -1L when timeout is infinite
-	
-	public TimeoutHolder(long millis) {
-		deadline = millis >= 0L ? System.currentTimeMillis() + millis: -1L;
-	}
-	
-	public TimeoutHolder(long time, TimeUnit unit) {
-		deadline = time >= 0L ? System.currentTimeMillis() + unit.toMillis(time) : -1L;
+public final class TimeoutHolder {
+	public static final long INFINITE = 0L;
+	public static final long MAX_TIMED_NANOS = Long.MAX_VALUE >> 1;
+
+	private TimeoutHolder() {}
+
+	// returns the deadline of a timeout in the specified units
+	public static long deadline(long time, TimeUnit unit) {
+		if (time < 0L)
+			return INFINITE;
+		long nanos = unit.toNanos(time);	// saturated to Long.MAX_VALUE on overflow
+		if (nanos > MAX_TIMED_NANOS)
+			return INFINITE;
+		long deadline = System.nanoTime() + nanos;
+		return deadline != INFINITE ? deadline : 1L;
 	}
-	
+
+	public static long deadline(long millis) { return deadline(millis, TimeUnit.MILLISECONDS); }
+
 	// returns true if timeout exists
-	boolean isTimed() { return deadline >= 0L; }
-	
-	public long value() {
-		if (deadline == -1L)
+	public static boolean isTimed(long deadline) { return deadline != INFINITE; }
+
+	// returns the remaining nanoseconds, 0 when expired, Long.MAX_VALUE when infinite
+	public static long remainingNanos(long deadline) {
+		if (deadline == INFINITE)
 			return Long.MAX_VALUE;	// ensure that timeout does not expires!
-		long remainder = deadline - System.currentTimeMillis();
+		long remainder = deadline - System.nanoTime();
 		return remainder > 0L ? remainder : 0L;
-	}	
+	}
+
+	// the remaining milliseconds are rounded up, so Object.wait(millis) does not
+	// return before the deadline, and a sub-millisecond remainder is not a timeout
+	public static long remainingMillis(long deadline) {
+		long nanos = remainingNanos(deadline);
+		if (nanos == Long.MAX_VALUE)
+			return Long.MAX_VALUE;
+		return (nanos + 999999L) / 1000000L;
+	}
+
+	public static boolean isExpired(long deadline) { return remainingNanos(deadline) == 0L; }
 }
@@ -0,0 +1,82 @@
+/**
+ *  ISEL, LEIC, Concurrent Programming
+ *
+ *  Asynchronous acquires whose continuation releases the acquired permit, and
+ *  asynchronous waits on latches that are already open. The JDK has no asynchronous
+ *  synchronizers, so the reference is a continuation of an already completed
+ *  CompletableFuture.
+ *
+ */
+
+package pc.synchs;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AsyncContinuationBenchmark {
+
+	@Param({ "jdk-completed-future", "synchs-async", "kernel-style", "kernel-style-fast-path" })
+	public String semaphore;
+
+	private SemaphoreAsync semaphoreAsync;
+	private KernelStyleSemaphore kernelStyle;
+	private final BooleanLatchAsync booleanLatch = new BooleanLatchAsync(true);
+	private final CountDownLatchAsync countDownLatch = new CountDownLatchAsync(0);
+	private final CompletableFuture<Boolean> completed = CompletableFuture.completedFuture(true);
+
+	@Setup
+	public void setup() {
+		if (semaphore.equals("synchs-async"))
+			semaphoreAsync = new SemaphoreAsync(1);
+		else if (semaphore.startsWith("kernel-style"))
+			kernelStyle = new KernelStyleSemaphore(1, semaphore.endsWith("fast-path"));
+		else if (!semaphore.equals("jdk-completed-future"))
+			throw new IllegalArgumentException("semaphore");
+	}
+
+	// the continuation of the acquire releases the permit
+	private boolean acquireAsyncRelease() {
+		if (semaphoreAsync != null)
+			return semaphoreAsync.acquireAsync().thenApply(acquired -> {
+				semaphoreAsync.release();
+				return acquired;
+			}).join();
+		if (kernelStyle != null)
+			return kernelStyle.acquireAsync().thenApply(acquired -> {
+				kernelStyle.release();
+				return acquired;
+			}).join();
+		return completed.thenApply(acquired -> acquired).join();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public boolean acquireAsyncUncontended() { return acquireAsyncRelease(); }
+
+	@Benchmark
+	@Threads(4)
+	public boolean acquireAsyncContended() { return acquireAsyncRelease(); }
+
+	@Benchmark
+	@Threads(64)
+	public boolean acquireAsyncOversubscribed() { return acquireAsyncRelease(); }
+
+	@Benchmark
+	@Threads(1)
+	public boolean booleanLatchAwaitAsync() {
+		return booleanLatch.awaitAsync().thenApply(open -> open).join();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public boolean countDownLatchAwaitAsync() {
+		return countDownLatch.awaitAsync().thenApply(open -> open).join();
+	}
+}
@@ -0,0 +1,94 @@
+/**
+ *  ISEL, LEIC, Concurrent Programming
+ *
+ *  Transfer of messages from producers to consumers through the bounded message
+ *  queues, with a buffer of 1024 messages and with no buffer (rendezvous).
+ *
+ */
+
+package pc.synchs;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class BoundedMessageQueueBenchmark {
+
+	// the time limit of the blocking operations, so that no thread stays blocked when
+	// the other threads of the group finish the iteration
+	private static final long TIMEOUT = 10;
+
+	@Param({ "jdk", "kernel-style" })
+	public String queue;
+
+	@Param({ "1024", "0" })
+	public int capacity;
+
+	private final Integer message = 42;
+	private BlockingQueue<Integer> jdkQueue;
+	private BoundedMessageQueueKernelStyle<Integer> kernelStyleQueue;
+
+	@Setup
+	public void setup() {
+		switch (queue) {
+		case "jdk":
+			jdkQueue = capacity == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(capacity);
+			break;
+		case "kernel-style":
+			kernelStyleQueue = new BoundedMessageQueueKernelStyle<>(capacity);
+			break;
+		default:
+			throw new IllegalArgumentException("queue");
+		}
+	}
+
+	private boolean send() throws InterruptedException {
+		if (jdkQueue != null)
+			return jdkQueue.offer(message, TIMEOUT, TimeUnit.MILLISECONDS);
+		return kernelStyleQueue.send(message, TIMEOUT);
+	}
+
+	private Integer receive() throws InterruptedException {
+		if (jdkQueue != null)
+			return jdkQueue.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+		return kernelStyleQueue.receive(TIMEOUT);
+	}
+
+	@Benchmark
+	@Group("uncontended")
+	@GroupThreads(1)
+	public boolean uncontendedSend() throws InterruptedException { return send(); }
+
+	@Benchmark
+	@Group("uncontended")
+	@GroupThreads(1)
+	public Integer uncontendedReceive() throws InterruptedException { return receive(); }
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(2)
+	public boolean contendedSend() throws InterruptedException { return send(); }
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(2)
+	public Integer contendedReceive() throws InterruptedException { return receive(); }
+
+	@Benchmark
+	@Group("oversubscribed")
+	@GroupThreads(32)
+	public boolean oversubscribedSend() throws InterruptedException { return send(); }
+
+	@Benchmark
+	@Group("oversubscribed")
+	@GroupThreads(32)
+	public Integer oversubscribedReceive() throws InterruptedException { return receive(); }
+}
@@ -0,0 +1,103 @@
+/**
+ *  ISEL, LEIC, Concurrent Programming
+ *
+ *  Wait on an event that is already signaled (the fast path of ManualResetEventSlim)
+ *  and synchronization of the parties of cyclic barriers.
+ *
+ */
+
+package pc.synchs;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventAndBarrierBenchmark {
+
+	// the time limit of the barrier await, so that no thread stays blocked when the
+	// other threads finish the iteration
+	private static final long TIMEOUT = 10;
+
+	@State(Scope.Benchmark)
+	public static class Events {
+		final ManualResetEventSlim event = new ManualResetEventSlim(true);
+		final CountDownLatch latch = new CountDownLatch(0);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public boolean signaledEventUncontended(Events events) throws InterruptedException {
+		return events.event.await(-1L);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public boolean signaledEventContended(Events events) throws InterruptedException {
+		return events.event.await(-1L);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public boolean jdkOpenLatchUncontended(Events events) throws InterruptedException {
+		return events.latch.await(-1L, TimeUnit.MILLISECONDS);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public boolean jdkOpenLatchContended(Events events) throws InterruptedException {
+		return events.latch.await(-1L, TimeUnit.MILLISECONDS);
+	}
+
+	// a barrier with as many parties as the threads of the benchmark
+	@State(Scope.Benchmark)
+	public static class Barrier {
+		@Param({ "jdk", "kernel-style", "kernel-style-tree" })
+		public String barrier;
+
+		java.util.concurrent.CyclicBarrier jdkBarrier;
+		CyclicBarrier kernelStyleBarrier;
+
+		@Setup
+		public void setup(org.openjdk.jmh.infra.BenchmarkParams params) {
+			int parties = params.getThreads();
+			if (barrier.equals("jdk"))
+				jdkBarrier = new java.util.concurrent.CyclicBarrier(parties);
+			else
+				kernelStyleBarrier = new CyclicBarrier(parties, null, barrier.endsWith("tree"));
+		}
+
+		int await() throws InterruptedException {
+			try {
+				if (jdkBarrier != null)
+					return jdkBarrier.await(TIMEOUT, TimeUnit.MILLISECONDS);
+				return kernelStyleBarrier.await(TIMEOUT, TimeUnit.MILLISECONDS);
+			} catch (BrokenBarrierException | TimeoutException ex) {
+				// the other parties finished the iteration; start a new generation
+				if (jdkBarrier != null)
+					jdkBarrier.reset();
+				else
+					kernelStyleBarrier.reset();
+				return -1;
+			}
+		}
+	}
+
+	@Benchmark
+	@Threads(1)
+	public int barrierUncontended(Barrier barrier) throws InterruptedException { return barrier.await(); }
+
+	@Benchmark
+	@Threads(4)
+	public int barrierContended(Barrier barrier) throws InterruptedException { return barrier.await(); }
+
+	@Benchmark
+	@Threads(16)
+	public int barrierOversubscribed(Barrier barrier) throws InterruptedException { return barrier.await(); }
+}
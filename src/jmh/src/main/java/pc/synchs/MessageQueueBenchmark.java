@@ -0,0 +1,106 @@
+/**
+ *  ISEL, LEIC, Concurrent Programming
+ *
+ *  Transfer of messages from producers to one consumer through the unbounded message
+ *  queues. The number of messages in the queue is limited by credits (a JDK semaphore)
+ *  released by the consumer, so the queue does not grow while the producers are
+ *  faster than the consumer. There is only one consumer, as required by
+ *  MessageQueueSingleConsumer.
+ *
+ */
+
+package pc.synchs;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class MessageQueueBenchmark {
+
+	// the maximum number of messages in the queue
+	private static final int CREDITS = 1024;
+
+	// the time limit of the blocking operations, so that no thread stays blocked when
+	// the other threads of the group finish the iteration
+	private static final long TIMEOUT = 10;
+
+	@Param({ "jdk", "kernel-style", "single-consumer" })
+	public String queue;
+
+	private final java.util.concurrent.Semaphore credits = new java.util.concurrent.Semaphore(CREDITS);
+	private final Integer message = 42;
+	private LinkedBlockingQueue<Integer> jdkQueue;
+	private KernelStyleMessageQueue<Integer> kernelStyleQueue;
+	private MessageQueueSingleConsumer<Integer> singleConsumerQueue;
+
+	@Setup
+	public void setup() {
+		switch (queue) {
+		case "jdk": jdkQueue = new LinkedBlockingQueue<>(); break;
+		case "kernel-style": kernelStyleQueue = new KernelStyleMessageQueue<>(); break;
+		case "single-consumer": singleConsumerQueue = new MessageQueueSingleConsumer<>(); break;
+		default: throw new IllegalArgumentException("queue");
+		}
+	}
+
+	private boolean send() throws InterruptedException {
+		if (!credits.tryAcquire(TIMEOUT, TimeUnit.MILLISECONDS))
+			return false;
+		if (jdkQueue != null)
+			jdkQueue.add(message);
+		else if (kernelStyleQueue != null)
+			kernelStyleQueue.send(message);
+		else
+			singleConsumerQueue.send(message);
+		return true;
+	}
+
+	private Integer receive() throws InterruptedException {
+		Integer msg;
+		if (jdkQueue != null)
+			msg = jdkQueue.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+		else if (kernelStyleQueue != null)
+			msg = kernelStyleQueue.receive(TIMEOUT);
+		else
+			msg = singleConsumerQueue.receive(TIMEOUT);
+		if (msg != null)
+			credits.release();
+		return msg;
+	}
+
+	@Benchmark
+	@Group("uncontended")
+	@GroupThreads(1)
+	public boolean uncontendedSend() throws InterruptedException { return send(); }
+
+	@Benchmark
+	@Group("uncontended")
+	@GroupThreads(1)
+	public Integer uncontendedReceive() throws InterruptedException { return receive(); }
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(3)
+	public boolean contendedSend() throws InterruptedException { return send(); }
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(1)
+	public Integer contendedReceive() throws InterruptedException { return receive(); }
+
+	@Benchmark
+	@Group("oversubscribed")
+	@GroupThreads(63)
+	public boolean oversubscribedSend() throws InterruptedException { return send(); }
+
+	@Benchmark
+	@Group("oversubscribed")
+	@GroupThreads(1)
+	public Integer oversubscribedReceive() throws InterruptedException { return receive(); }
+}
@@ -0,0 +1,103 @@
+/**
+ *  ISEL, LEIC, Concurrent Programming
+ *
+ *  Read/write locks with only readers (uncontended and contended) and with a mix
+ *  of readers and one writer.
+ *
+ */
+
+package pc.synchs;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class ReadWriteLockBenchmark {
+
+	@Param({ "jdk", "jdk-fair", "kernel-style", "kernel-style-reentrant" })
+	public String lock;
+
+	private ReentrantReadWriteLock jdkLock;
+	private ReadWriteLockOptimized kernelStyleLock;
+
+	// the data protected by the lock
+	private long value;
+
+	@Setup
+	public void setup() {
+		if (lock.startsWith("jdk"))
+			jdkLock = new ReentrantReadWriteLock(lock.endsWith("fair"));
+		else
+			kernelStyleLock = new ReadWriteLockOptimized(lock.endsWith("reentrant"));
+	}
+
+	private long read() throws InterruptedException {
+		if (jdkLock != null) {
+			jdkLock.readLock().lock();
+			try {
+				return value;
+			} finally {
+				jdkLock.readLock().unlock();
+			}
+		}
+		kernelStyleLock.lockRead();
+		try {
+			return value;
+		} finally {
+			kernelStyleLock.unlockRead();
+		}
+	}
+
+	private long write() throws InterruptedException {
+		if (jdkLock != null) {
+			jdkLock.writeLock().lock();
+			try {
+				return ++value;
+			} finally {
+				jdkLock.writeLock().unlock();
+			}
+		}
+		kernelStyleLock.lockWrite();
+		try {
+			return ++value;
+		} finally {
+			kernelStyleLock.unlockWrite();
+		}
+	}
+
+	@Benchmark
+	@Group("uncontendedRead")
+	@GroupThreads(1)
+	public long uncontendedRead() throws InterruptedException { return read(); }
+
+	@Benchmark
+	@Group("contendedRead")
+	@GroupThreads(4)
+	public long contendedRead() throws InterruptedException { return read(); }
+
+	@Benchmark
+	@Group("readMostly")
+	@GroupThreads(3)
+	public long readMostlyRead() throws InterruptedException { return read(); }
+
+	@Benchmark
+	@Group("readMostly")
+	@GroupThreads(1)
+	public long readMostlyWrite() throws InterruptedException { return write(); }
+
+	@Benchmark
+	@Group("oversubscribed")
+	@GroupThreads(60)
+	public long oversubscribedRead() throws InterruptedException { return read(); }
+
+	@Benchmark
+	@Group("oversubscribed")
+	@GroupThreads(4)
+	public long oversubscribedWrite() throws InterruptedException { return write(); }
+}
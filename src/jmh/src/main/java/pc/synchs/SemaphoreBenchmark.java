@@ -0,0 +1,120 @@
+/**
+ *  ISEL, LEIC, Concurrent Programming
+ *
+ *  Acquire and release of one permit of a semaphore with one permit (used as a lock),
+ *  without contention, with contention and with more threads than processors.
+ *
+ */
+
+package pc.synchs;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SemaphoreBenchmark {
+
+	// the interface used to benchmark the different semaphores
+	interface Lock {
+		void lock() throws InterruptedException;
+		void unlock();
+	}
+
+	@Param({ "jdk", "jdk-fair", "synchs-optimized", "synchs-async", "kernel-style",
+			 "kernel-style-fast-path", "monitor-implicit", "monitor-implicit-fair",
+			 "monitor-explicit", "monitor-explicit-fair" })
+	public String semaphore;
+
+	private Lock lock;
+
+	// the work done while holding the permit
+	private long counter;
+
+	@Setup
+	public void setup() {
+		switch (semaphore) {
+		case "jdk":
+		case "jdk-fair": {
+			java.util.concurrent.Semaphore sem = new java.util.concurrent.Semaphore(1, semaphore.endsWith("fair"));
+			lock = new Lock() {
+				public void lock() throws InterruptedException { sem.acquire(); }
+				public void unlock() { sem.release(); }
+			};
+			break;
+		}
+		case "synchs-optimized": {
+			Semaphore sem = new Semaphore(1);
+			lock = new Lock() {
+				public void lock() throws InterruptedException { sem.acquire(); }
+				public void unlock() { sem.release(); }
+			};
+			break;
+		}
+		case "synchs-async": {
+			SemaphoreAsync sem = new SemaphoreAsync(1);
+			lock = new Lock() {
+				public void lock() throws InterruptedException { sem.acquire(); }
+				public void unlock() { sem.release(); }
+			};
+			break;
+		}
+		case "kernel-style":
+		case "kernel-style-fast-path": {
+			KernelStyleSemaphore sem = new KernelStyleSemaphore(1, semaphore.endsWith("fast-path"));
+			lock = new Lock() {
+				public void lock() throws InterruptedException { sem.acquire(); }
+				public void unlock() { sem.release(); }
+			};
+			break;
+		}
+		case "monitor-implicit":
+		case "monitor-implicit-fair": {
+			SemaphoreMonitorStyleImplictMonitor sem =
+						new SemaphoreMonitorStyleImplictMonitor(1, semaphore.endsWith("fair"));
+			lock = new Lock() {
+				public void lock() throws InterruptedException { sem.acquire(1, -1L); }
+				public void unlock() { sem.release(1); }
+			};
+			break;
+		}
+		case "monitor-explicit":
+		case "monitor-explicit-fair": {
+			SemaphoreMonitorStyleExplicitMonitor sem =
+						new SemaphoreMonitorStyleExplicitMonitor(1, semaphore.endsWith("fair"));
+			lock = new Lock() {
+				public void lock() throws InterruptedException { sem.acquire(1, -1L); }
+				public void unlock() { sem.release(1); }
+			};
+			break;
+		}
+		default:
+			throw new IllegalArgumentException("semaphore");
+		}
+	}
+
+	private long acquireRelease() throws InterruptedException {
+		lock.lock();
+		try {
+			return ++counter;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Benchmark
+	@Threads(1)
+	public long uncontended() throws InterruptedException { return acquireRelease(); }
+
+	@Benchmark
+	@Threads(4)
+	public long contended() throws InterruptedException { return acquireRelease(); }
+
+	@Benchmark
+	@Threads(64)
+	public long oversubscribed() throws InterruptedException { return acquireRelease(); }
+}
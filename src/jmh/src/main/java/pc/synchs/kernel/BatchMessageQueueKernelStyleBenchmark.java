@@ -0,0 +1,125 @@
+/**
+ *  ISEL, LEIC, Concurrent Programming
+ *
+ *  Transfer of batches of messages from producers to one consumer with sendAll and
+ *  receiveAll, which take the lock of the kernel style message queues of
+ *  GenericSynchronizerKernelStyle once for each batch. The number of messages in
+ *  the queue is limited by credits released by the consumer. The throughput is
+ *  measured in batches.
+ *
+ */
+
+package pc.synchs.kernel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class BatchMessageQueueKernelStyleBenchmark {
+
+	// the maximum number of messages in the queue
+	private static final int CREDITS = 1024;
+
+	// the number of messages of each batch
+	private static final int BATCH_SIZE = 16;
+
+	// the time limit of the blocking operations, so that no thread stays blocked when
+	// the other threads of the group finish the iteration
+	private static final long TIMEOUT = 10;
+
+	// the interface used to benchmark the different queues
+	interface BatchQueue {
+		void sendAll(List<Integer> sentMsgs);
+		List<Integer> receiveAll(int max, long millisTimeout) throws InterruptedException;
+	}
+
+	@Param({ "notifyAll", "park-unpark", "condition" })
+	public String queue;
+
+	private final java.util.concurrent.Semaphore credits = new java.util.concurrent.Semaphore(CREDITS);
+	private final List<Integer> batch = new ArrayList<>();
+	private BatchQueue theQueue;
+
+	@Setup
+	public void setup() {
+		for (int i = 0; i < BATCH_SIZE; i++)
+			batch.add(i);
+		switch (queue) {
+		case "notifyAll": {
+			MessageQueueKernelStyleImplicitMonitor<Integer> q = new MessageQueueKernelStyleImplicitMonitor<>();
+			theQueue = new BatchQueue() {
+				public void sendAll(List<Integer> sentMsgs) { q.sendAll(sentMsgs); }
+				public List<Integer> receiveAll(int max, long millisTimeout) throws InterruptedException {
+					return q.receiveAll(max, millisTimeout);
+				}
+			};
+			break;
+		}
+		case "park-unpark": {
+			MessageQueueKernelStyleImplicitMonitorSpecificNotification<Integer> q =
+						new MessageQueueKernelStyleImplicitMonitorSpecificNotification<>();
+			theQueue = new BatchQueue() {
+				public void sendAll(List<Integer> sentMsgs) { q.sendAll(sentMsgs); }
+				public List<Integer> receiveAll(int max, long millisTimeout) throws InterruptedException {
+					return q.receiveAll(max, millisTimeout);
+				}
+			};
+			break;
+		}
+		case "condition": {
+			MessageQueueKernelStyleExplicitMonitorSpecificNotification<Integer> q =
+						new MessageQueueKernelStyleExplicitMonitorSpecificNotification<>();
+			theQueue = new BatchQueue() {
+				public void sendAll(List<Integer> sentMsgs) { q.sendAll(sentMsgs); }
+				public List<Integer> receiveAll(int max, long millisTimeout) throws InterruptedException {
+					return q.receiveAll(max, millisTimeout);
+				}
+			};
+			break;
+		}
+		default:
+			throw new IllegalArgumentException("queue");
+		}
+	}
+
+	private boolean sendAll() throws InterruptedException {
+		if (!credits.tryAcquire(BATCH_SIZE, TIMEOUT, TimeUnit.MILLISECONDS))
+			return false;
+		theQueue.sendAll(batch);
+		return true;
+	}
+
+	private List<Integer> receiveAll() throws InterruptedException {
+		List<Integer> msgs = theQueue.receiveAll(BATCH_SIZE, TIMEOUT);
+		if (msgs != null)
+			credits.release(msgs.size());
+		return msgs;
+	}
+
+	@Benchmark
+	@Group("uncontended")
+	@GroupThreads(1)
+	public boolean uncontendedSendAll() throws InterruptedException { return sendAll(); }
+
+	@Benchmark
+	@Group("uncontended")
+	@GroupThreads(1)
+	public List<Integer> uncontendedReceiveAll() throws InterruptedException { return receiveAll(); }
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(3)
+	public boolean contendedSendAll() throws InterruptedException { return sendAll(); }
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(1)
+	public List<Integer> contendedReceiveAll() throws InterruptedException { return receiveAll(); }
+}
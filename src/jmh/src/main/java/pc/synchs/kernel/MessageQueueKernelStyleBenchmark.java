@@ -0,0 +1,162 @@
+/**
+ *  ISEL, LEIC, Concurrent Programming
+ *
+ *  Transfer of messages from producers to one consumer through the kernel style
+ *  message queues of GenericSynchronizerKernelStyle, with Send (the message is
+ *  buffered and removed again for a blocked receiver) and SendOptimized (the
+ *  message is handed directly to a blocked receiver), and through the rendezvous
+ *  queue (BoundedMessageQueueKernelStyle with capacity 0). As in
+ *  MessageQueueBenchmark, the number of messages in the queue is limited by
+ *  credits released by the consumer.
+ *
+ */
+
+package pc.synchs.kernel;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class MessageQueueKernelStyleBenchmark {
+
+	// the maximum number of messages in the queue
+	private static final int CREDITS = 1024;
+
+	// the time limit of the blocking operations, so that no thread stays blocked when
+	// the other threads of the group finish the iteration
+	private static final long TIMEOUT = 10;
+
+	// the interface used to benchmark the different queues
+	interface Queue {
+		boolean send(Integer sentMsg) throws InterruptedException;
+		Integer receive(long millisTimeout) throws InterruptedException;
+	}
+
+	@Param({ "notifyAll", "notifyAll-optimized", "park-unpark", "condition", "condition-optimized",
+			 "rendezvous" })
+	public String queue;
+
+	private final java.util.concurrent.Semaphore credits = new java.util.concurrent.Semaphore(CREDITS);
+	private final Integer message = 42;
+	private Queue theQueue;
+
+	@Setup
+	public void setup() {
+		switch (queue) {
+		case "notifyAll":
+		case "notifyAll-optimized": {
+			MessageQueueKernelStyleImplicitMonitor<Integer> q = new MessageQueueKernelStyleImplicitMonitor<>();
+			boolean optimized = queue.endsWith("optimized");
+			theQueue = new Queue() {
+				public boolean send(Integer sentMsg) {
+					if (optimized)
+						q.SendOptimized(sentMsg);
+					else
+						q.Send(sentMsg);
+					return true;
+				}
+				public Integer receive(long millisTimeout) throws InterruptedException {
+					return q.receive(millisTimeout);
+				}
+			};
+			break;
+		}
+		case "park-unpark": {
+			MessageQueueKernelStyleImplicitMonitorSpecificNotification<Integer> q =
+						new MessageQueueKernelStyleImplicitMonitorSpecificNotification<>();
+			theQueue = new Queue() {
+				public boolean send(Integer sentMsg) { q.Send(sentMsg); return true; }
+				public Integer receive(long millisTimeout) throws InterruptedException {
+					return q.receive(millisTimeout);
+				}
+			};
+			break;
+		}
+		case "condition":
+		case "condition-optimized": {
+			MessageQueueKernelStyleExplicitMonitorSpecificNotification<Integer> q =
+						new MessageQueueKernelStyleExplicitMonitorSpecificNotification<>();
+			boolean optimized = queue.endsWith("optimized");
+			theQueue = new Queue() {
+				public boolean send(Integer sentMsg) {
+					if (optimized)
+						q.SendOptimized(sentMsg);
+					else
+						q.Send(sentMsg);
+					return true;
+				}
+				public Integer receive(long millisTimeout) throws InterruptedException {
+					return q.receive(millisTimeout);
+				}
+			};
+			break;
+		}
+		case "rendezvous": {
+			BoundedMessageQueueKernelStyle<Integer> q = new BoundedMessageQueueKernelStyle<>(0);
+			theQueue = new Queue() {
+				public boolean send(Integer sentMsg) throws InterruptedException {
+					return q.send(sentMsg, TIMEOUT);
+				}
+				public Integer receive(long millisTimeout) throws InterruptedException {
+					return q.receive(millisTimeout);
+				}
+			};
+			break;
+		}
+		default:
+			throw new IllegalArgumentException("queue");
+		}
+	}
+
+	private boolean send() throws InterruptedException {
+		if (!credits.tryAcquire(TIMEOUT, TimeUnit.MILLISECONDS))
+			return false;
+		if (!theQueue.send(message)) {
+			credits.release();
+			return false;
+		}
+		return true;
+	}
+
+	private Integer receive() throws InterruptedException {
+		Integer msg = theQueue.receive(TIMEOUT);
+		if (msg != null)
+			credits.release();
+		return msg;
+	}
+
+	@Benchmark
+	@Group("uncontended")
+	@GroupThreads(1)
+	public boolean uncontendedSend() throws InterruptedException { return send(); }
+
+	@Benchmark
+	@Group("uncontended")
+	@GroupThreads(1)
+	public Integer uncontendedReceive() throws InterruptedException { return receive(); }
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(3)
+	public boolean contendedSend() throws InterruptedException { return send(); }
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(1)
+	public Integer contendedReceive() throws InterruptedException { return receive(); }
+
+	@Benchmark
+	@Group("oversubscribed")
+	@GroupThreads(63)
+	public boolean oversubscribedSend() throws InterruptedException { return send(); }
+
+	@Benchmark
+	@Group("oversubscribed")
+	@GroupThreads(1)
+	public Integer oversubscribedReceive() throws InterruptedException { return receive(); }
+}
@@ -0,0 +1,93 @@
+/**
+ *  ISEL, LEIC, Concurrent Programming
+ *
+ *  Acquire and release of one permit of the kernel style semaphores of
+ *  GenericSynchronizerKernelStyle (used as a lock), without contention, with
+ *  contention and with more threads than processors: notifyAll on the implicit
+ *  monitor, specific notifications with park/unpark, and specific notifications
+ *  with one condition per request on an explicit monitor.
+ *
+ */
+
+package pc.synchs.kernel;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SemaphoreKernelStyleBenchmark {
+
+	// the interface used to benchmark the different semaphores
+	interface Lock {
+		void lock() throws InterruptedException;
+		void unlock();
+	}
+
+	@Param({ "notifyAll", "park-unpark", "condition" })
+	public String semaphore;
+
+	private Lock lock;
+
+	// the work done while holding the permit
+	private long counter;
+
+	@Setup
+	public void setup() {
+		switch (semaphore) {
+		case "notifyAll": {
+			SemaphoreKernelStyleImplicitMonitor sem = new SemaphoreKernelStyleImplicitMonitor(1);
+			lock = new Lock() {
+				public void lock() throws InterruptedException { sem.acquire(1, -1L); }
+				public void unlock() { sem.release(1); }
+			};
+			break;
+		}
+		case "park-unpark": {
+			SemaphoreKernelStyleImplicitMonitorSpecificNotifications sem =
+						new SemaphoreKernelStyleImplicitMonitorSpecificNotifications(1);
+			lock = new Lock() {
+				public void lock() throws InterruptedException { sem.acquire(1, -1L); }
+				public void unlock() { sem.release(1); }
+			};
+			break;
+		}
+		case "condition": {
+			SemaphoreKernelStyleExplicitMonitorSpecificNotifications sem =
+						new SemaphoreKernelStyleExplicitMonitorSpecificNotifications(1);
+			lock = new Lock() {
+				public void lock() throws InterruptedException { sem.acquire(1, -1L); }
+				public void unlock() { sem.release(1); }
+			};
+			break;
+		}
+		default:
+			throw new IllegalArgumentException("semaphore");
+		}
+	}
+
+	private long acquireRelease() throws InterruptedException {
+		lock.lock();
+		try {
+			return ++counter;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Benchmark
+	@Threads(1)
+	public long uncontended() throws InterruptedException { return acquireRelease(); }
+
+	@Benchmark
+	@Threads(4)
+	public long contended() throws InterruptedException { return acquireRelease(); }
+
+	@Benchmark
+	@Threads(64)
+	public long oversubscribed() throws InterruptedException { return acquireRelease(); }
+}
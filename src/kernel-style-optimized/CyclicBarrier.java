@@ -6,8 +6,15 @@
  *
  *  Note: This implementation is similar to that used in jdk 9.
  *
- *  Compile with: javac CyclicBarrier.java
- *  Execute with: java CyclicBarrier
+ *  Modes and their limits:
+ *   - combining tree mode: await, reset and the queries are supported; awaitAsync,
+ *     register and arriveAndDeregister throw UnsupportedOperationException;
+ *   - parallel barrier action: awaitAsync throws UnsupportedOperationException, as
+ *     the parties must run the parts of the action on their own threads;
+ *   - barrier action on an executor: all the interfaces are supported.
+ *
+ *  Compile with: javac CyclicBarrier.java Delayer.java
+ *  Execute with: java CyclicBarrier [-test]
  *
  *  Carlos Martins, April 2018
  *
@@ -19,9 +26,21 @@ import java.util.ArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 
 // The Cyclic Barrier
@@ -37,15 +56,87 @@ public final class CyclicBarrier {
 	 * but no subsequent reset.
 	 */
 	private static class Generation {
+		final int phase;				// the phase number of the generation
 		boolean broken;                 // initially false
+		boolean tripped;				// set when the barrier action completes
+		List<AsyncAwait> asyncAwaits;	// the pending async awaits, created lazily
+
+		// state of the parallel barrier action
+		boolean released;				// set when the parties can run their parts
+		int parts;						// the number of parts of the action
+		int nextPart;					// the next part to be assigned to a party
+		int pendingParts;				// the number of parts not yet completed
+
+		Generation(int phase) { this.phase = phase; }
+	}
+
+	/**
+	 * A barrier action that is split in parts, which are executed in parallel
+	 * by all the parties of the generation when the barrier is tripped, as in a
+	 * reduction step. Each party executes one part, identified by a number between
+	 * 0 and parts - 1, and the parties are released after all the parts complete.
+	 */
+	public interface ParallelAction {
+		void run(int part, int parts);
+	}
+
+	/**
+	 * The type used to represent each pending async await
+	 */
+	private class AsyncAwait extends CompletableFuture<Integer> implements Runnable {
+		final Generation generation;	// the generation of the await
+		final int index;				// the arrival index
+		ScheduledFuture<?> timer;		// timeout's timer
+		boolean done;					// true when the async await was completed
+
+		AsyncAwait(Generation generation, int index) {
+			this.generation = generation;
+			this.index = index;
+		}
+
+		/**
+		 * This is the timeout handler, which breaks the barrier.
+		 */
+		@Override
+		public void run() {
+			List<AsyncAwait> broken = null;
+			boolean complete = false;
+			mlock.lock();
+			try {
+				if (!done) {
+					generation.asyncAwaits.remove(this);
+					complete = done = true;
+					broken = breakBarrier(generation);
+				}
+			} finally {
+				mlock.unlock();
+			}
+			if (complete) {
+				completeAsyncAwaits(broken, true);
+				completeExceptionally(new TimeoutException());
+			}
+		}
+
+		/**
+		 * Disposes the resources associated with the async await
+		 */
+		void close() {
+			if (timer != null)
+				timer.cancel(false);
+		}
 	}
 	
     private final Lock mlock;				// The monitor lock for guarding barrier entry
     private final Condition tripcv;			// Condition to wait on until tripped */
-    private final int parties;				// The number of parties
+    private int parties;					// The number of parties, which may change
     private final Runnable barrierCommand;	// The command to run when tripped
+    private final ParallelAction parallelCommand;	// The command to run in parallel when tripped
+    private final Executor barrierExecutor;	// If not null, the executor that runs the command
     private Generation generation;			// The current generation	
+	private final CombiningTreeBarrier tree;	// Not null in the combining tree mode
 
+	// Completed future used to return the arrival index of the last party
+	private static final CompletableFuture<Integer> zeroFuture = CompletableFuture.completedFuture(0);
 	
 	/**
 	 * Number of parties still waiting. Counts down from parties to 0 on each generation.
@@ -54,30 +145,143 @@ public final class CyclicBarrier {
     private int count;
 	
 	/**
-	 * Updates state on barrier trip and wakes up everyone.
+	 * Sets up the next generation, without tripping the current one.
 	 * Called only while holding lock.
 	 */
 	private void nextGeneration() {
-		tripcv.signalAll();		// signal completion of last generation
 		count = parties;		// set up next generation
-		generation = new Generation();
+		generation = new Generation(generation.phase + 1);
+	}
+
+	/**
+	 * Releases the parties of the generation g to run the parts of the parallel barrier
+	 * action, setting up the next generation; g is tripped when all the parts complete.
+	 * Called only while holding lock.
+	 */
+	private void releaseParallelAction(Generation g) {
+		g.parts = g.pendingParts = parties;
+		g.released = true;
+		nextGeneration();
+		tripcv.signalAll();
+	}
+
+	/**
+	 * Sets the generation g as tripped and wakes up everyone, returning the async
+	 * awaits that must be completed with its arrival index.
+	 * Called only while holding lock.
+	 */
+	private List<AsyncAwait> tripGeneration(Generation g) {
+		if (g.broken)
+			return null;
+		g.tripped = true;
+		tripcv.signalAll();		// signal completion of the generation
+		return takeAsyncAwaits(g);
 	}
 
     /**
-     * Sets current barrier generation as broken and wakes up everyone.
+     * Sets the barrier generation g as broken and wakes up everyone, returning the
+	 * async awaits that must be completed with BrokenBarrierException.
      * Called only while holding lock.
      */
-    private void breakBarrier() {
-        generation.broken = true;
-        count = parties;
+    private List<AsyncAwait> breakBarrier(Generation g) {
+        g.broken = true;
+		if (g == generation)
+			count = parties;
         tripcv.signalAll();
+		return takeAsyncAwaits(g);
     }
 
+    private List<AsyncAwait> breakBarrier() { return breakBarrier(generation); }
+
+	/**
+	 * Removes the pending async awaits from the generation g, marking them as done.
+	 * Called only while holding lock.
+	 */
+	private static List<AsyncAwait> takeAsyncAwaits(Generation g) {
+		List<AsyncAwait> awaits = g.asyncAwaits;
+		if (awaits != null) {
+			g.asyncAwaits = null;
+			for (AsyncAwait await : awaits)
+				await.done = true;
+		}
+		return awaits;
+	}
+
+	/**
+	 * Completes the async awaits with their arrival index or, if broken, with
+	 * BrokenBarrierException.
+	 *
+	 * Note: This method is called when calling thread *does not* own the lock, to
+	 *       prevent reentrancy when synchronous continuations are executed.
+	 */
+	private static void completeAsyncAwaits(List<AsyncAwait> awaits, boolean broken) {
+		if (awaits != null) {
+			for (AsyncAwait await : awaits) {
+				await.close();
+				if (broken)
+					await.completeExceptionally(new BrokenBarrierException());
+				else
+					await.complete(await.index);
+			}
+		}
+	}
+
+	/**
+	 * Runs the barrier action of the generation g on the barrier executor, tripping
+	 * the generation when the action completes. If the action fails, both g and the
+	 * current generation are broken.
+	 * Called only while holding lock; returns the async awaits to complete with
+	 * BrokenBarrierException if the executor rejects the action.
+	 */
+	private List<AsyncAwait> executeBarrierAction(Generation g) {
+		try {
+			barrierExecutor.execute(() -> {
+				boolean ranAction = false;
+				try {
+					barrierCommand.run();
+					ranAction = true;
+				} finally {
+					List<AsyncAwait> tripped = null, broken = null;
+					mlock.lock();
+					try {
+						if (ranAction)
+							tripped = tripGeneration(g);
+						else
+							broken = breakBarriers(g);
+					} finally {
+						mlock.unlock();
+					}
+					completeAsyncAwaits(tripped, false);
+					completeAsyncAwaits(broken, true);
+				}
+			});
+			return null;
+		} catch (RejectedExecutionException ree) {
+			return breakBarriers(g);
+		}
+	}
+
+	/**
+	 * Breaks the generation g, whose barrier action failed, and the current generation.
+	 * Called only while holding lock.
+	 */
+	private List<AsyncAwait> breakBarriers(Generation g) {
+		List<AsyncAwait> broken = breakBarrier(g), more = breakBarrier();
+		if (broken == null)
+			return more;
+		if (more != null)
+			broken.addAll(more);
+		return broken;
+	}
+
     /**
      * Main barrier code, covering the various policies.
      */
 	private int dowait(boolean timed, long nanos)
 						throws InterruptedException, BrokenBarrierException, TimeoutException {
+		if (tree != null)
+			return tree.dowait(timed, nanos);
+		List<AsyncAwait> tripped = null, broken = null;
 		mlock.lock();
 		try {
 			Generation g = generation;
@@ -85,39 +289,68 @@ public final class CyclicBarrier {
 				throw new BrokenBarrierException();
             
 			if (Thread.interrupted()) {
-                breakBarrier();
+                broken = breakBarrier();
                 throw new InterruptedException();
             }
 			
 			int index = --count;
-			if (index == 0) {					// tripped
-				boolean ranAction = false;
-                try {
-                    if (barrierCommand != null)
-                        barrierCommand.run();
-                    ranAction = true;
-                    nextGeneration();
-                    return 0;
-                } finally {
-                    if (!ranAction)
-                        breakBarrier();
-                }
-            }
+			if (index == 0 && parallelCommand != null) {
+				// tripped, all the parties run the parallel barrier action
+				releaseParallelAction(g);
+			} else if (index == 0) {					// tripped
+				if (barrierExecutor == null || barrierCommand == null) {
+					boolean ranAction = false;
+					try {
+						if (barrierCommand != null)
+							barrierCommand.run();
+						ranAction = true;
+						nextGeneration();
+						tripped = tripGeneration(g);
+						return 0;
+					} finally {
+						if (!ranAction)
+							broken = breakBarrier();
+					}
+				}
+				// the next generation starts now, and the last party waits, as the
+				// others, for the completion of the action on the executor
+				nextGeneration();
+				broken = executeBarrierAction(g);
+			}
 			
             // loop until tripped, broken, interrupted, or timed out
-            do {
+			boolean ranPart = false;
+            while (!g.tripped) {
+				if (g.broken)
+					throw new BrokenBarrierException();
+				if (g.released && !ranPart) {
+					// run a part of the parallel barrier action outside the lock
+					int part = g.nextPart++;
+					mlock.unlock();
+					try {
+						parallelCommand.run(part, g.parts);
+						ranPart = true;
+					} finally {
+						mlock.lock();
+						if (!ranPart)
+							broken = breakBarriers(g);
+					}
+					if (--g.pendingParts == 0)
+						tripped = tripGeneration(g);
+					continue;
+				}
 				try {
 					if (timed) {
 						if (nanos <= 0L) {
-							breakBarrier();
+							broken = breakBarrier(g);
 							throw new TimeoutException();
 						}
                         nanos = tripcv.awaitNanos(nanos);						
 					} else
                         tripcv.await();
                 } catch (InterruptedException ie) {
-                    if (g == generation && !g.broken) {
-						breakBarrier();
+                    if (!g.tripped && !g.broken) {
+						broken = breakBarrier(g);
                         throw ie;
                     } else {
                         // We're about to finish waiting even if we had not been interrupted,
@@ -125,36 +358,230 @@ public final class CyclicBarrier {
                         Thread.currentThread().interrupt();
                     }
                 }
-                if (g.broken)
-					throw new BrokenBarrierException();
-			} while (g == generation);
+			}
 			return index;
 		} finally {
 			mlock.unlock();
+			completeAsyncAwaits(tripped, false);
+			completeAsyncAwaits(broken, true);
         }
     }
 
+	/**
+	 * Main async barrier code, covering the various policies.
+	 */
+	private CompletableFuture<Integer> doAwaitAsync(boolean timed, long timeout, TimeUnit unit) {
+		if (tree != null)
+			throw new UnsupportedOperationException("awaitAsync in combining tree mode");
+		if (parallelCommand != null)
+			throw new UnsupportedOperationException("awaitAsync with a parallel barrier action");
+		List<AsyncAwait> tripped = null, broken = null;
+		CompletableFuture<Integer> result;
+		mlock.lock();
+		try {
+			Generation g = generation;
+			if (g.broken)
+				return CompletableFuture.failedFuture(new BrokenBarrierException());
+
+			int index = --count;
+			if (index == 0 && (barrierExecutor == null || barrierCommand == null)) {
+				// tripped, run the barrier action on the current thread
+				Throwable failure = null;
+				try {
+					if (barrierCommand != null)
+						barrierCommand.run();
+				} catch (Throwable ex) {
+					failure = ex;
+				}
+				if (failure == null) {
+					nextGeneration();
+					tripped = tripGeneration(g);
+					result = zeroFuture;
+				} else {
+					broken = breakBarrier();
+					result = CompletableFuture.failedFuture(failure);
+				}
+			} else if (index > 0 && timed && timeout <= 0) {
+				// immediate timeout breaks the barrier
+				broken = breakBarrier();
+				result = CompletableFuture.failedFuture(new TimeoutException());
+			} else {
+				// Create an async await object and insert it in the generation's list
+				AsyncAwait await = new AsyncAwait(g, index);
+				if (g.asyncAwaits == null)
+					g.asyncAwaits = new ArrayList<>();
+				g.asyncAwaits.add(await);
+
+				/**
+				 * If a timeout was specified, start a timer.
+				 * Since that all paths of code that cancel the timer execute on other
+				 * threads and must aquire the lock, we has the guarantee that the field
+				 * "await.timer" is correctly set when the method AsyncAwait.close()
+				 * is called.
+				 */
+				if (timed)
+					await.timer = Delayer.delay(await, timeout, unit);
+				if (index == 0) {
+					// tripped, the last party completes with the action on the executor
+					nextGeneration();
+					broken = executeBarrierAction(g);
+				}
+				result = await;
+			}
+		} finally {
+			mlock.unlock();
+		}
+		// After we release the lock complete the released CompletableFutures.
+		completeAsyncAwaits(tripped, false);
+		completeAsyncAwaits(broken, true);
+		return result;
+	}
+
     /**
      * Creates a new CyclicBarrier that will trip when the given number of parties
 	 * (threads) are waiting upon it, and which will execute the given barrier action
 	 * when the barrier is tripped, performed by the last thread entering the barrier.
+	 *
+	 * In the combining tree mode, the parties arrive and are released through a
+	 * combining tree (see CombiningTreeBarrier), instead of taking the monitor lock
+	 * and waiting on the same condition variable, which scales better with many parties.
+	 *
+	 * If an executor is specified, the barrier action runs on it, instead of on the last
+	 * party entering the barrier, and the parties are released when the action completes.
+	 *
+	 * If a parallel barrier action is specified, the action is split across all the
+	 * parties of the generation (see ParallelAction).
      */
-	public CyclicBarrier(int parties, Runnable barrierAction) {
+	private CyclicBarrier(int parties, Runnable barrierAction, ParallelAction parallelAction,
+						  Executor barrierExecutor, boolean combiningTree) {
         if (parties <= 0)
 			throw new IllegalArgumentException();
         this.parties = this.count = parties;
         this.barrierCommand = barrierAction;
+		this.parallelCommand = parallelAction;
+		this.barrierExecutor = barrierExecutor;
 		this.mlock = new ReentrantLock();
 	    this.tripcv = mlock.newCondition();
-		this.generation = new Generation();			// first genetarion	
+		this.generation = new Generation(0);			// first genetarion
+		this.tree = combiningTree ? new CombiningTreeBarrier(parties, barrierAction) : null;
     }
 
-    public CyclicBarrier(int parties) { this(parties, null); }
+	public CyclicBarrier(int parties, Runnable barrierAction, boolean combiningTree) {
+		this(parties, barrierAction, null, null, combiningTree);
+	}
+
+	public CyclicBarrier(int parties, Runnable barrierAction, Executor barrierExecutor) {
+		this(parties, barrierAction, null, barrierExecutor, false);
+	}
+
+	public CyclicBarrier(int parties, ParallelAction barrierAction) {
+		this(parties, null, barrierAction, null, false);
+	}
+
+	public CyclicBarrier(int parties, Runnable barrierAction) { this(parties, barrierAction, null, null, false); }
+
+    public CyclicBarrier(int parties) { this(parties, null, null, null, false); }
 
     /**
      * Returns the number of parties required to trip this barrier.
      */
-     public int getParties() {  return parties; }
+     public int getParties() {
+		if (tree != null)
+			return tree.getParties();
+		mlock.lock();
+		try {
+			return parties;
+		} finally {
+			mlock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the current phase number, which is incremented each time the barrier
+	 * is tripped or reset.
+	 */
+	public int getPhase() {
+		if (tree != null)
+			return tree.getPhase();
+		mlock.lock();
+		try {
+			return generation.phase;
+		} finally {
+			mlock.unlock();
+		}
+	}
+
+	/**
+	 * Adds a new party to this barrier, which must arrive at the current phase, and
+	 * returns the current phase number.
+	 *
+	 * Note: The dynamic registration of parties is not available in the combining tree mode,
+	 * as the tree is built for a fixed number of parties (each leaf has a fixed number of
+	 * slots, where the parties of each phase wait).
+	 */
+	public int register() {
+		if (tree != null)
+			throw new UnsupportedOperationException("register in combining tree mode");
+		mlock.lock();
+		try {
+			if (parties == Integer.MAX_VALUE)
+				throw new IllegalStateException("Exceeded the maximum number of parties");
+			parties++;
+			count++;
+			return generation.phase;
+		} finally {
+			mlock.unlock();
+		}
+	}
+
+	/**
+	 * Arrives at this barrier and deregisters the current party, without waiting for
+	 * others to arrive, returning the phase number of the arrival. If the remaining
+	 * parties are already waiting, the barrier is tripped on their behalf, running the
+	 * serial barrier action, if any, on the current thread or on the barrier executor.
+	 * The last party cannot deregister.
+	 *
+	 * Note: As register, this method is not available in the combining tree mode.
+	 */
+	public int arriveAndDeregister() throws BrokenBarrierException {
+		if (tree != null)
+			throw new UnsupportedOperationException("arriveAndDeregister in combining tree mode");
+		List<AsyncAwait> tripped = null, broken = null;
+		mlock.lock();
+		try {
+			Generation g = generation;
+			if (g.broken)
+				throw new BrokenBarrierException();
+			if (parties == 1)
+				throw new IllegalStateException("The last party cannot deregister");
+			parties--;
+			if (--count == 0) {
+				if (parallelCommand != null) {
+					releaseParallelAction(g);
+				} else if (barrierExecutor == null || barrierCommand == null) {
+					boolean ranAction = false;
+					try {
+						if (barrierCommand != null)
+							barrierCommand.run();
+						ranAction = true;
+						nextGeneration();
+						tripped = tripGeneration(g);
+					} finally {
+						if (!ranAction)
+							broken = breakBarrier();
+					}
+				} else {
+					nextGeneration();
+					broken = executeBarrierAction(g);
+				}
+			}
+			return g.phase;
+		} finally {
+			mlock.unlock();
+			completeAsyncAwaits(tripped, false);
+			completeAsyncAwaits(broken, true);
+		}
+	}
 
     /**
      * Waits until all parties have invoked await on this barrier.
@@ -216,6 +643,27 @@ public final class CyclicBarrier {
 		boolean timed = timeout >= 0L; 
 	    return dowait(timed, timed ? unit.toNanos(timeout) : 0L);
 	}
+
+	/**
+	 * Asynchronous interface based on CompletableFuture<Integer>.
+	 *
+	 * The returned future is completed with the arrival index when the barrier trips,
+	 * so the parties do not block any thread while waiting. If the barrier is broken,
+	 * the future is completed exceptionally with BrokenBarrierException; the version
+	 * with timeout breaks the barrier and completes with TimeoutException if the
+	 * specified timeout elapses. A negative timeout means infinite.
+	 *
+	 * Note: This interface is not available in the combining tree mode, nor with a
+	 * parallel barrier action (see the class header).
+	 */
+
+	public CompletableFuture<Integer> awaitAsync() {
+		return doAwaitAsync(false, 0L, null);
+	}
+
+	public CompletableFuture<Integer> awaitAsync(long timeout, TimeUnit unit) {
+		return doAwaitAsync(timeout >= 0L, timeout, unit);
+	}
 	
     /**
      * Resets the barrier to its initial state.  If any parties are currently waiting
@@ -226,13 +674,19 @@ public final class CyclicBarrier {
      */
     
 	public void reset() {
+		if (tree != null) {
+			tree.reset();
+			return;
+		}
+		List<AsyncAwait> broken;
         mlock.lock();
         try {
-            breakBarrier();   // break the current generation
+            broken = breakBarrier();   // break the current generation
             nextGeneration(); // start a new generation
         } finally {
             mlock.unlock();
         }
+		completeAsyncAwaits(broken, true);
     }
 
     /**
@@ -241,6 +695,8 @@ public final class CyclicBarrier {
      */
 
     public int getNumberWaiting() {
+		if (tree != null)
+			return tree.getNumberWaiting();
         mlock.lock();
         try {
             return parties - count;
@@ -248,6 +704,21 @@ public final class CyclicBarrier {
             mlock.unlock();
         }
     }
+
+	/**
+	 * Returns true if the barrier is in a broken state.
+	 */
+
+	public boolean isBroken() {
+		if (tree != null)
+			return tree.isBroken();
+		mlock.lock();
+		try {
+			return generation.broken;
+		} finally {
+			mlock.unlock();
+		}
+	}
 	
 	/**
 	 *  Test code
@@ -312,7 +783,356 @@ public final class CyclicBarrier {
 		}
 	}
 	
-	public static void main(String... args) throws InterruptedException {
+	/**
+	 * Run many phases with many parties, checking that all parties arrive at the
+	 * barrier on each phase, and measure the cost of each phase.
+	 */
+	private static boolean testManyParties(boolean combiningTree) throws InterruptedException {
+		final int PARTIES = 128;
+		final int PHASES = 2000;
+		final AtomicInteger arrivals = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+
+		// the barrier action checks and resets the number of arrivals on each phase
+		CyclicBarrier barrier = new CyclicBarrier(PARTIES, () -> {
+			if (arrivals.getAndSet(0) != PARTIES)
+				failures.incrementAndGet();
+		}, combiningTree);
+		Thread[] parties = new Thread[PARTIES];
+		for (int i = 0; i < PARTIES; i++) {
+			parties[i] = new Thread(() -> {
+				try {
+					for (int p = 0; p < PHASES; p++) {
+						arrivals.incrementAndGet();
+						barrier.await();
+					}
+				} catch (InterruptedException | BrokenBarrierException ex) {
+					failures.incrementAndGet();
+				}
+			});
+		}
+		long start = System.nanoTime();
+		for (Thread party : parties)
+			party.start();
+		for (Thread party : parties)
+			party.join();
+		long elapsed = System.nanoTime() - start;
+		System.out.printf("--%s barrier: %d parties, %d phases, %d us/phase, phase: %d, failures: %d%n",
+						  combiningTree ? "combining tree" : "lock based", PARTIES, PHASES,
+						  elapsed / PHASES / 1000, barrier.getPhase(), failures.get());
+		return failures.get() == 0 && barrier.getPhase() == PHASES;
+	}
+
+	/**
+	 * Run more threads than parties, so threads arrive when all the slots of the current
+	 * phase are taken or just after it was tripped; they must wait for the next phase
+	 * without a spurious BrokenBarrierException. The threads have small stacks, so that
+	 * an unbounded retry would overflow them.
+	 */
+	private static boolean testMoreThreadsThanParties(boolean combiningTree) throws InterruptedException {
+		final int PARTIES = 2;
+		final int THREADS = 5;
+		final int AWAITS = 100000;		// even, so the last arrival also trips the barrier
+		final AtomicInteger tickets = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+
+		CyclicBarrier barrier = new CyclicBarrier(PARTIES, null, combiningTree);
+		Thread[] threads = new Thread[THREADS];
+		for (int i = 0; i < THREADS; i++) {
+			threads[i] = new Thread(null, () -> {
+				try {
+					// each thread awaits while there are tickets, so all the awaits are paired
+					while (tickets.getAndIncrement() < AWAITS)
+						barrier.await();
+				} catch (InterruptedException | BrokenBarrierException | StackOverflowError ex) {
+					failures.incrementAndGet();
+				}
+			}, "barrier-thread-" + i, 256 * 1024);
+			threads[i].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		System.out.printf("--%s barrier: %d threads, %d parties, phase: %d, failures: %d%n",
+						  combiningTree ? "combining tree" : "lock based", THREADS, PARTIES,
+						  barrier.getPhase(), failures.get());
+		return failures.get() == 0 && barrier.getPhase() == AWAITS / PARTIES;
+	}
+
+	/**
+	 * Check that a timeout breaks the barrier for all parties and that reset
+	 * makes the barrier usable again.
+	 */
+	private static boolean testBreakAndReset(boolean combiningTree) throws InterruptedException {
+		final int PARTIES = 8;
+		final AtomicInteger broken = new AtomicInteger(), timedOut = new AtomicInteger();
+		CyclicBarrier barrier = new CyclicBarrier(PARTIES, null, combiningTree);
+
+		// only PARTIES - 1 parties arrive, so the one with timeout breaks the barrier
+		Thread[] parties = new Thread[PARTIES - 1];
+		for (int i = 0; i < parties.length; i++) {
+			final boolean timed = i == 0;
+			parties[i] = new Thread(() -> {
+				try {
+					if (timed)
+						barrier.await(100, TimeUnit.MILLISECONDS);
+					else
+						barrier.await();
+				} catch (TimeoutException te) {
+					timedOut.incrementAndGet();
+				} catch (BrokenBarrierException bbe) {
+					broken.incrementAndGet();
+				} catch (InterruptedException ie) {}
+			});
+			parties[i].start();
+		}
+		for (Thread party : parties)
+			party.join();
+		boolean wasBroken = barrier.isBroken();
+
+		// after reset, a full generation must trip the barrier
+		barrier.reset();
+		AtomicInteger tripped = new AtomicInteger();
+		Thread[] moreParties = new Thread[PARTIES];
+		for (int i = 0; i < PARTIES; i++) {
+			moreParties[i] = new Thread(() -> {
+				try {
+					if (barrier.await() == 0)
+						tripped.incrementAndGet();
+				} catch (InterruptedException | BrokenBarrierException ex) {}
+			});
+			moreParties[i].start();
+		}
+		for (Thread party : moreParties)
+			party.join();
+		System.out.printf("--%s barrier: timed out: %d, broken: %d, tripped after reset: %d, phase: %d%n",
+						  combiningTree ? "combining tree" : "lock based", timedOut.get(),
+						  broken.get(), tripped.get(), barrier.getPhase());
+		// the phase was incremented by the reset and by the trip
+		return wasBroken && timedOut.get() == 1 && broken.get() == PARTIES - 2 && tripped.get() == 1 &&
+			   barrier.getPhase() == 2;
+	}
+
+	/**
+	 * Run many phases with many logical parties on a small thread pool, using
+	 * only the async interface, with the barrier action running on the last
+	 * party or on the pool.
+	 */
+	private static boolean testAsyncManyParties(boolean onExecutor) throws InterruptedException {
+		final int PARTIES = 512;
+		final int PHASES = 200;
+		final AtomicInteger arrivals = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+
+		CyclicBarrier barrier = new CyclicBarrier(PARTIES, () -> {
+			if (arrivals.getAndSet(0) != PARTIES)
+				failures.incrementAndGet();
+		}, onExecutor ? pool : null);
+
+		// each logical party arrives at the barrier and continues on the pool
+		class Party {
+			CompletableFuture<Void> phase(int p) {
+				if (p == PHASES)
+					return CompletableFuture.completedFuture(null);
+				arrivals.incrementAndGet();
+				return barrier.awaitAsync().thenComposeAsync((index) -> phase(p + 1), pool);
+			}
+		}
+		long start = System.nanoTime();
+		List<CompletableFuture<Void>> parties = new ArrayList<>();
+		for (int i = 0; i < PARTIES; i++)
+			parties.add(CompletableFuture.supplyAsync(() -> new Party().phase(0), pool)
+											.thenCompose((f) -> f));
+		try {
+			CompletableFuture.allOf(parties.toArray(new CompletableFuture<?>[0])).join();
+		} catch (CompletionException ce) {
+			failures.incrementAndGet();
+		}
+		long elapsed = System.nanoTime() - start;
+		pool.shutdown();
+		System.out.printf("--async barrier, action on %s: %d parties, %d phases, %d us/phase, failures: %d%n",
+						  onExecutor ? "executor" : "last party", PARTIES, PHASES,
+						  elapsed / PHASES / 1000, failures.get());
+		return failures.get() == 0;
+	}
+
+	/**
+	 * Check that an async timeout breaks the barrier for all parties, sync or async.
+	 */
+	private static boolean testAsyncBreak() throws InterruptedException {
+		final int PARTIES = 4;
+		CyclicBarrier barrier = new CyclicBarrier(PARTIES);
+		final AtomicInteger syncBroken = new AtomicInteger();
+
+		Thread syncParty = new Thread(() -> {
+			try {
+				barrier.await();
+			} catch (BrokenBarrierException bbe) {
+				syncBroken.incrementAndGet();
+			} catch (InterruptedException ie) {}
+		});
+		syncParty.start();
+		CompletableFuture<Integer> untimed = barrier.awaitAsync();
+		CompletableFuture<Integer> timed = barrier.awaitAsync(100, TimeUnit.MILLISECONDS);
+		syncParty.join();
+		boolean timedOut = false, broken = false;
+		try {
+			timed.join();
+		} catch (CompletionException ce) {
+			timedOut = ce.getCause() instanceof TimeoutException;
+		}
+		try {
+			untimed.join();
+		} catch (CompletionException ce) {
+			broken = ce.getCause() instanceof BrokenBarrierException;
+		}
+		boolean later = barrier.awaitAsync().isCompletedExceptionally();
+		System.out.printf("--async barrier: timed out: %b, async broken: %b, sync broken: %d, " +
+						  "broken afterwards: %b%n", timedOut, broken, syncBroken.get(), later);
+		return timedOut && broken && syncBroken.get() == 1 && later;
+	}
+
+	/**
+	 * Use a parallel barrier action to reduce, on each phase, the values produced
+	 * by all the parties, checking the result when the parties are released.
+	 */
+	private static boolean testParallelAction() throws InterruptedException {
+		final int PARTIES = 8;
+		final int PHASES = 1000;
+		final int VALUES = 1 << 16;
+		final long[] values = new long[VALUES];
+		final long[] partials = new long[PARTIES];
+		final long[] sum = new long[1];
+		final AtomicInteger failures = new AtomicInteger();
+
+		// each part sums a slice of the values, and the part 0 also waits for the other
+		// parts to combine the partial sums on the next phase
+		CyclicBarrier barrier = new CyclicBarrier(PARTIES, (part, parts) -> {
+			long partial = 0;
+			for (int i = part * VALUES / parts; i < (part + 1) * VALUES / parts; i++)
+				partial += values[i];
+			partials[part] = partial;
+		});
+		Thread[] parties = new Thread[PARTIES];
+		for (int i = 0; i < PARTIES; i++) {
+			final int id = i;
+			parties[i] = new Thread(() -> {
+				try {
+					for (int p = 1; p <= PHASES; p++) {
+						// produce a slice of the values
+						for (int v = id; v < VALUES; v += PARTIES)
+							values[v] = p;
+						barrier.await();
+						// all the parts are complete, so any party can combine the partials
+						long total = 0;
+						for (long partial : partials)
+							total += partial;
+						if (total != (long)p * VALUES)
+							failures.incrementAndGet();
+						// do not produce the values of the next phase while others are combining
+						barrier.await();
+					}
+				} catch (InterruptedException | BrokenBarrierException ex) {
+					failures.incrementAndGet();
+				}
+			});
+		}
+		long start = System.nanoTime();
+		for (Thread party : parties)
+			party.start();
+		for (Thread party : parties)
+			party.join();
+		long elapsed = System.nanoTime() - start;
+		System.out.printf("--parallel barrier action: %d parties, %d phases, %d us/phase, failures: %d%n",
+						  PARTIES, PHASES, elapsed / PHASES / 1000, failures.get());
+		return failures.get() == 0;
+	}
+
+	/**
+	 * Register and deregister parties while the barrier is in use. The main thread
+	 * is a party that stays until all the workers have deregistered.
+	 */
+	private static boolean testDynamicParties() throws InterruptedException, BrokenBarrierException {
+		final int WORKERS = 4;
+		final int PHASES = 50;
+		final int HELPER_PHASE = 10, HELPER_PHASES = 20;
+		final AtomicInteger failures = new AtomicInteger();
+		final AtomicInteger helperPhase = new AtomicInteger(-1);
+		CyclicBarrier barrier = new CyclicBarrier(1);
+
+		// the worker i stays for (i + 1) * PHASES phases, and the worker 0 registers a helper
+		// when it reaches HELPER_PHASE
+		Thread[] workers = new Thread[WORKERS];
+		for (int i = 0; i < WORKERS; i++) {
+			final int phases = (i + 1) * PHASES, id = i;
+			if (barrier.register() != 0)
+				failures.incrementAndGet();
+			workers[i] = new Thread(() -> {
+				try {
+					for (int p = 0; p < phases; p++) {
+						if (id == 0 && p == HELPER_PHASE) {
+							helperPhase.set(barrier.register());
+							new Thread(() -> {
+								try {
+									for (int h = 0; h < HELPER_PHASES; h++)
+										barrier.await();
+									barrier.arriveAndDeregister();
+								} catch (InterruptedException | BrokenBarrierException ex) {
+									failures.incrementAndGet();
+								}
+							}).start();
+						}
+						barrier.await();
+					}
+					if (barrier.arriveAndDeregister() != phases)
+						failures.incrementAndGet();
+				} catch (InterruptedException | BrokenBarrierException ex) {
+					failures.incrementAndGet();
+				}
+			});
+			workers[i].start();
+		}
+		int phases = 0;
+		do {
+			barrier.await();
+			phases++;
+		} while (barrier.getParties() > 1);
+		for (Thread worker : workers)
+			worker.join();
+		System.out.printf("--dynamic parties: helper registered at phase %d, main phases: %d, " +
+						  "barrier phase: %d, failures: %d%n",
+						  helperPhase.get(), phases, barrier.getPhase(), failures.get());
+		// the last worker may deregister before or after the main thread arrives at its last phase
+		return failures.get() == 0 && helperPhase.get() == HELPER_PHASE &&
+			   (phases == WORKERS * PHASES || phases == WORKERS * PHASES + 1) &&
+			   barrier.getPhase() == phases;
+	}
+
+	public static void main(String... args) throws InterruptedException, BrokenBarrierException {
+		if (args.length > 0 && args[0].equals("-test")) {
+			for (boolean combiningTree : new boolean[] { false, true }) {
+				System.out.printf("-->test %s barrier with many parties: %s%n",
+								  combiningTree ? "combining tree" : "lock based",
+								  testManyParties(combiningTree) ? "passed" : "failed");
+				System.out.printf("-->test %s barrier break and reset: %s%n",
+								  combiningTree ? "combining tree" : "lock based",
+								  testBreakAndReset(combiningTree) ? "passed" : "failed");
+				System.out.printf("-->test %s barrier with more threads than parties: %s%n",
+								  combiningTree ? "combining tree" : "lock based",
+								  testMoreThreadsThanParties(combiningTree) ? "passed" : "failed");
+			}
+			for (boolean onExecutor : new boolean[] { false, true }) {
+				System.out.printf("-->test async barrier, action on %s: %s%n",
+								  onExecutor ? "executor" : "last party",
+								  testAsyncManyParties(onExecutor) ? "passed" : "failed");
+			}
+			System.out.printf("-->test async barrier break: %s%n", testAsyncBreak() ? "passed" : "failed");
+			System.out.printf("-->test parallel barrier action: %s%n",
+							  testParallelAction() ? "passed" : "failed");
+			System.out.printf("-->test dynamic parties: %s%n", testDynamicParties() ? "passed" : "failed");
+			return;
+		}
+
 		final int ROWS = 30, COLUMNS = 10;
 		float[][] matrix = new float[ROWS][COLUMNS];
 		
@@ -330,3 +1150,377 @@ public final class CyclicBarrier {
 	} 		
 }
 	
+
+/**
+ * Cyclic barrier based on a combining tree with sense reversal, used by CyclicBarrier
+ * when it is created in the combining tree mode.
+ *
+ * The parties arrive at the leaves of a tree where each node expects RADIX arrivals
+ * (or less, on the rightmost nodes). The last party to arrive at a node goes up and
+ * arrives at the parent node, the other ones wait on the node; the party that arrives
+ * last at the root trips the barrier. So, each arrival costs O(log n) atomic operations
+ * on nodes shared by, at most, RADIX parties and there is no global lock.
+ *
+ * The wake up is also done through the tree: each party, after being released, wakes up
+ * the parties that wait on the nodes that it has completed, so there is no "herd" of
+ * threads waking up on the same condition variable.
+ *
+ * The counters of arrivals are tagged with the number of the phase (generation) to which
+ * they belong, so they are reset lazily when they are used in the next phase. The slots
+ * where the parties wait are selected by the parity of the phase (the "sense"), so the
+ * parties of a phase never overwrite the slots of the parties of the previous one.
+ *
+ * The semantics of broken, timeout and reset are the same as those of CyclicBarrier; the
+ * arrival index returned by "await" is zero for the party that tripped the barrier, but
+ * for the other parties it is a value between 1 and parties - 1 that does not reflect
+ * their arrival order.
+ */
+
+final class CombiningTreeBarrier {
+
+	// the fan-in of the tree nodes
+	private static final int RADIX = 4;
+
+	// spin iterations before blocking, since the wait on a barrier is usually short
+	private static final int SPIN_COUNT = Runtime.getRuntime().availableProcessors() > 1 ? 128 : 0;
+
+	// Generation states
+	private static final int ACTIVE = 0, TRIPPED = 1, BROKEN = 2;
+
+	/**
+	 * Each use of the barrier is represented as a generation instance, as in CyclicBarrier.
+	 * The state of the generation (active, tripped or broken) is changed with a CAS, so only
+	 * one thread can trip or break the barrier.
+	 */
+	private static final class Generation {
+		final int phase;				// the phase number
+		final AtomicInteger state = new AtomicInteger(ACTIVE);
+		int tripperSlot;				// the slot of the tripper, published by the write of "state"
+
+		Generation(int phase) { this.phase = phase; }
+	}
+
+	/**
+	 * A node of the combining tree.
+	 */
+	private static final class Node {
+		final Node parent;				// null on root
+		final int capacity;				// # of arrivals expected on each phase
+		final int firstSlot;			// the slot of the first arrival (used only on leaves)
+
+		// # of arrivals on the node tagged with the phase number: (phase << 32) | arrivals
+		final AtomicLong arrivals = new AtomicLong();
+
+		// the threads waiting on the node, one array for each sense
+		final AtomicReferenceArray<Thread> evenWaiters, oddWaiters;
+
+		Node(Node parent, int capacity, int firstSlot) {
+			this.parent = parent;
+			this.capacity = capacity;
+			this.firstSlot = firstSlot;
+			evenWaiters = new AtomicReferenceArray<Thread>(capacity);
+			oddWaiters = new AtomicReferenceArray<Thread>(capacity);
+		}
+
+		AtomicReferenceArray<Thread> waiters(int phase) {
+			return (phase & 1) == 0 ? evenWaiters : oddWaiters;
+		}
+	}
+
+	private final int parties;				// the number of parties
+	private final Runnable barrierCommand;	// the command to run when tripped
+	private final Node[] leaves;			// the leaves of the tree
+	private final List<Node> nodes;			// all nodes of the tree
+	private final AtomicReference<Generation> generation;
+
+	public CombiningTreeBarrier(int parties, Runnable barrierAction) {
+		if (parties <= 0)
+			throw new IllegalArgumentException();
+		this.parties = parties;
+		this.barrierCommand = barrierAction;
+		this.generation = new AtomicReference<Generation>(new Generation(0));
+		this.nodes = new ArrayList<Node>();
+
+		// the widths of the tree levels, from the leaves (level 0) to the root
+		List<Integer> widths = new ArrayList<Integer>();
+		int width = parties;
+		do {
+			width = (width + RADIX - 1) / RADIX;
+			widths.add(width);
+		} while (width > 1);
+
+		// build the tree, from the root to the leaves
+		Node[] above = null;
+		for (int l = widths.size() - 1; l >= 0; l--) {
+			int below = (l == 0) ? parties : widths.get(l - 1);
+			Node[] level = new Node[widths.get(l)];
+			for (int i = 0; i < level.length; i++) {
+				level[i] = new Node(above != null ? above[i / RADIX] : null,
+									Math.min(RADIX, below - i * RADIX), i * RADIX);
+				nodes.add(level[i]);
+			}
+			above = level;
+		}
+		leaves = above;
+	}
+
+	public int getParties() { return parties; }
+
+	/**
+	 * Arrive at the specified node on the specified phase, returning the arrival order,
+	 * or -1 if the node is full, or -2 if the node is already being used by a more recent
+	 * phase. The latter happens when the generation of the caller was broken, but also when
+	 * it was tripped after the caller read its phase, so the caller must check the state of
+	 * the generation before deciding that the barrier is broken.
+	 */
+	private static int arrive(Node node, int phase) {
+		for (;;) {
+			long c = node.arrivals.get();
+			int tag = (int)(c >>> 32);
+			if (tag != phase && tag - phase > 0)
+				return -2;
+			int n = (tag == phase) ? (int)c : 0;	// the counter is lazily reset on a new phase
+			if (n >= node.capacity)
+				return -1;
+			if (node.arrivals.compareAndSet(c, ((long)phase << 32) | (n + 1)))
+				return n;
+		}
+	}
+
+	/**
+	 * Sets the specified generation as broken and wakes up all its parties.
+	 * Returns false if the generation was already tripped or broken.
+	 */
+	private boolean breakBarrier(Generation g) {
+		if (!g.state.compareAndSet(ACTIVE, BROKEN))
+			return false;
+		for (Node node : nodes) {
+			AtomicReferenceArray<Thread> waiters = node.waiters(g.phase);
+			for (int i = 0; i < node.capacity; i++) {
+				Thread waiter = waiters.get(i);
+				if (waiter != null)
+					LockSupport.unpark(waiter);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Wakes up the parties waiting on the nodes completed by the current thread, from
+	 * the highest one (that has the largest subtree) down to the specified leaf.
+	 */
+	private static void releaseCompletedNodes(Node node, Node stop, int phase) {
+		if (node.parent != stop)
+			releaseCompletedNodes(node.parent, stop, phase);
+		AtomicReferenceArray<Thread> waiters = node.waiters(phase);
+		// the last party to arrive at the node does not wait on it
+		for (int i = 0; i < node.capacity - 1; i++) {
+			Thread waiter = waiters.get(i);
+			if (waiter != null)
+				LockSupport.unpark(waiter);
+		}
+	}
+
+	/**
+	 * Waits until the specified generation is replaced by a new one, when all the slots of
+	 * the generation were taken by other threads or when it was tripped before we could
+	 * arrive. Returns the remaining nanoseconds, or throws if the generation is broken, the
+	 * timeout expires or the current thread is interrupted. The generation is replaced
+	 * right after being tripped, so the wait is short and it is done with Thread.yield.
+	 */
+	private long awaitNextGeneration(Generation g, boolean timed, long deadline)
+				throws InterruptedException, BrokenBarrierException, TimeoutException {
+		long nanos = 0L;
+		for (;;) {
+			if (g.state.get() == BROKEN)
+				throw new BrokenBarrierException();
+			if (generation.get() != g)
+				return timed ? deadline - System.nanoTime() : 0L;
+			if (timed && (nanos = deadline - System.nanoTime()) <= 0L) {
+				breakBarrier(g);
+				throw new TimeoutException();
+			}
+			if (Thread.interrupted()) {
+				breakBarrier(g);
+				throw new InterruptedException();
+			}
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * Main barrier code, covering the various policies.
+	 */
+	int dowait(boolean timed, long nanos)
+				throws InterruptedException, BrokenBarrierException, TimeoutException {
+		final long deadline = timed ? System.nanoTime() + nanos : 0L;
+		Thread current = Thread.currentThread();
+		Generation g;
+		Node leaf, node;
+		int order, slot;
+	retry:
+		for (;;) {
+			g = generation.get();
+			if (g.state.get() == BROKEN)
+				throw new BrokenBarrierException();
+
+			if (Thread.interrupted()) {
+				breakBarrier(g);
+				throw new InterruptedException();
+			}
+
+			// arrive at a leaf; the first leaf tried is selected by the thread's identity,
+			// in order to distribute the parties by the leaves.
+			final int phase = g.phase;
+			int first = (int)(current.getId() % leaves.length);
+			leaf = null;
+			order = -1;
+			for (int i = 0; i < leaves.length; i++) {
+				Node candidate = leaves[(first + i) % leaves.length];
+				if ((order = arrive(candidate, phase)) == -2)
+					break;		// the generation moved on while we held its phase
+				if (order >= 0) {
+					leaf = candidate;
+					break;
+				}
+			}
+			if (leaf == null) {
+				// all the slots of the generation were taken by other threads, or it was
+				// tripped meanwhile, so wait for the next generation and retry on it
+				nanos = awaitNextGeneration(g, timed, deadline);
+				continue;
+			}
+			slot = leaf.firstSlot + order;
+
+			// go up the tree while we are the last party arriving at each node
+			node = leaf;
+			while (order == node.capacity - 1 && node.parent != null) {
+				node = node.parent;
+				if ((order = arrive(node, phase)) < 0) {
+					// throws if the generation was reset, otherwise retry on the next one
+					nanos = awaitNextGeneration(g, timed, deadline);
+					continue retry;
+				}
+			}
+			break;
+		}
+		final int phase = g.phase;
+
+		if (order == node.capacity - 1) {
+			// we are the last party arriving at the root, so the barrier is tripped
+			boolean ranAction = false;
+			try {
+				if (barrierCommand != null)
+					barrierCommand.run();
+				ranAction = true;
+			} finally {
+				if (!ranAction)
+					breakBarrier(g);
+			}
+			g.tripperSlot = slot;
+			if (!g.state.compareAndSet(ACTIVE, TRIPPED))
+				throw new BrokenBarrierException();		// it was broken meanwhile
+			generation.compareAndSet(g, new Generation(phase + 1));
+			releaseCompletedNodes(leaf, null, phase);
+			return 0;
+		}
+
+		// wait on the node until the generation is tripped or broken; the thread is
+		// published on the node's slot before the last check of the generation state.
+		// When there are more threads than parties, a waiter of two phases ago may still
+		// be on the slot, if its releaser was delayed; that phase is over, so we wake it.
+		AtomicReferenceArray<Thread> waiters = node.waiters(phase);
+		Thread stale = waiters.getAndSet(order, current);
+		if (stale != null)
+			LockSupport.unpark(stale);
+		try {
+			int spins = SPIN_COUNT;
+			while (g.state.get() == ACTIVE) {
+				if (spins > 0) {
+					spins--;
+					Thread.onSpinWait();
+					continue;
+				}
+				if (timed) {
+					if (nanos <= 0L) {
+						if (breakBarrier(g))
+							throw new TimeoutException();
+						break;		// the generation was tripped or broken meanwhile
+					}
+					LockSupport.parkNanos(this, nanos);
+					nanos = deadline - System.nanoTime();
+				} else
+					LockSupport.park(this);
+				if (Thread.interrupted()) {
+					if (breakBarrier(g))
+						throw new InterruptedException();
+					// We're about to finish waiting even if we had not been interrupted,
+					// so this interrupt is deemed to "belong" to subsequent execution.
+					current.interrupt();
+				}
+			}
+		} finally {
+			waiters.compareAndSet(order, current, null);
+		}
+		if (g.state.get() == BROKEN)
+			throw new BrokenBarrierException();
+
+		// wake up the parties that wait on the nodes below us
+		if (node != leaf)
+			releaseCompletedNodes(leaf, node, phase);
+		return slot < g.tripperSlot ? slot + 1 : slot;
+	}
+
+	public int await() throws InterruptedException, BrokenBarrierException {
+		try {
+			return dowait(false, 0L);
+		} catch (TimeoutException toe) {
+			throw new Error(toe); // cannot happen
+		}
+	}
+
+	public int await(long timeout, TimeUnit unit)
+			throws InterruptedException, BrokenBarrierException, TimeoutException {
+		boolean timed = timeout >= 0L;
+		return dowait(timed, timed ? unit.toNanos(timeout) : 0L);
+	}
+
+	/**
+	 * Returns true if the current generation is broken.
+	 */
+	public boolean isBroken() { return generation.get().state.get() == BROKEN; }
+
+	/**
+	 * Returns the phase number of the current generation.
+	 */
+	public int getPhase() { return generation.get().phase; }
+
+	/**
+	 * Resets the barrier to its initial state: the current generation is broken and a
+	 * new one is started.
+	 */
+	public void reset() {
+		for (;;) {
+			Generation g = generation.get();
+			breakBarrier(g);
+			if (generation.compareAndSet(g, new Generation(g.phase + 1)))
+				return;
+		}
+	}
+
+	/**
+	 * Returns the number of parties currently waiting at the barrier.
+	 */
+	public int getNumberWaiting() {
+		Generation g = generation.get();
+		if (g.state.get() != ACTIVE)
+			return 0;
+		int waiting = 0;
+		for (Node leaf : leaves) {
+			long c = leaf.arrivals.get();
+			if ((int)(c >>> 32) == g.phase)
+				waiting += (int)c;
+		}
+		return waiting;
+	}
+}
@@ -0,0 +1,229 @@
+/**
+ *  ISEL, LEIC, Concurrent Programming
+ *
+ *  Iterative Jacobi solver for the Laplace equation on a grid, using a fixed
+ *  number of worker threads synchronized by a CyclicBarrier.
+ *
+ *  Each worker owns a block of rows of the grid and, on each step, computes the
+ *  new value of its cells as the average of the four neighbours in the current
+ *  grid, writing them on the next grid (double buffering). The barrier action,
+ *  performed once per step, swaps the grids and checks the convergence using the
+ *  maximum change computed by each worker, so there is only one barrier per step.
+ *
+ *  Compile with: javac JacobiSolver.java CyclicBarrier.java Delayer.java
+ *  Execute with: java JacobiSolver [-bench [-tree]]
+ *
+ *  Note: The grid of 8192x8192 needs two buffers of 256 MB, so execute the
+ *        benchmark with: java -Xmx2g JacobiSolver -bench
+ *
+ */
+
+import java.util.concurrent.BrokenBarrierException;
+
+public final class JacobiSolver {
+
+	// The stride, in floats, between the changes computed by each worker, so that
+	// the workers do not write to the same cache line.
+	private static final int DELTA_STRIDE = 16;
+
+	private final int rows, columns;
+	private final int workers;
+	private final float tolerance;
+	private final int maxSteps;
+	private final CyclicBarrier barrier;
+	private final float[] deltas;		// the maximum change computed by each worker
+
+	// The grids; they are swapped, by the barrier action, at the end of each step.
+	private float[][] current, next;
+
+	// State updated by the barrier action, which is visible to the workers when they are
+	// released from the barrier.
+	private int steps;
+	private float maxDelta;
+	private boolean done;
+
+	// The exception thrown by a worker, if any
+	private volatile Throwable failure;
+
+	/**
+	 * Creates a solver for the specified grid, whose border cells are fixed.
+	 * The solver stops when the maximum change of a step is less than tolerance,
+	 * or after maxSteps steps.
+	 */
+	public JacobiSolver(float[][] grid, int workers, float tolerance, int maxSteps,
+						boolean combiningTree) {
+		if (grid.length < 3 || grid[0].length < 3)
+			throw new IllegalArgumentException("grid");
+		if (workers <= 0)
+			throw new IllegalArgumentException("workers");
+		this.rows = grid.length;
+		this.columns = grid[0].length;
+		// a worker must own at least one row
+		this.workers = Math.min(workers, rows - 2);
+		this.tolerance = tolerance;
+		this.maxSteps = maxSteps;
+		this.current = grid;
+		this.next = new float[rows][];
+		for (int r = 0; r < rows; r++)
+			next[r] = grid[r].clone();		// copy the fixed border
+		this.deltas = new float[this.workers * DELTA_STRIDE];
+		this.barrier = new CyclicBarrier(this.workers, this::endStep, combiningTree);
+	}
+
+	public JacobiSolver(float[][] grid, int workers, float tolerance, int maxSteps) {
+		this(grid, workers, tolerance, maxSteps, false);
+	}
+
+	/**
+	 * The barrier action: reduces the changes of the workers, swaps the grids, and
+	 * checks convergence.
+	 */
+	private void endStep() {
+		float max = 0f;
+		for (int w = 0; w < workers; w++)
+			max = Math.max(max, deltas[w * DELTA_STRIDE]);
+		maxDelta = max;
+		float[][] tmp = current;
+		current = next;
+		next = tmp;
+		steps++;
+		done = max < tolerance || steps >= maxSteps;
+	}
+
+	/**
+	 * Computes one step on the rows [first, last) and returns the maximum change.
+	 */
+	private float step(int first, int last) {
+		float[][] src = current, dst = next;
+		float max = 0f;
+		for (int r = first; r < last; r++) {
+			float[] above = src[r - 1], row = src[r], below = src[r + 1], out = dst[r];
+			for (int c = 1; c < columns - 1; c++) {
+				float value = 0.25f * (above[c] + below[c] + row[c - 1] + row[c + 1]);
+				float delta = Math.abs(value - row[c]);
+				if (delta > max)
+					max = delta;
+				out[c] = value;
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * The worker that owns the rows [first, last).
+	 */
+	private void work(int id, int first, int last) {
+		try {
+			do {
+				deltas[id * DELTA_STRIDE] = step(first, last);
+				barrier.await();
+			} while (!done);
+		} catch (InterruptedException | BrokenBarrierException | RuntimeException ex) {
+			failure = ex;
+			barrier.reset();		// release the other workers
+		}
+	}
+
+	/**
+	 * Solves the grid, returning the number of steps performed. The result is the
+	 * grid returned by getGrid().
+	 */
+	public int solve() throws InterruptedException {
+		Thread[] threads = new Thread[workers];
+		int inner = rows - 2;
+		for (int w = 0; w < workers; w++) {
+			final int id = w;
+			final int first = 1 + (int)((long)w * inner / workers);
+			final int last = 1 + (int)((long)(w + 1) * inner / workers);
+			threads[w] = new Thread(() -> work(id, first, last));
+			threads[w].start();
+		}
+		try {
+			for (Thread thread : threads)
+				thread.join();
+		} catch (InterruptedException ie) {
+			for (Thread thread : threads)
+				thread.interrupt();
+			throw ie;
+		}
+		if (failure != null)
+			throw new IllegalStateException("A worker failed", failure);
+		return steps;
+	}
+
+	public float[][] getGrid() { return current; }
+
+	public float getMaxDelta() { return maxDelta; }
+
+	/**
+	 *  Test code
+	 */
+
+	/**
+	 * Creates a grid with the top border at 100 degrees and the others at 0.
+	 */
+	private static float[][] newGrid(int size) {
+		float[][] grid = new float[size][size];
+		java.util.Arrays.fill(grid[0], 100f);
+		return grid;
+	}
+
+	/**
+	 * Check that the parallel solver produces exactly the same grid as one worker,
+	 * since each cell is always computed with the same operations.
+	 */
+	private static boolean testSolver(boolean combiningTree) throws InterruptedException {
+		final int SIZE = 128;
+		final float TOLERANCE = 1e-2f;
+		JacobiSolver sequential = new JacobiSolver(newGrid(SIZE), 1, TOLERANCE, Integer.MAX_VALUE);
+		int sequentialSteps = sequential.solve();
+		boolean passed = true;
+		for (int workers = 2; workers <= 16; workers *= 2) {
+			JacobiSolver parallel = new JacobiSolver(newGrid(SIZE), workers, TOLERANCE,
+													 Integer.MAX_VALUE, combiningTree);
+			int steps = parallel.solve();
+			boolean equal = steps == sequentialSteps &&
+							java.util.Arrays.deepEquals(parallel.getGrid(), sequential.getGrid());
+			System.out.printf("--%d workers: %d steps, max delta: %f, equal to sequential: %b%n",
+							  workers, steps, parallel.getMaxDelta(), equal);
+			passed &= equal;
+		}
+		return passed;
+	}
+
+	/**
+	 * Measure the throughput, in millions of cells per second, with grids from 1k x 1k to
+	 * 8k x 8k and a number of workers from 1 to twice the number of processors.
+	 */
+	private static void benchmark(boolean combiningTree) throws InterruptedException {
+		final int STEPS = 20;
+		int maxWorkers = 2 * Runtime.getRuntime().availableProcessors();
+		System.out.printf("-->Jacobi solver throughput (%s barrier, %d steps)%n",
+						  combiningTree ? "combining tree" : "lock based", STEPS);
+		System.out.println("size, workers, ms, Mcells/s");
+		for (int size = 1024; size <= 8192; size *= 2) {
+			for (int workers = 1; workers <= maxWorkers; workers *= 2) {
+				// zero tolerance, so the solver always performs STEPS steps
+				JacobiSolver solver = new JacobiSolver(newGrid(size), workers, 0f, STEPS, combiningTree);
+				long start = System.nanoTime();
+				int steps = solver.solve();
+				long elapsed = System.nanoTime() - start;
+				double cells = (double)(size - 2) * (size - 2) * steps;
+				System.out.printf("%d, %d, %d, %.1f%n", size, workers, elapsed / 1000000,
+								  cells / (elapsed / 1000.0));
+			}
+		}
+	}
+
+	public static void main(String... args) throws InterruptedException {
+		boolean combiningTree = args.length > 1 && args[1].equals("-tree");
+		if (args.length > 0 && args[0].equals("-bench")) {
+			benchmark(combiningTree);
+			return;
+		}
+		for (boolean tree : new boolean[] { false, true })
+			System.out.printf("-->test Jacobi solver with %s barrier: %s%n",
+							  tree ? "combining tree" : "lock based",
+							  testSolver(tree) ? "passed" : "failed");
+	}
+}
@@ -184,13 +184,43 @@ final class ReadWriteLock_ {
  * readers are unlocked at the same time; (2) uses specific notifications of
  * blocked threads (all readers are locked in the same condition variable while
  * writers are locked in private condition variables).
+ *
+ * Optionally, the lock can be created as reentrant: a thread that holds the lock
+ * for reading can re-acquire it for reading even when there are writers waiting
+ * (instead of deadlocking behind them), the owner of the write lock can re-acquire
+ * it for writing or for reading and, when it releases the write lock while holding
+ * read locks, it is downgraded to a reader. As in ReentrantReadWriteLock, a read
+ * lock can not be upgraded to a write lock.
  */
 
 final class ReadWriteLockOptimized {
 	private final Lock mlock; 			// the monitor's lock
 	private final Condition okToRead;	// condition variable where readers are blocked
 	private int state = 0; // -1 when writing, 0 when free, > 0 when reading (# of readers)
-	
+
+	// Reentrancy support, only used when the lock is created as reentrant.
+	//
+	// As in ReentrantReadWriteLock, the read hold count of the first reader is kept
+	// in the fields "firstReader" and "firstReaderHoldCount", so the common case of
+	// a single reader does not allocate anything; each one of the other readers keeps
+	// its count in a HoldCounter object stored in a thread local (allocated once per
+	// thread, and reused by the following acquires), and the last used one is cached
+	// in "cachedHoldCounter".
+	private final boolean reentrant;
+	private Thread writer;				// the owner of the write lock
+	private int writeHolds;				// # of write holds of the owner
+	private int writerReadHolds;		// # of read holds of the owner of the write lock
+	private Thread firstReader;			// the first reader that acquired the lock
+	private int firstReaderHoldCount;	// # of read holds of the first reader
+
+	private static final class HoldCounter {
+		final long tid = Thread.currentThread().getId();	// we avoid a reference to the thread
+		int count;						// # of read holds
+	}
+
+	private HoldCounter cachedHoldCounter;	// the hold counter of the last reader
+	private final ThreadLocal<HoldCounter> readHolds;
+
 	// All waiting readers share the same request, because
 	// because the respective request is guaranteed in group
 	private static class LockReadRequest {
@@ -211,12 +241,67 @@ final class ReadWriteLockOptimized {
 	private LockReadRequest readReqQueue;	// null when queue is empty
 	private final LinkedList<LockWriteRequest> writeReqQueue;
 
-	// Constructor.
-	public ReadWriteLockOptimized() {
+	// Constructors.
+	public ReadWriteLockOptimized(boolean reentrant) {
 		mlock = new ReentrantLock();
 		okToRead = mlock.newCondition();
 		readReqQueue = null;
 		writeReqQueue = new LinkedList<LockWriteRequest>();
+		this.reentrant = reentrant;
+		readHolds = reentrant ? new ThreadLocal<HoldCounter>() : null;
+	}
+
+	public ReadWriteLockOptimized() { this(false); }
+
+	/*
+	 * Methods that keep the read hold counts (called only when the lock is reentrant)
+	 */
+
+	// returns the hold counter of the current thread, or null if it does not exist
+	private HoldCounter holdCounterOf(Thread current) {
+		HoldCounter hc = cachedHoldCounter;
+		if (hc == null || hc.tid != current.getId())
+			hc = readHolds.get();		// does not allocate, since there is no initial value
+		return hc;
+	}
+
+	private int readHoldCountOf(Thread current) {
+		if (firstReader == current)
+			return firstReaderHoldCount;
+		HoldCounter hc = holdCounterOf(current);
+		return hc != null ? hc.count : 0;
+	}
+
+	private void incrementReadHolds(Thread current) {
+		if (firstReader == current) {
+			firstReaderHoldCount++;
+			return;
+		}
+		HoldCounter hc = holdCounterOf(current);
+		// the read holds of a thread are all kept at the same place, so the first reader
+		// slot can only be taken by a thread that does not hold the lock for reading
+		if (firstReader == null && (hc == null || hc.count == 0)) {
+			firstReader = current;
+			firstReaderHoldCount = 1;
+			return;
+		}
+		if (hc == null)
+			readHolds.set(hc = new HoldCounter());
+		hc.count++;
+		cachedHoldCounter = hc;
+	}
+
+	private void decrementReadHolds(Thread current) {
+		if (firstReader == current) {
+			if (--firstReaderHoldCount == 0)
+				firstReader = null;
+			return;
+		}
+		HoldCounter hc = holdCounterOf(current);
+		if (hc == null || hc.count == 0)
+			throw new IllegalMonitorStateException("the current thread does not hold the read lock");
+		hc.count--;
+		cachedHoldCounter = hc;
 	}
 
 	/*
@@ -248,10 +333,29 @@ final class ReadWriteLockOptimized {
 	public void lockRead() throws InterruptedException {
 		mlock.lock();
 		try {
+			Thread current = Thread.currentThread();
+			if (reentrant) {
+				// the owner of the write lock can also acquire the read lock
+				if (writer == current) {
+					writerReadHolds++;
+					incrementReadHolds(current);
+					return;
+				}
+				// a recursive read acquire is granted even if there are blocked writers,
+				// since they are waiting for the release of the read lock by this thread
+				if (readHoldCountOf(current) > 0) {
+					state++;
+					incrementReadHolds(current);
+					return;
+				}
+			}
+
 			// if there isn’t blocked writers and the resource isn’t being written, grant
 			// read access immediately
 			if (writeReqQueue.size() == 0 && state >= 0) {
 				state++;
+				if (reentrant)
+					incrementReadHolds(current);
 				return;
 			}
 
@@ -274,6 +378,8 @@ final class ReadWriteLockOptimized {
 				}
 				// if shared access was granted then return; otherwise, re-wait
 			} while (!request.done);
+			if (reentrant)
+				incrementReadHolds(current);
 		} finally {
 			mlock.unlock();
 		}
@@ -305,9 +411,23 @@ final class ReadWriteLockOptimized {
 	public void lockWrite() throws InterruptedException {
 		mlock.lock();
 		try {
+			Thread current = Thread.currentThread();
+			if (reentrant) {
+				// recursive write acquire
+				if (writer == current) {
+					writeHolds++;
+					return;
+				}
+				// the thread would wait forever for the release of its own read lock
+				if (readHoldCountOf(current) > 0)
+					throw new IllegalMonitorStateException("the read lock can not be upgraded");
+			}
+
 			// if the lokc isn’t held for read nor for writing, grant the access immediately
 			if (state == 0) {
 				state = -1;
+				if (reentrant)
+					setWriter(current);
 				return;
 			}
 			// create and enqueue a request for exclusive access
@@ -336,15 +456,32 @@ final class ReadWriteLockOptimized {
 				}
 				// if the request was granted return, else re-wait
 			} while (!request.done);
+			if (reentrant)
+				setWriter(current);
 		} finally {
 			mlock.unlock();
 		}
 	}
 
+	// auxiliary method: record the owner of the write lock
+	private void setWriter(Thread current) {
+		writer = current;
+		writeHolds = 1;
+	}
+
 	// Release read (shared) lock
 	public void unlockRead() {
 		mlock.lock();
 		try {
+			if (reentrant) {
+				Thread current = Thread.currentThread();
+				decrementReadHolds(current);
+				// the read holds of the writer are not accounted in "state"
+				if (writer == current) {
+					writerReadHolds--;
+					return;
+				}
+			}
 			// decrement the number of active readers
 			// if this is the last active reader, and there is at least a blocked writer,
 			// grant access
@@ -360,13 +497,66 @@ final class ReadWriteLockOptimized {
 	public void unlockWrite() {
 		mlock.lock();
 		try {
-			state = 0;		// mark lock as free
-			if (!grantAccessToWaitingReaders())
+			if (reentrant) {
+				if (writer != Thread.currentThread())
+					throw new IllegalMonitorStateException("the current thread does not hold the write lock");
+				if (--writeHolds > 0)
+					return;
+				// if the writer holds also the read lock, it is downgraded to a reader
+				writer = null;
+				state = writerReadHolds;
+				writerReadHolds = 0;
+			} else {
+				state = 0;		// mark lock as free
+			}
+			if (!grantAccessToWaitingReaders() && state == 0)
 				grantAccessToAWaitingWriter();
 		} finally {
 			mlock.unlock();
 		}
 	}
+
+	/*
+	 * Owner tracking (only available when the lock is reentrant)
+	 */
+
+	// returns true if the current thread holds the write lock
+	public boolean isWriteLockedByCurrentThread() {
+		checkReentrant();
+		mlock.lock();
+		try {
+			return writer == Thread.currentThread();
+		} finally {
+			mlock.unlock();
+		}
+	}
+
+	// returns the number of write holds of the current thread
+	public int getWriteHoldCount() {
+		checkReentrant();
+		mlock.lock();
+		try {
+			return writer == Thread.currentThread() ? writeHolds : 0;
+		} finally {
+			mlock.unlock();
+		}
+	}
+
+	// returns the number of read holds of the current thread
+	public int getReadHoldCount() {
+		checkReentrant();
+		mlock.lock();
+		try {
+			return readHoldCountOf(Thread.currentThread());
+		} finally {
+			mlock.unlock();
+		}
+	}
+
+	private void checkReentrant() {
+		if (!reentrant)
+			throw new UnsupportedOperationException("the lock is not reentrant");
+	}
 }
 
 public class ReadWriteLock {
@@ -375,7 +565,7 @@ public class ReadWriteLock {
 	static volatile boolean running = true;
 	static volatile int sharedWriteCounter = 0;
 	
-	private static boolean testReadWriteLock() throws InterruptedException {
+	private static boolean testReadWriteLock(boolean reentrant) throws InterruptedException {
 
 		final int RUN_TIME = 5 * 1000;
 		final int EXIT_TIME = 50;		
@@ -384,6 +574,10 @@ public class ReadWriteLock {
 		final int MIN_BACKOFF = 0;
 		final int MAX_BACKOFF = 1;
  
+		// the test may run more than once
+		running = true;
+		sharedWriteCounter = 0;
+
 		Thread[] readers = new Thread[READER_THREADS];
 		Thread[] writers = new Thread[WRITER_THREADS];
 		AtomicInteger sharedReadCounter = new AtomicInteger(0);
@@ -392,9 +586,9 @@ public class ReadWriteLock {
 
 		// the read/write lock
 		//ReadWriteLock_ rwlock = new ReadWriteLock_();
-		ReadWriteLockOptimized rwlock = new ReadWriteLockOptimized();
+		ReadWriteLockOptimized rwlock = new ReadWriteLockOptimized(reentrant);
 		
-		System.out.println("\n--> test read/write lock");
+		System.out.printf("%n--> test %sread/write lock%n", reentrant ? "reentrant " : "");
 		// Create and start reader threads.
 		for (int i = 0; i < READER_THREADS; i++) {
 			final int tid = i;
@@ -403,11 +597,16 @@ public class ReadWriteLock {
 				do {
 					try {
 						rwlock.lockRead();
+						// when the lock is reentrant, the readers acquire it recursively
+						if (reentrant)
+							rwlock.lockRead();
 					} catch (InterruptedException ie) {
 						break;
 					}
 					Thread.yield();
 					sharedReadCounter.incrementAndGet();
+					if (reentrant)
+						rwlock.unlockRead();
 					rwlock.unlockRead();
 					if ((++readCounters[tid] % 1000) == 0) {
 						System.out.printf("[r#%02d]", tid);
@@ -432,11 +631,16 @@ public class ReadWriteLock {
 				do {
 					try {
 						rwlock.lockWrite();
+						// when the lock is reentrant, the writers acquire it recursively
+						if (reentrant)
+							rwlock.lockWrite();
 					} catch (InterruptedException ie) {
 						break;
 					}
 					Thread.yield();
 					sharedWriteCounter++;
+					if (reentrant)
+						rwlock.unlockWrite();
 					rwlock.unlockWrite();
 					if ((++writeCounters[tid] % 250) == 0) {
 						System.out.printf("[w#%02d]", tid);
@@ -500,11 +704,64 @@ public class ReadWriteLock {
 		return reads == sharedReadCounter.get() &&
 			   writes == sharedWriteCounter;
 	}
-	
-	
+
+	/**
+	 * Checks that a recursive read acquire is not blocked by a waiting writer, and
+	 * that the owner of the write lock can acquire the read lock and be downgraded.
+	 */
+	private static boolean testReentrancy() throws InterruptedException {
+		final int JOIN_TIMEOUT = 1000;
+		ReadWriteLockOptimized rwlock = new ReadWriteLockOptimized(true);
+
+		System.out.println("\n--> test read/write lock reentrancy");
+
+		// the primary thread acquires the read lock and a writer thread blocks
+		rwlock.lockRead();
+		Thread writer = new Thread(() -> {
+			try {
+				rwlock.lockWrite();
+				rwlock.lockWrite();
+				// acquire the read lock while holding the write lock and downgrade
+				rwlock.lockRead();
+				rwlock.unlockWrite();
+				rwlock.unlockWrite();
+				System.out.printf("-- writer downgraded, read holds: %d%n", rwlock.getReadHoldCount());
+				rwlock.unlockRead();
+			} catch (InterruptedException ie) {}
+		});
+		writer.start();
+		Thread.sleep(100);
+
+		// the recursive read acquire must succeed even if the writer is waiting
+		Thread reader = new Thread(() -> {
+			try {
+				rwlock.lockRead();
+				rwlock.unlockRead();
+			} catch (InterruptedException ie) {}
+		});
+		rwlock.lockRead();
+		System.out.printf("-- primary thread read holds: %d%n", rwlock.getReadHoldCount());
+		rwlock.unlockRead();
+		rwlock.unlockRead();
+		writer.join(JOIN_TIMEOUT);
+		if (writer.isAlive()) {
+			System.out.println("*** the writer did not acquire the lock");
+			writer.interrupt();
+			return false;
+		}
+		reader.start();
+		reader.join(JOIN_TIMEOUT);
+		return !reader.isAlive() && rwlock.getReadHoldCount() == 0 &&
+			   !rwlock.isWriteLockedByCurrentThread();
+	}
+
 	public static void main(String... args) throws InterruptedException {
 		System.out.printf("-->test read/write lock: %s%n",
-							testReadWriteLock() ? "passed" : "failed");
+							testReadWriteLock(false) ? "passed" : "failed");
+		System.out.printf("-->test reentrant read/write lock: %s%n",
+							testReadWriteLock(true) ? "passed" : "failed");
+		System.out.printf("-->test read/write lock reentrancy: %s%n",
+							testReentrancy() ? "passed" : "failed");
 	}
 }
 
@@ -0,0 +1,233 @@
+/**
+ *
+ *  ISEL, LEIC, Concurrent Programming
+ *
+ *  Message queue with many senders and a single receiver, with lock-free send.
+ *
+ *  The messages are kept in an unbounded multi-producer single-consumer linked queue
+ *  (Dmitry Vyukov's MPSC queue): send exchanges the tail with the new node (with
+ *  getAndSet, which is wait-free) and links the previous tail to it; the receiver
+ *  is the only one that moves the head, so it needs no synchronization with other
+ *  receivers. The receiver blocks (parks) only when the queue is empty, after
+ *  publishing itself in the volatile field "waiter", which the senders check to
+ *  unpark it only when needed.
+ *
+ *  Note: receive must be called by only one thread at a time.
+ *
+ *  Compile with: javac MessageQueueSingleConsumer.java
+ *  Execute with: java MessageQueueSingleConsumer
+ *
+ **/
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+public final class MessageQueueSingleConsumer<T> {
+
+	// the number of times that the receiver checks the queue before it blocks
+	private static final int SPIN_COUNT = Runtime.getRuntime().availableProcessors() > 1 ? 64 : 0;
+
+	// the nodes of the queue
+	private static final class Node<T> {
+		volatile Node<T> next;
+		T message;
+
+		Node(T message) { this.message = message; }
+	}
+
+	// the last node of the queue, exchanged by the senders
+	private final AtomicReference<Node<T>> tail;
+
+	// the node before the first message (initially a stub node), accessed only by the receiver
+	private Node<T> head;
+
+	// the receiver thread when it is blocked, or about to block
+	private volatile Thread waiter;
+
+	// Constructor
+	public MessageQueueSingleConsumer() {
+		head = new Node<T>(null);
+		tail = new AtomicReference<>(head);
+	}
+
+	// send a message to the queue
+	public void send(T sentMsg) {
+		if (sentMsg == null)
+			throw new IllegalArgumentException("sentMsg");
+		Node<T> node = new Node<>(sentMsg);
+		Node<T> prev = tail.getAndSet(node);
+		// until this write, the message is not visible to the receiver
+		prev.next = node;
+		/**
+		 * JMM guarantees that the volatile write of "next" is made visible to all
+		 * processors, before the volatile read of "waiter".
+		 */
+		Thread receiver = waiter;
+		if (receiver != null)
+			LockSupport.unpark(receiver);
+	}
+
+	// try to receive a message, returning null if the queue is empty
+	public T tryReceive() {
+		Node<T> next = head.next;
+		if (next == null)
+			return null;
+		head = next;
+		T msg = next.message;
+		next.message = null;	// the node is now the stub node
+		return msg;
+	}
+
+	// receive the next message from the queue; returns null when it times out
+	public T receive(long millisTimeout) throws InterruptedException {
+		T msg;
+		// spin for a while before blocking
+		for (int i = 0; i <= SPIN_COUNT; i++) {
+			if ((msg = tryReceive()) != null)
+				return msg;
+			Thread.onSpinWait();
+		}
+
+		// the queue is empty; if a null time out was specified, return failure.
+		if (millisTimeout == 0)
+			return null;
+
+		if (Thread.interrupted())
+			throw new InterruptedException();
+		boolean timed = millisTimeout > 0;
+		long deadline = timed ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millisTimeout) : 0L;
+
+		// declare the current thread as the waiter
+		waiter = Thread.currentThread();
+		/**
+		 * JMM guarantees that the volatile write of "waiter" is made visible to all
+		 * processors before the volatile read of "next" in tryReceive, so either we see
+		 * the message or the sender sees us.
+		 */
+		try {
+			while ((msg = tryReceive()) == null) {
+				if (timed) {
+					long nanosTimeout = deadline - System.nanoTime();
+					if (nanosTimeout <= 0L)
+						return null;
+					LockSupport.parkNanos(this, nanosTimeout);
+				} else
+					LockSupport.park(this);
+				if (Thread.interrupted()) {
+					// if a message arrived meanwhile, re-assert interrupt and return it
+					if ((msg = tryReceive()) != null) {
+						Thread.currentThread().interrupt();
+						return msg;
+					}
+					throw new InterruptedException();
+				}
+			}
+			return msg;
+		} finally {
+			waiter = null;
+		}
+	}
+
+	public T receive() throws InterruptedException { return receive(-1L); }
+
+	/**
+	 * Test code
+	 */
+
+	// many senders and one receiver; the messages of each sender must be received in order
+	private static boolean testManySenders() throws InterruptedException {
+		final int SENDERS = 8;
+		final int MESSAGES = 200000;
+		MessageQueueSingleConsumer<long[]> queue = new MessageQueueSingleConsumer<>();
+		Thread[] senders = new Thread[SENDERS];
+		for (int i = 0; i < SENDERS; i++) {
+			final int sid = i;
+			senders[i] = new Thread(() -> {
+				for (int m = 0; m < MESSAGES; m++) {
+					queue.send(new long[] { sid, m });
+					if (m % 1000 == 0)
+						Thread.yield();		// let the receiver block sometimes
+				}
+			});
+			senders[i].start();
+		}
+		long[] nextExpected = new long[SENDERS];
+		int received = 0, outOfOrder = 0;
+		long[] msg;
+		while ((msg = queue.receive(500)) != null) {
+			if (msg[1] != nextExpected[(int)msg[0]]++)
+				outOfOrder++;
+			received++;
+		}
+		for (Thread sender : senders)
+			sender.join();
+		System.out.printf("--received: %d, out of order: %d%n", received, outOfOrder);
+		return received == SENDERS * MESSAGES && outOfOrder == 0;
+	}
+
+	// check timeout and interruption of the receiver
+	private static boolean testTimeoutAndInterrupt() throws InterruptedException {
+		MessageQueueSingleConsumer<String> queue = new MessageQueueSingleConsumer<>();
+		boolean timedOut = queue.receive(50) == null && queue.receive(0) == null;
+		boolean[] interrupted = new boolean[1];
+		Thread receiver = new Thread(() -> {
+			try {
+				queue.receive();
+			} catch (InterruptedException ie) {
+				interrupted[0] = true;
+			}
+		});
+		receiver.start();
+		Thread.sleep(50);
+		receiver.interrupt();
+		receiver.join();
+		queue.send("hello");
+		boolean received = "hello".equals(queue.receive(0));
+		return timedOut && interrupted[0] && received;
+	}
+
+	// the throughput of many senders and one receiver, compared with LinkedBlockingQueue
+	private static void benchmark(int senders, boolean lockFree) throws InterruptedException {
+		final int MESSAGES = 1000000;
+		MessageQueueSingleConsumer<Integer> mpsc = new MessageQueueSingleConsumer<>();
+		LinkedBlockingQueue<Integer> lbq = new LinkedBlockingQueue<>();
+		Thread[] threads = new Thread[senders];
+		long start = System.nanoTime();
+		for (int i = 0; i < senders; i++) {
+			threads[i] = new Thread(() -> {
+				Integer msg = 1;
+				for (int m = 0; m < MESSAGES / senders; m++) {
+					if (lockFree)
+						mpsc.send(msg);
+					else
+						lbq.add(msg);
+				}
+			});
+			threads[i].start();
+		}
+		int total = MESSAGES / senders * senders;
+		for (int m = 0; m < total; m++) {
+			if (lockFree)
+				mpsc.receive();
+			else
+				lbq.take();
+		}
+		long elapsed = System.nanoTime() - start;
+		for (Thread thread : threads)
+			thread.join();
+		System.out.printf("%s, %d, %d, %.1f%n", lockFree ? "MessageQueueSingleConsumer" : "LinkedBlockingQueue",
+						  senders, elapsed / 1000000, total / (elapsed / 1000.0));
+	}
+
+	public static void main(String... args) throws InterruptedException {
+		System.out.printf("-->test many senders: %s%n", testManySenders() ? "passed" : "failed");
+		System.out.printf("-->test timeout and interrupt: %s%n",
+						  testTimeoutAndInterrupt() ? "passed" : "failed");
+		System.out.println("-->benchmark: queue, senders, ms, Mmsgs/s");
+		for (int senders = 1; senders <= 8; senders *= 2) {
+			benchmark(senders, false);
+			benchmark(senders, true);
+		}
+	}
+}
@@ -0,0 +1,270 @@
+/**
+ *
+ * ISEL, LEIC, Concurrent Programming
+ *
+ * Cooperative cancellation, in the style of .NET's CancellationTokenSource.
+ *
+ * The source signals cancellation, once; the token, passed to the code that can be
+ * cancelled, is used to observe the cancellation (isCancellationRequested, or
+ * throwIfCancellationRequested) and to register callbacks executed on cancellation.
+ * The callbacks map the cancellation onto the two kinds of waits:
+ *  - blocking waits: interruptOnCancel() registers the current thread, which is
+ *    interrupted on cancellation, so it leaves any interruptible wait;
+ *  - asynchronous waits: cancelOnCancel() registers a future and the method that
+ *    cancels the wait, for instance SemaphoreAsync.tryCancelAcquireAsync:
+ *
+ *        token.cancelOnCancel(semaphore.acquireAsync(), semaphore::tryCancelAcquireAsync)
+ *
+ * Closing a registration guarantees that, after close returns, its callback is not
+ * running and will not run (close waits for a running callback, unless it is called
+ * by the callback itself, directly or through the completion of a future).
+ *
+ **/
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+public class CancellationTokenSource {
+
+	//
+	// A registered callback.
+	//
+
+	public static final class Registration implements AutoCloseable {
+		private static final int ACTIVE = 0, RUNNING = 1, DONE = 2;
+
+		private final CancellationTokenSource source;
+		private final Runnable callback;
+		private final AtomicInteger state = new AtomicInteger(ACTIVE);
+		private final Thread interruptedThread;	// for interruptOnCancel, else null
+		private volatile Thread callbackThread;	// the thread that runs the callback
+
+		private Registration(CancellationTokenSource source, Runnable callback, Thread interruptedThread) {
+			this.source = source;
+			this.callback = callback;
+			this.interruptedThread = interruptedThread;
+		}
+
+		// Executed once, by the thread that cancels the source.
+		private void invoke() {
+			if (state.compareAndSet(ACTIVE, RUNNING)) {
+				callbackThread = Thread.currentThread();
+				try {
+					callback.run();
+				} finally {
+					state.set(DONE);
+				}
+			}
+		}
+
+		/**
+		 * Unregister the callback, waiting for it if it is running. The interrupt
+		 * sent by interruptOnCancel is consumed here, if the thread did not consume
+		 * it, as the cancellation is observed through the token.
+		 */
+		public void close() {
+			if (state.compareAndSet(ACTIVE, DONE)) {
+				source.unregister(this);
+				return;
+			}
+			// called by the callback (for instance, cancelOnCancel closes the registration
+			// when the future completes, which the callback does): waiting would never end
+			if (callbackThread == Thread.currentThread())
+				return;
+			while (state.get() == RUNNING)
+				Thread.yield();
+			if (interruptedThread != null && interruptedThread == Thread.currentThread())
+				Thread.interrupted();
+		}
+	}
+
+	//
+	// The token of the source.
+	//
+
+	public static final class Token {
+		private final CancellationTokenSource source;
+
+		private Token(CancellationTokenSource source) { this.source = source; }
+
+		public boolean isCancellationRequested() { return source.cancelled; }
+
+		public void throwIfCancellationRequested() {
+			if (source.cancelled)
+				throw new CancellationException();
+		}
+
+		// Register a callback, executed at once if the source is already cancelled.
+		public Registration register(Runnable callback) {
+			if (callback == null)
+				throw new IllegalArgumentException("callback");
+			return source.register(new Registration(source, callback, null));
+		}
+
+		// Interrupt the current thread on cancellation, while the registration is open.
+		public Registration interruptOnCancel() {
+			Thread current = Thread.currentThread();
+			return source.register(new Registration(source, current::interrupt, current));
+		}
+
+		// Cancel an asynchronous wait on cancellation, with the method that cancels it;
+		// the registration is closed when the future completes.
+		public <T> CompletableFuture<T> cancelOnCancel(CompletableFuture<T> future,
+													   Predicate<CompletableFuture<T>> tryCancel) {
+			if (future.isDone())
+				return future;
+			Registration registration = register(() -> tryCancel.test(future));
+			future.whenComplete((result, ex) -> registration.close());
+			return future;
+		}
+
+		public <T> CompletableFuture<T> cancelOnCancel(CompletableFuture<T> future) {
+			return cancelOnCancel(future, (f) -> f.cancel(false));
+		}
+	}
+
+	// The timer thread of cancelAfter.
+	private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor((r) -> {
+		Thread thread = new Thread(r, "CancellationTimer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Token token = new Token(this);
+	private volatile boolean cancelled;
+	private LinkedHashSet<Registration> registrations = new LinkedHashSet<Registration>();
+
+	public Token getToken() { return token; }
+
+	public boolean isCancellationRequested() { return cancelled; }
+
+	/**
+	 * Request the cancellation, and execute the registered callbacks, in the
+	 * current thread, in the order they were registered. Only the first call has
+	 * effect.
+	 */
+	public void cancel() {
+		List<Registration> toInvoke;
+		synchronized(this) {
+			if (cancelled)
+				return;
+			cancelled = true;
+			toInvoke = new ArrayList<Registration>(registrations);
+			registrations = null;
+		}
+		RuntimeException failure = null;
+		for (Registration registration : toInvoke) {
+			try {
+				registration.invoke();
+			} catch (RuntimeException ex) {
+				if (failure == null)
+					failure = ex;
+			}
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	// Request the cancellation after the specified time.
+	public void cancelAfter(long millis) {
+		if (millis < 0)
+			throw new IllegalArgumentException("millis");
+		timer.schedule(this::cancel, millis, TimeUnit.MILLISECONDS);
+	}
+
+	private Registration register(Registration registration) {
+		synchronized(this) {
+			if (!cancelled) {
+				registrations.add(registration);
+				return registration;
+			}
+		}
+		// already cancelled: execute the callback now
+		registration.invoke();
+		return registration;
+	}
+
+	private synchronized void unregister(Registration registration) {
+		if (registrations != null)
+			registrations.remove(registration);
+	}
+
+	//
+	// Test.
+	//
+
+	public static void main(String... args) throws InterruptedException {
+		// a blocking wait is interrupted
+		CancellationTokenSource cts = new CancellationTokenSource();
+		Token token = cts.getToken();
+		Thread waiter = new Thread(() -> {
+			Registration registration = token.interruptOnCancel();
+			try (registration) {
+				Thread.sleep(10000);
+				System.out.println("***error: the sleep was not interrupted");
+			} catch (InterruptedException ie) {
+				System.out.println("-- blocking wait interrupted, cancellation requested: " +
+								   token.isCancellationRequested());
+			}
+			if (Thread.currentThread().isInterrupted())
+				System.out.println("***error: the interrupt was not consumed");
+		});
+		waiter.start();
+
+		// an asynchronous wait is cancelled
+		CompletableFuture<Boolean> asyncWait = token.cancelOnCancel(new CompletableFuture<Boolean>());
+		asyncWait.whenComplete((result, ex) -> System.out.println("-- asynchronous wait completed with " +
+								(ex instanceof CancellationException ? "cancellation" : "result " + result)));
+
+		// a closed registration is not executed
+		Registration closed = token.register(() -> System.out.println("***error: closed callback executed"));
+		closed.close();
+
+		cts.cancelAfter(100);
+		waiter.join();
+		if (!asyncWait.isCancelled())
+			System.out.println("***error: the asynchronous wait was not cancelled");
+
+		// registering after cancellation executes the callback at once
+		boolean[] executed = { false };
+		token.register(() -> executed[0] = true);
+		System.out.println("-- callback registered after cancellation executed: " + executed[0]);
+
+		// cancel returns when an asynchronous wait completes synchronously in its callback,
+		// and the callbacks registered after it are executed
+		CancellationTokenSource cts2 = new CancellationTokenSource();
+		CompletableFuture<Boolean> pending = cts2.getToken().cancelOnCancel(new CompletableFuture<Boolean>());
+		boolean[] later = { false };
+		cts2.getToken().register(() -> later[0] = true);
+		Thread canceller = new Thread(cts2::cancel);
+		canceller.setDaemon(true);
+		canceller.start();
+		canceller.join(1000);
+		System.out.println("-- cancel returned: " + !canceller.isAlive() + ", wait cancelled: " +
+						   pending.isCancelled() + ", later callback executed: " + later[0]);
+		if (canceller.isAlive() || !pending.isCancelled() || !later[0])
+			System.out.println("***error: cancel did not complete");
+
+		// the timer of cancelAfter is still working
+		CancellationTokenSource cts3 = new CancellationTokenSource();
+		CompletableFuture<Boolean> timed = cts3.getToken().cancelOnCancel(new CompletableFuture<Boolean>());
+		cts3.cancelAfter(10);
+		try {
+			timed.get(1, TimeUnit.SECONDS);
+		} catch (CancellationException ce) {
+			System.out.println("-- wait cancelled by cancelAfter");
+		} catch (ExecutionException | TimeoutException ex) {
+			System.out.println("***error: the wait was not cancelled by cancelAfter");
+		}
+	}
+}
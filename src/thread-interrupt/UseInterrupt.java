@@ -117,8 +117,70 @@ class InterruptWhileWaitingOnExplicitMonitor {
 	}
 }
 
+class ShutdownManyWorkers {
+	// the time each worker needs to shut down gracefully, after being interrupted
+	private static final int GRACEFUL_SHUTDOWN_MILLIS = 2;
+
+	private static void sleepUninterruptibly(long millis) {
+		long expiresAt = System.currentTimeMillis() + millis;
+		do {
+			try {
+				Thread.sleep(millis);
+				break;
+			} catch (InterruptedException ie) {}
+			millis = expiresAt - System.currentTimeMillis();
+		} while (millis > 0);
+	}
+
+	public static void execute(int workers) throws InterruptedException {
+		// one worker at a time, as ShuttingDownThread.shutdown does
+		Thread[] threads = new Thread[workers];
+		for (int i = 0; i < workers; i++) {
+			threads[i] = new Thread(() -> {
+				do {
+					try {
+						Thread.sleep(1000);
+					} catch (InterruptedException ie) {
+						break;
+					}
+				} while (true);
+				sleepUninterruptibly(GRACEFUL_SHUTDOWN_MILLIS);
+			});
+			threads[i].start();
+		}
+		Thread.sleep(500);
+		long start = System.nanoTime();
+		for (Thread thread : threads) {
+			thread.interrupt();
+			thread.join();
+		}
+		System.out.printf("-- serial shutdown of %d workers: %d ms%n", workers,
+						  (System.nanoTime() - start) / 1000000);
+
+		// all the workers at once, with a cancellation token
+		WorkerGroup group = new WorkerGroup("worker");
+		group.start(workers, (token) -> {
+			while (!token.isCancellationRequested()) {
+				try {
+					Thread.sleep(1000);
+				} catch (InterruptedException ie) {}
+			}
+			sleepUninterruptibly(GRACEFUL_SHUTDOWN_MILLIS);
+		});
+		Thread.sleep(500);
+		start = System.nanoTime();
+		int alive = group.shutdown(5000);
+		System.out.printf("-- parallel shutdown of %d workers: %d ms, %d still alive%n", workers,
+						  (System.nanoTime() - start) / 1000000, alive);
+	}
+}
+
 public class UseInterrupt {
 	public static void main(String... args) throws InterruptedException {
+		if (args.length > 0 && args[0].equals("-workers")) {
+			ShutdownManyWorkers.execute(args.length > 1 ? Integer.parseInt(args[1]) : 2000);
+			return;
+		}
 		UseInterruptToCancel.execute();
 		//InterruptWhileWaitingOnImplicitMonitor.execute();
 		//InterruptWhileWaitingOnExplicitMonitor.execute();
@@ -0,0 +1,105 @@
+/**
+ *
+ * ISEL, LEIC, Concurrent Programming
+ *
+ * A group of worker threads that share a cancellation token.
+ *
+ * ShuttingDownThread stops one worker, interrupting it and joining it; stopping N
+ * workers this way takes N times the time each worker needs to shut down. Here the
+ * shutdown cancels the token of the group, which interrupts all the workers at
+ * once, and then joins them all with a single deadline, so the workers shut down
+ * in parallel and the shutdown takes the time of the slowest worker.
+ *
+ **/
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class WorkerGroup {
+
+	// The body of a worker, which must return when the cancellation is requested.
+	public interface Worker {
+		void run(CancellationTokenSource.Token token) throws Exception;
+	}
+
+	private final String name;
+	private final CancellationTokenSource cts = new CancellationTokenSource();
+	private final List<Thread> threads = new ArrayList<Thread>();
+
+	public WorkerGroup(String name) {
+		this.name = name;
+		// a single callback interrupts all the workers
+		cts.getToken().register(this::interruptAll);
+	}
+
+	public CancellationTokenSource.Token getToken() { return cts.getToken(); }
+
+	// Start count workers with the specified body.
+	public void start(int count, Worker worker) {
+		if (count < 0)
+			throw new IllegalArgumentException("count");
+		CancellationTokenSource.Token token = cts.getToken();
+		for (int i = 0; i < count; i++) {
+			Thread thread = new Thread(() -> {
+				try {
+					worker.run(token);
+				} catch (InterruptedException ie) {
+					// the cancellation, when the worker does not catch it
+				} catch (Exception ex) {
+					System.out.printf("*** %s: %s%n", Thread.currentThread().getName(), ex);
+				}
+			});
+			// started while holding the lock, so interruptAll never sees an unstarted thread
+			synchronized(this) {
+				if (token.isCancellationRequested())
+					throw new IllegalStateException("shut down");
+				thread.setName(name + "-" + threads.size());
+				threads.add(thread);
+				thread.start();
+			}
+		}
+	}
+
+	private void interruptAll() {
+		for (Thread thread : snapshot())
+			thread.interrupt();
+	}
+
+	private synchronized List<Thread> snapshot() {
+		return new ArrayList<Thread>(threads);
+	}
+
+	/**
+	 * Cancel the workers, and wait until they exit or the timeout expires (a negative
+	 * timeout means infinite). Returns the number of workers that are still alive.
+	 * Interrupts of the current thread are ignored, and re-asserted at the end.
+	 */
+	public int shutdown(long millisTimeout) {
+		cts.cancel();
+		boolean interrupted = false;
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millisTimeout);
+		int alive = 0;
+		for (Thread thread : snapshot()) {
+			do {
+				try {
+					if (millisTimeout < 0) {
+						thread.join();
+					} else {
+						long remaining = deadline - System.nanoTime();
+						if (remaining > 0)
+							TimeUnit.NANOSECONDS.timedJoin(thread, remaining);
+					}
+					break;
+				} catch (InterruptedException ie) {
+					interrupted = true;
+				}
+			} while (true);
+			if (thread.isAlive())
+				alive++;
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		return alive;
+	}
+}
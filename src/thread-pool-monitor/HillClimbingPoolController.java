@@ -0,0 +1,189 @@
+/**
+ *
+ * ISEL, LEIC, Concurrent Programming
+ *
+ * Adaptive sizing of a ThreadPoolExecutor, in the style of the hill climbing
+ * algorithm of the .NET thread pool.
+ *
+ * ThreadPoolExecutor only creates threads beyond the core pool size when the work
+ * queue is full, so, with a large queue and tasks that block (I/O-bound), the
+ * tasks wait in the queue while the processors are idle. The controller changes
+ * the core pool size (the pool starts the new workers immediately, if there are
+ * queued tasks) by the following rules, evaluated by a controller thread each
+ * sample period:
+ *  - starvation: if the task at the head of the queue has been waiting longer
+ *    than the starvation threshold, one thread is injected at once, and then at
+ *    most one each threshold while the starvation lasts. The wait of the head is
+ *    read from the submission time stamped by ThreadPoolTelemetry, so it is seen
+ *    also when the tasks make slow but steady progress;
+ *  - hill climbing: each wave of samples (with at least WAVE_TASKS completions),
+ *    the throughput (completed tasks per second) is compared with the throughput
+ *    of the previous wave; if it grew, the last move (one thread more or one less)
+ *    is repeated, if it dropped, the move is reversed, and if it is flat (within
+ *    the noise) one thread is removed, as more threads that do not add throughput
+ *    only add context switches. The pool never grows when there are no queued
+ *    tasks.
+ * The core pool size is kept between minThreads and the maximum pool size; the
+ * threads above the core size retire after the keep alive time. The pool is a
+ * ThreadPoolTelemetry.Executor, whose telemetry should time all the tasks (a
+ * sampleInterval of 1), otherwise the wait of the head is underestimated.
+ *
+ **/
+
+import java.util.concurrent.TimeUnit;
+
+public class HillClimbingPoolController {
+
+	// the relative change of throughput considered noise
+	private static final double NOISE = 0.05;
+
+	// the minimum number of samples and of completed tasks of each hill climbing wave
+	private static final int WAVE_SAMPLES = 5;
+	private static final int WAVE_TASKS = 8;
+
+	private final ThreadPoolTelemetry.Executor pool;
+	private final int minThreads;
+	private final long sampleMillis;
+	private final long starvationMillis;
+	private final boolean verbose;
+	private final Thread controllerThread;
+	private volatile boolean running = true;
+
+	// state accessed only by the controller thread
+	private long lastInjection;
+	private long waveStart, waveCompleted, waveSamples;
+	private double lastThroughput = -1;
+	private int direction = 1;
+
+	// statistics, read by other threads
+	private volatile int starvationInjections, climbAdjustments, peakCorePoolSize;
+
+	public HillClimbingPoolController(ThreadPoolTelemetry.Executor pool, int minThreads, long sampleMillis,
+									  long starvationMillis, boolean verbose) {
+		if (pool == null)
+			throw new IllegalArgumentException("pool");
+		if (minThreads < 1 || minThreads > pool.getMaximumPoolSize())
+			throw new IllegalArgumentException("minThreads");
+		if (sampleMillis <= 0)
+			throw new IllegalArgumentException("sampleMillis");
+		if (starvationMillis < sampleMillis)
+			throw new IllegalArgumentException("starvationMillis");
+		this.pool = pool;
+		this.minThreads = minThreads;
+		this.sampleMillis = sampleMillis;
+		this.starvationMillis = starvationMillis;
+		this.verbose = verbose;
+		pool.setCorePoolSize(Math.max(minThreads, Math.min(pool.getCorePoolSize(), pool.getMaximumPoolSize())));
+		peakCorePoolSize = pool.getCorePoolSize();
+		controllerThread = new Thread(this::controlLoop, "hill-climbing-controller");
+		controllerThread.setDaemon(true);
+	}
+
+	// the defaults of the .NET thread pool: starvation after the head of the queue waits 500 ms
+	public HillClimbingPoolController(ThreadPoolTelemetry.Executor pool, int minThreads) {
+		this(pool, minThreads, 100, 500, false);
+	}
+
+	public HillClimbingPoolController start() {
+		controllerThread.start();
+		return this;
+	}
+
+	public void stop() {
+		running = false;
+		controllerThread.interrupt();
+		do {
+			try {
+				controllerThread.join();
+				return;
+			} catch (InterruptedException ie) {}
+		} while (true);
+	}
+
+	public int getStarvationInjections() { return starvationInjections; }
+	public int getClimbAdjustments() { return climbAdjustments; }
+	public int getPeakCorePoolSize() { return peakCorePoolSize; }
+
+	private void setCorePoolSize(int size, String reason) {
+		size = Math.max(minThreads, Math.min(size, pool.getMaximumPoolSize()));
+		if (size == pool.getCorePoolSize())
+			return;
+		pool.setCorePoolSize(size);
+		if (size > peakCorePoolSize)
+			peakCorePoolSize = size;
+		if (verbose)
+			System.out.printf("-- core pool size: %d (%s)%n", size, reason);
+	}
+
+	private void controlLoop() {
+		waveStart = lastInjection = System.nanoTime();
+		waveCompleted = pool.getCompletedTaskCount();
+		while (running && !pool.isTerminated()) {
+			try {
+				Thread.sleep(sampleMillis);
+			} catch (InterruptedException ie) {
+				continue;
+			}
+			sample();
+		}
+	}
+
+	private void sample() {
+		long completed = pool.getCompletedTaskCount();
+		int queued = pool.getQueue().size();
+		int core = pool.getCorePoolSize();
+
+		// starvation: the head of the queue waited longer than the threshold; while it
+		// lasts, one thread is injected each threshold
+		long now = System.nanoTime();
+		long starvationNanos = TimeUnit.MILLISECONDS.toNanos(starvationMillis);
+		if (pool.getHeadQueueWait() >= starvationNanos && now - lastInjection >= starvationNanos &&
+			core < pool.getMaximumPoolSize()) {
+			lastInjection = now;
+			starvationInjections++;
+			setCorePoolSize(core + 1, "starvation");
+			// the throughput of the previous wave is no longer comparable
+			startWave(completed, -1);
+			return;
+		}
+
+		// hill climbing, at the end of each wave; the wave is extended until enough
+		// tasks complete, as there is no throughput signal without completions
+		if (++waveSamples < WAVE_SAMPLES || completed - waveCompleted < WAVE_TASKS)
+			return;
+		double throughput = (completed - waveCompleted) / ((now - waveStart) / 1e9);
+		if (lastThroughput >= 0) {
+			if (throughput > lastThroughput * (1 + NOISE))
+				;	// keep the direction
+			else if (throughput < lastThroughput * (1 - NOISE))
+				direction = -direction;
+			else
+				direction = -1;
+			if (direction > 0 && queued == 0)
+				direction = -1;
+			if (core + direction >= minThreads && core + direction <= pool.getMaximumPoolSize()) {
+				climbAdjustments++;
+				setCorePoolSize(core + direction, String.format("hill climbing, %.1f tasks/s", throughput));
+			}
+		} else if (queued > 0) {
+			// first wave: try one thread more
+			direction = 1;
+			climbAdjustments++;
+			setCorePoolSize(core + 1, String.format("hill climbing, %.1f tasks/s", throughput));
+		}
+		startWave(completed, throughput);
+	}
+
+	private void startWave(long completed, double throughput) {
+		waveStart = System.nanoTime();
+		waveCompleted = completed;
+		waveSamples = 0;
+		lastThroughput = throughput;
+	}
+
+	public String toString() {
+		return String.format("--hill climbing: core pool size: %d, peak: %d; starvation injections: %d, " +
+							 "climb adjustments: %d", pool.getCorePoolSize(), peakCorePoolSize,
+							 starvationInjections, climbAdjustments);
+	}
+}
@@ -4,6 +4,16 @@
  *
  * Program to monitor worker thread injection in Java's ThreadPoolExecutor.
  *
+ * Usage: java ThreadPoolMonitor [-cpu | -io | -async] [-adaptive | -ws | -fj | -vt]
+ *   -async: the I/O-bound workload, where each I/O wait is a CompletableFuture
+ *           completed by a Delayer timer, instead of a blocked worker thread
+ *   -adaptive: the core pool size is adjusted by HillClimbingPoolController
+ *   -ws: the actions are executed by a ForkJoinPool (per-worker deques with work
+ *        stealing) instead of the single ArrayBlockingQueue of ThreadPoolExecutor;
+ *        they are forked one by one by a task running in the pool
+ *   -fj: the actions are fork/join subtasks of one task submitted to a ForkJoinPool
+ *   -vt: each action runs in a virtual thread (Java 21 or later)
+ *
  * Carlos Martins, May 2020
  *
  **/
@@ -11,10 +21,20 @@
 import java.util.List;
 import java.util.ArrayList;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -249,69 +269,309 @@ public class ThreadPoolMonitor {
 
 	private static final int KEEP_ALIVE_SECONDS = 20;
 	
-	private static final ThreadPoolExecutor theThreadPool = new ThreadPoolExecutor(
+	// The telemetry of the pool (see ThreadPoolTelemetry), also visible in jconsole.
+	private static ThreadPoolTelemetry telemetry;
+
+	/**
+	 * The work queue of the pool, an ArrayBlockingQueue that counts the operations
+	 * done under its single lock: the offers of the submitting thread (the tasks
+	 * that do not go directly to a new worker) and the takes and polls of the workers.
+	 */
+	private static class CountingQueue extends ArrayBlockingQueue<Runnable> {
+		private static final long serialVersionUID = 1L;
+
+		final LongAdder enqueued = new LongAdder();
+		final LongAdder lockAcquisitions = new LongAdder();
+
+		CountingQueue(int capacity) { super(capacity); }
+
+		public boolean offer(Runnable task) {
+			lockAcquisitions.increment();
+			boolean offered = super.offer(task);
+			if (offered)
+				enqueued.increment();
+			return offered;
+		}
+
+		public Runnable take() throws InterruptedException {
+			lockAcquisitions.increment();
+			return super.take();
+		}
+
+		public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+			lockAcquisitions.increment();
+			return super.poll(timeout, unit);
+		}
+	}
+
+	private static CountingQueue theWorkQueue;
+
+	private static ThreadPoolTelemetry.Executor newThreadPool(int queueSize, int sampleInterval) {
+		telemetry = new ThreadPoolTelemetry("ThreadPoolMonitor", sampleInterval).register();
+		theWorkQueue = new CountingQueue(queueSize);
+		return new ThreadPoolTelemetry.Executor(
+			telemetry,
 			CORE_POOL_SIZE									/* int corePoolSize */,
 			MAX_POOL_SIZE									/* int maximumPoolSize */,
 			KEEP_ALIVE_SECONDS, TimeUnit.SECONDS			/* long keepAliveTime, TimeUnit unit */,
-			new ArrayBlockingQueue<Runnable>(TP_QUEUE_SIZE)	/* BlockingQueue<Runnable> workQueue */,
+			theWorkQueue									/* BlockingQueue<Runnable> workQueue */,
 			(runnable) -> new Thread(runnable) 				/* ThreadFactory threadFactory */,
 			(runnable, executor) -> System.out.println("***runnable rejected") 	/* RejectedExecutionHandler handler */
 		);
-	
+	}
+
+	private static ThreadPoolExecutor theThreadPool;
+
+	/**
+	 * With -ws and -fj, the actions are executed by a ForkJoinPool, with the maximum
+	 * pool size as parallelism. Each worker has its own deque, where it pushes and
+	 * pops the tasks it forks without contention, and the idle workers steal tasks
+	 * from the other deques with a CAS. Note that the pool does not compensate the
+	 * blocked workers (the sleeps of -io are not ForkJoinPool.ManagedBlocker), so
+	 * the parallelism is also the number of workers.
+	 *
+	 * The tasks submitted by a thread outside the pool go to shared external submission
+	 * queues, not to the worker deques, so, with -ws, the actions are forked by a task
+	 * that runs in the pool, as the subtasks of -fj are, and are stolen from its deque.
+	 */
+	private static ForkJoinPool theForkJoinPool;
+
+	// The executor used by the test, one of the above or a virtual thread per task executor.
+	private static ExecutorService theExecutor;
+
+	/**
+	 * With -vt, each action runs in its own virtual thread, so the blocking waits of
+	 * -io only block the virtual thread, not its carrier. The executor is created by
+	 * reflection, as Executors.newVirtualThreadPerTaskExecutor() only exists since
+	 * Java 21 (returns null on older versions).
+	 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException roe) {
+			return null;
+		}
+	}
+
+	/**
+	 * With -adaptive, the work queue holds all the tasks, so the pool alone would
+	 * only use the core pool size workers, and the core pool size is changed by the
+	 * HillClimbingPoolController, starting with one worker.
+	 */
+	private static HillClimbingPoolController controller;
+
 
 	private static void shutdownPoolAndWaitTerminationUninterruptibly() {
-		theThreadPool.shutdown();
+		theExecutor.shutdown();
 		do {
 			try {
-				theThreadPool.awaitTermination(1 * 6, TimeUnit.SECONDS);
+				theExecutor.awaitTermination(1 * 6, TimeUnit.SECONDS);
 				return;
 			} catch (InterruptedException ie) {}
 		} while (true); 
 	}
 
+	//
+	// The actions, and the time they started and ended, relative to the start of the
+	// test, when all the actions are submitted; the start time is the queue wait, and
+	// the end time the latency of the action.
+	//
+
+	private static boolean cpuBoundWorkload, asyncWorkload;
+	private static long startTime;
+	private static int threadsBefore;
+	private static final long[] actionStart = new long[ACTION_COUNT];
+	private static final long[] actionEnd = new long[ACTION_COUNT];
+	private static final AtomicInteger remainingActions = new AtomicInteger(ACTION_COUNT);
+
+	private static void action(int targ) {
+		actionStart[targ] = System.nanoTime() - startTime;
+		WorkerThreadReport.registerWorker();			
+		long tid = Thread.currentThread().getId();
+		System.out.printf("-->Action(%02d, #%02d)%n", targ, tid);
+		if (asyncWorkload) {
+			sleepAsync(REPEAT_FOR, () -> endAction(targ, tid));
+			return;
+		}
+		for (int n = 0; n < REPEAT_FOR; n++) {
+			WorkerThreadReport.registerWorker();
+			/**
+			 * Warning: The thread injection dynamics does not depend on the type
+			 *          of workload!
+			 */
+			if (cpuBoundWorkload)
+				spinWait(50000);				// CPU-bound workload
+			else
+				sleepUninterruptibly(50);		// I/O-bound workload
+		}
+		endAction(targ, tid);
+	}
+
+	private static void endAction(int targ, long tid) {
+		System.out.printf("<--Action(%02d, #%02d)%n", targ, tid);
+		actionEnd[targ] = System.nanoTime() - startTime;
+		// the last action sees the times of all the others (decrementAndGet is ordered)
+		if (remainingActions.decrementAndGet() == 0)
+			showActionTimes();
+	}
+
+	/**
+	 * The asynchronous I/O-bound workload: each wait of 50 ms is a CompletableFuture
+	 * completed by the Delayer's timer thread, and the rest of the action runs on the
+	 * executor of the test. No thread is blocked during the wait, so one worker
+	 * thread serves all the actions.
+	 */
+	private static CompletableFuture<Void> delayAsync(long millis) {
+		CompletableFuture<Void> timer = new CompletableFuture<Void>();
+		Delayer.delay(() -> timer.complete(null), millis, TimeUnit.MILLISECONDS);
+		return timer;
+	}
+
+	private static void sleepAsync(int times, Runnable continuation) {
+		delayAsync(50).thenRunAsync(() -> {
+			WorkerThreadReport.registerWorker();
+			if (times > 1)
+				sleepAsync(times - 1, continuation);
+			else
+				continuation.run();
+		}, theExecutor);
+	}
+
+	// The actions [lo, hi) as fork/join subtasks, split in halves.
+	private static class Actions extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int lo, hi;
+
+		Actions(int lo, int hi) {
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		protected void compute() {
+			if (hi - lo == 1)
+				action(lo);
+			else {
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new Actions(lo, mid), new Actions(mid, hi));
+			}
+		}
+	}
+
+	private static void showActionTimes() {
+		long makespan = 0, totalWait = 0;
+		for (int i = 0; i < ACTION_COUNT; i++) {
+			makespan = Math.max(makespan, actionEnd[i]);
+			totalWait += actionStart[i];
+		}
+		long[] latencies = actionEnd.clone();
+		Arrays.sort(latencies);
+		System.out.printf("--all %d actions completed after %d ms (%.2f actions/s), using %d worker threads%n",
+						  ACTION_COUNT, makespan / 1000000, ACTION_COUNT / (makespan / 1e9),
+						  WorkerThreadReport.createdThreads());
+		System.out.printf("--queue wait: mean %d ms; latency: p50 %d ms, max %d ms%n",
+						  totalWait / ACTION_COUNT / 1000000, latencies[ACTION_COUNT / 2] / 1000000,
+						  latencies[ACTION_COUNT - 1] / 1000000);
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		System.out.printf("--platform threads: %d before the test, peak %d%n", threadsBefore,
+						  threads.getPeakThreadCount());
+		// with -async, each wait adds a continuation task
+		int tasks = asyncWorkload ? ACTION_COUNT * (REPEAT_FOR + 1) : ACTION_COUNT;
+		// the task that seeds the actions is submitted from outside the pool, and so are the
+		// continuations of -async, submitted by the timer thread; they are taken from the
+		// external submission queues, which getStealCount also counts
+		if (theForkJoinPool != null)
+			System.out.printf("--queue contention: %d of %d tasks were stolen by a worker from another " +
+							  "worker's deque or taken from an external submission queue, with a CAS and " +
+							  "no lock%n", theForkJoinPool.getStealCount(), tasks + 1);
+		else if (theThreadPool != null)
+			System.out.printf("--queue contention: %d of %d tasks went through the ArrayBlockingQueue (the " +
+							  "others went directly to a new worker), with %d acquisitions of its single " +
+							  "lock (offers, takes and polls)%n", theWorkQueue.enqueued.sum(), tasks,
+							  theWorkQueue.lockAcquisitions.sum());
+	}
+
 	public static void main(String... args) throws InterruptedException {
 		
-		if (args.length != 1 || !(args[0].equals("-cpu") || args[0].equals("-io"))) {
-			System.out.println("usage: java ThreadPoolMonitor [-cpu | -io]");
+		if (args.length < 1 || args.length > 2 ||
+			!(args[0].equals("-cpu") || args[0].equals("-io") || args[0].equals("-async")) ||
+			(args.length == 2 && !(args[1].equals("-adaptive") || args[1].equals("-ws") || args[1].equals("-fj") ||
+								   args[1].equals("-vt")))) {
+			System.out.println("usage: java ThreadPoolMonitor [-cpu | -io | -async] [-adaptive | -ws | -fj | -vt]");
 			return;
 		}
 		
-		boolean cpuBoundWorkload = args[0].equals("-cpu");
+		cpuBoundWorkload = args[0].equals("-cpu");
+		asyncWorkload = args[0].equals("-async");
+		String mode = args.length == 2 ? args[1] : "";
+		if (mode.equals("-ws") || mode.equals("-fj")) {
+			theExecutor = theForkJoinPool = new ForkJoinPool(MAX_POOL_SIZE);
+		} else if (mode.equals("-vt")) {
+			if ((theExecutor = newVirtualThreadPerTaskExecutor()) == null) {
+				System.out.println("--virtual threads require Java 21 or later");
+				return;
+			}
+		} else if (mode.equals("-adaptive")) {
+			// the controller reads the queue wait of the head task, so all the tasks are timed
+			ThreadPoolTelemetry.Executor adaptivePool = newThreadPool(ACTION_COUNT, 1);
+			theExecutor = theThreadPool = adaptivePool;
+			controller = new HillClimbingPoolController(adaptivePool, 1, 100, 500, true);
+		} else {
+			// the asynchronous actions do not block, so the pool does not need more than the
+			// core pool size workers (the work queue has room for all the actions)
+			theExecutor = theThreadPool = newThreadPool(asyncWorkload ? ACTION_COUNT : TP_QUEUE_SIZE,
+														ThreadPoolTelemetry.DEFAULT_SAMPLE_INTERVAL);
+		}
 
+		String executorName = theForkJoinPool != null ? "ForkJoinPool" :
+							  theThreadPool != null ? "ThreadPoolExecutor" : "virtual threads";
 		if (cpuBoundWorkload)
-        	System.out.println("--Monitor the Java's ThreadPoolExecutor using a CPU-bound workload");	
+        	System.out.printf("--Monitor the Java's %s using a CPU-bound workload%n", executorName);	
+		else if (asyncWorkload)
+			System.out.printf("--Monitor the Java's %s using an asynchronous I/O-bound workload%n", executorName);
 		else
-			System.out.println("--Monitorthe  Java's ThreadPoolExecutor using a I/O-bound workload");
+			System.out.printf("--Monitor the Java's %s using a I/O-bound workload%n", executorName);
 		
-		System.out.printf("--processors: %d; core pool size: %d; maximum pool size: %d, keep alive time: %d s%n",
-				 		  Runtime.getRuntime().availableProcessors(), theThreadPool.getCorePoolSize(),
-						  theThreadPool.getMaximumPoolSize(), KEEP_ALIVE_SECONDS);
+		if (theThreadPool == null && theForkJoinPool == null)
+			System.out.printf("--processors: %d; one virtual thread per task%n",
+							  Runtime.getRuntime().availableProcessors());
+		else if (theForkJoinPool != null)
+			System.out.printf("--processors: %d; parallelism: %d; %s%n", Runtime.getRuntime().availableProcessors(),
+							  theForkJoinPool.getParallelism(), mode.equals("-fj") ? "actions as fork/join subtasks"
+																			: "actions forked one by one");
+		else
+			System.out.printf("--processors: %d; core pool size: %d; maximum pool size: %d, keep alive time: %d s%s%n",
+					 		  Runtime.getRuntime().availableProcessors(), theThreadPool.getCorePoolSize(),
+							  theThreadPool.getMaximumPoolSize(), KEEP_ALIVE_SECONDS,
+							  controller != null ? "; core pool size adjusted by hill climbing" : "");
 		
 		System.out.print("--hit <enter> to start test and <enter> again to terminate...");
 		readln();
 		
 		// Allows timeout on core pool threads! Comment for do not allow!
-		theThreadPool.allowCoreThreadTimeOut(true);
+		if (theThreadPool != null)
+			theThreadPool.allowCoreThreadTimeOut(true);
+		if (controller != null)
+			controller.start();
 		
-		for (int i = 0; i < ACTION_COUNT; i++) {
-			final int targ = i;
-			theThreadPool.execute(() -> {
-				WorkerThreadReport.registerWorker();			
-				long tid = Thread.currentThread().getId();
-				System.out.printf("-->Action(%02d, #%02d)%n", targ, tid);
-				for (int n = 0; n < REPEAT_FOR; n++) {
-					WorkerThreadReport.registerWorker();
-					/**
-					 * Warning: The thread injection dynamics does not depend on the type
-					 *          of workload!
- 					 */
-					if (cpuBoundWorkload)
-						spinWait(50000);				// CPU-bound workload
-					else
-						sleepUninterruptibly(50);		// I/O-bound workload
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		threadsBefore = threads.getThreadCount();
+		threads.resetPeakThreadCount();
+		startTime = System.nanoTime();
+		if (mode.equals("-fj")) {
+			theForkJoinPool.execute(new Actions(0, ACTION_COUNT));
+		} else if (mode.equals("-ws")) {
+			theForkJoinPool.execute(() -> {
+				for (int i = 0; i < ACTION_COUNT; i++) {
+					final int targ = i;
+					ForkJoinTask.adapt(() -> action(targ)).fork();
 				}
-				System.out.printf("<--Action(%02d, #%02d)%n", targ, tid);
 			});
+		} else {
+			for (int i = 0; i < ACTION_COUNT; i++) {
+				final int targ = i;
+				theExecutor.execute(() -> action(targ));
+			}
 		}
 		long delay = 50;
 	outerLoop:
@@ -329,7 +589,7 @@ public class ThreadPoolMonitor {
 			// Comment the next statement to allow worker thread retirement!
 			//
 			/*
-			theThreadPool.execute(() -> {
+			theExecutor.execute(() -> {
 				WorkerThreadReport.registerWorker();
 				System.out.printf("ExtraAction() --><-- on worker thread #%02d%n", Thread.currentThread().getId());
 			});
@@ -337,13 +597,26 @@ public class ThreadPoolMonitor {
 			
 		} while (true);
 		
+		// The asynchronous actions submit their continuations while they run, so wait
+		// for their completion before the shutdown, which rejects new tasks.
+		if (asyncWorkload) {
+			while (remainingActions.get() > 0)
+				sleepUninterruptibly(15);
+		}
+
 		// Initiate an ordely pool shutdown, and waits until all already submitted tasks to complete
 		// The tasks submitted to the pool after it initiates the shutdown are rejected!
 		shutdownPoolAndWaitTerminationUninterruptibly();
+		if (controller != null) {
+			controller.stop();
+			System.out.println(controller);
+		}
 		
 		// Show the worker thread usage
 		System.out.printf("%n-- %d worker threads were injected%n", WorkerThreadReport.createdThreads());
 		WorkerThreadReport.showThreads();
+		if (theThreadPool != null)
+			System.out.println(telemetry);
 		
 		// Shutdown workwer thread report
 		WorkerThreadReport.shutdownWorkerThreadReport();
@@ -0,0 +1,506 @@
+/**
+ *
+ * ISEL, LEIC, Concurrent Programming
+ *
+ * Low overhead telemetry of the worker threads and tasks of a ThreadPoolExecutor.
+ *
+ * Unlike ThreadPoolMonitor.WorkerThreadReport, which polls the worker threads each
+ * 50 ms under a lock, the telemetry is recorded by the threads of the pool, at the
+ * points where the events occur:
+ *  - the ThreadFactory wrapper records the creation of a worker (the interval since
+ *    the previous creation) and, when the worker body returns, its retirement (idle
+ *    time before retire);
+ *  - the execute wrapper stamps the submission time of each task;
+ *  - beforeExecute and afterExecute record the queue wait, the run time and the
+ *    number of active workers.
+ *
+ * The times are recorded in lock-free histograms (one atomic increment of a bucket
+ * and one atomic add to the sum) and are read through JMX, with no polling thread.
+ * Reading the clock costs 20 to 40 ns, so the queue wait and the run time, which
+ * need two more clock readings and the allocation of a wrapper, can be recorded
+ * only for one of each sampleInterval tasks (chosen at random), by default one of
+ * each 16 tasks, which keeps the overhead below 100 ns per task; a sampleInterval
+ * of 1 records the times of all the tasks. The counters and the other histograms
+ * always include all the tasks and threads.
+ *
+ * The telemetry is attached to a pool with ThreadPoolTelemetry.Executor, a
+ * ThreadPoolExecutor with the same constructors plus the telemetry, or to any
+ * other ThreadPoolExecutor subclass that calls threadFactory(), wrap(),
+ * beforeExecute() and afterExecute(). Note that the tasks in the pool's queue are
+ * the wrappers, not the submitted Runnables (which matters for getQueue() and
+ * remove(Runnable)).
+ *
+ * Usage: java ThreadPoolTelemetry [tasks]
+ *        shows the telemetry of a test pool and measures the overhead per task,
+ *        recording the times of one in 16 tasks (the default) and of all the tasks
+ *
+ **/
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+public class ThreadPoolTelemetry implements ThreadPoolTelemetryMXBean {
+
+	//
+	// A lock-free histogram of times in nanoseconds, with 8 buckets for each power of
+	// two (a relative error below 12.5%), that is, 496 buckets from 0 ns to 2^63 ns.
+	// Buckets 0 to 7 hold the values 0 to 7 and after that each bucket is 1/8 of the
+	// power of two of its values.
+	//
+
+	static final class Histogram {
+		private static final int SUB_BITS = 3;
+		private static final int SUB_BUCKETS = 1 << SUB_BITS;
+		private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+		private final AtomicLong sum = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+
+		static int bucketOf(long value) {
+			if (value < SUB_BUCKETS)
+				return (int)Math.max(0, value);
+			int exp = 63 - Long.numberOfLeadingZeros(value);
+			int sub = (int)(value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+			return ((exp - SUB_BITS + 1) << SUB_BITS) + sub;
+		}
+
+		// the greatest value of a bucket
+		static long highestValueOf(int bucket) {
+			if (bucket < SUB_BUCKETS)
+				return bucket;
+			int exp = (bucket >> SUB_BITS) + SUB_BITS - 1;
+			long lowest = (long)(SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << (exp - SUB_BITS);
+			return lowest + (1L << (exp - SUB_BITS)) - 1;
+		}
+
+		void record(long value) {
+			if (value < 0)
+				value = 0;
+			buckets.getAndIncrement(bucketOf(value));
+			sum.getAndAdd(value);
+			// the max is only written when it grows, which is rare after warm up
+			long m;
+			while (value > (m = max.get()) && !max.compareAndSet(m, value))
+				;
+		}
+
+		void reset() {
+			for (int i = 0; i < BUCKETS; i++)
+				buckets.set(i, 0);
+			sum.set(0);
+			max.set(0);
+		}
+
+		// the snapshot is not atomic, the buckets are read while being incremented
+		HistogramSnapshot snapshot() {
+			long[] counts = new long[BUCKETS];
+			long count = 0;
+			for (int i = 0; i < BUCKETS; i++)
+				count += counts[i] = buckets.get(i);
+			long maxValue = max.get();
+			return new HistogramSnapshot(count, count == 0 ? 0 : sum.get() / count / 1000,
+										 percentile(counts, count, 0.50, maxValue) / 1000,
+										 percentile(counts, count, 0.90, maxValue) / 1000,
+										 percentile(counts, count, 0.99, maxValue) / 1000,
+										 maxValue / 1000);
+		}
+
+		private static long percentile(long[] counts, long count, double p, long maxValue) {
+			if (count == 0)
+				return 0;
+			long rank = (long)Math.ceil(count * p), seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				if ((seen += counts[i]) >= rank)
+					return Math.min(highestValueOf(i), maxValue);
+			}
+			return maxValue;
+		}
+	}
+
+	//
+	// The values of a histogram, in microseconds, read through JMX as CompositeData.
+	//
+
+	public static class HistogramSnapshot {
+		private final long count, mean, p50, p90, p99, max;
+
+		public HistogramSnapshot(long count, long mean, long p50, long p90, long p99, long max) {
+			this.count = count; this.mean = mean;
+			this.p50 = p50; this.p90 = p90; this.p99 = p99; this.max = max;
+		}
+
+		// used by the JMX proxies to rebuild the snapshot
+		public static HistogramSnapshot from(CompositeData cd) {
+			return new HistogramSnapshot((Long)cd.get("count"), (Long)cd.get("mean"), (Long)cd.get("p50"),
+										 (Long)cd.get("p90"), (Long)cd.get("p99"), (Long)cd.get("max"));
+		}
+
+		public long getCount() { return count; }
+		public long getMean() { return mean; }
+		public long getP50() { return p50; }
+		public long getP90() { return p90; }
+		public long getP99() { return p99; }
+		public long getMax() { return max; }
+
+		public String toString() {
+			return String.format("count: %d, mean: %d, p50: %d, p90: %d, p99: %d, max: %d (us)",
+								 count, mean, p50, p90, p99, max);
+		}
+	}
+
+	//
+	// The state of a worker thread, accessed only by the worker thread.
+	//
+
+	private static final class Worker {
+		long lastTaskEnd;
+
+		Worker(long now) { lastTaskEnd = now; }
+	}
+
+	private final ThreadLocal<Worker> currentWorker = new ThreadLocal<Worker>();
+
+	//
+	// A task with its submission time, and the start time set by beforeExecute.
+	//
+
+	private static final class TimedTask implements Runnable {
+		final Runnable task;
+		final long submitted;
+		long started;
+
+		TimedTask(Runnable task, long submitted) {
+			this.task = task;
+			this.submitted = submitted;
+		}
+
+		public void run() { task.run(); }
+
+		public String toString() { return task.toString(); }
+	}
+
+	private final String name;
+	private final int sampleMask;
+	private final Histogram injectionInterval = new Histogram();
+	private final Histogram queueWait = new Histogram();
+	private final Histogram runTime = new Histogram();
+	private final Histogram idleBeforeRetire = new Histogram();
+	private final AtomicLong lastCreationTime = new AtomicLong(NO_CREATION);
+	private final AtomicLong createdThreads = new AtomicLong();
+	private final AtomicLong retiredThreads = new AtomicLong();
+	private final AtomicInteger activeCount = new AtomicInteger();
+	private final AtomicInteger peakActiveCount = new AtomicInteger();
+	private final LongAdder completedTasks = new LongAdder();
+	private final LongAdder failedTasks = new LongAdder();
+	private ObjectName objectName;
+
+	// the default sample interval of the queue wait and run time
+	public static final int DEFAULT_SAMPLE_INTERVAL = 16;
+
+	// lastCreationTime before the creation of the first worker
+	private static final long NO_CREATION = Long.MIN_VALUE;
+
+	// sampleInterval must be a power of two; 1 records the times of all the tasks
+	public ThreadPoolTelemetry(String name, int sampleInterval) {
+		if (name == null)
+			throw new IllegalArgumentException("name");
+		if (sampleInterval < 1 || Integer.bitCount(sampleInterval) != 1)
+			throw new IllegalArgumentException("sampleInterval");
+		this.name = name;
+		this.sampleMask = sampleInterval - 1;
+	}
+
+	public ThreadPoolTelemetry(String name) { this(name, DEFAULT_SAMPLE_INTERVAL); }
+
+	public String getName() { return name; }
+
+	public int getSampleInterval() { return sampleMask + 1; }
+
+	//
+	// The hooks called by the thread pool.
+	//
+
+	// Wrap a thread factory, to record the creation and the retirement of the workers.
+	public ThreadFactory threadFactory(ThreadFactory factory) {
+		return (runnable) -> {
+			Thread thread = factory.newThread(() -> {
+				Worker worker = new Worker(System.nanoTime());
+				currentWorker.set(worker);
+				try {
+					runnable.run();
+				} finally {
+					// the worker body returns after shutdown or after the keep alive time
+					idleBeforeRetire.record(System.nanoTime() - worker.lastTaskEnd);
+					retiredThreads.incrementAndGet();
+					currentWorker.remove();
+				}
+			});
+			if (thread != null) {
+				// the first creation has no previous one, so it is not an interval
+				long now = System.nanoTime();
+				long previous = lastCreationTime.getAndSet(now);
+				if (previous != NO_CREATION)
+					injectionInterval.record(now - previous);
+				createdThreads.incrementAndGet();
+			}
+			return thread;
+		};
+	}
+
+	// Wrap a task on submission, to record its queue wait, if the task is sampled.
+	public Runnable wrap(Runnable task) {
+		if (task == null)
+			throw new NullPointerException();
+		if (sampleMask != 0 && (ThreadLocalRandom.current().nextInt() & sampleMask) != 0)
+			return task;
+		return new TimedTask(task, System.nanoTime());
+	}
+
+	public void beforeExecute(Thread thread, Runnable task) {
+		int active = activeCount.incrementAndGet();
+		int peak;
+		while (active > (peak = peakActiveCount.get()) && !peakActiveCount.compareAndSet(peak, active))
+			;
+		if (task instanceof TimedTask) {
+			TimedTask timed = (TimedTask)task;
+			timed.started = System.nanoTime();
+			queueWait.record(timed.started - timed.submitted);
+		}
+	}
+
+	public void afterExecute(Runnable task, Throwable throwable) {
+		long now = System.nanoTime();
+		activeCount.decrementAndGet();
+		if (task instanceof TimedTask)
+			runTime.record(now - ((TimedTask)task).started);
+		if (throwable == null)
+			completedTasks.increment();
+		else
+			failedTasks.increment();
+		Worker worker = currentWorker.get();
+		if (worker != null)
+			worker.lastTaskEnd = now;
+	}
+
+	//
+	// ThreadPoolTelemetryMXBean
+	//
+
+	public long getCreatedThreads() { return createdThreads.get(); }
+	public long getRetiredThreads() { return retiredThreads.get(); }
+	public int getLiveThreads() { return (int)(createdThreads.get() - retiredThreads.get()); }
+	public int getActiveCount() { return activeCount.get(); }
+	public int getPeakActiveCount() { return peakActiveCount.get(); }
+	public long getCompletedTasks() { return completedTasks.sum(); }
+	public long getFailedTasks() { return failedTasks.sum(); }
+	public HistogramSnapshot getInjectionInterval() { return injectionInterval.snapshot(); }
+	public HistogramSnapshot getQueueWait() { return queueWait.snapshot(); }
+	public HistogramSnapshot getRunTime() { return runTime.snapshot(); }
+	public HistogramSnapshot getIdleBeforeRetire() { return idleBeforeRetire.snapshot(); }
+
+	public void reset() {
+		queueWait.reset();
+		runTime.reset();
+		injectionInterval.reset();
+		idleBeforeRetire.reset();
+		completedTasks.reset();
+		failedTasks.reset();
+		peakActiveCount.set(activeCount.get());
+	}
+
+	//
+	// Register and unregister the telemetry in the platform MBean server.
+	//
+
+	public synchronized ThreadPoolTelemetry register() {
+		if (objectName != null)
+			throw new IllegalStateException("already registered");
+		try {
+			ObjectName on = new ObjectName("pc.threadpool:type=ThreadPoolTelemetry,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+			objectName = on;
+		} catch (JMException jme) {
+			throw new IllegalStateException("JMX registration failed", jme);
+		}
+		return this;
+	}
+
+	public synchronized void unregister() {
+		if (objectName == null)
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (JMException jme) {
+			// the MBean was unregistered by someone else
+		}
+		objectName = null;
+	}
+
+	public synchronized ObjectName getObjectName() { return objectName; }
+
+	public String toString() {
+		return String.format("--%s: threads created: %d, retired: %d; tasks completed: %d, failed: %d; " +
+							 "peak active: %d%n  injection interval: %s%n  queue wait:         %s%n" +
+							 "  run time:           %s%n  idle before retire: %s",
+							 name, getCreatedThreads(), getRetiredThreads(), getCompletedTasks(),
+							 getFailedTasks(), getPeakActiveCount(), getInjectionInterval(), getQueueWait(),
+							 getRunTime(), getIdleBeforeRetire());
+	}
+
+	//
+	// A ThreadPoolExecutor with telemetry.
+	//
+
+	public static class Executor extends ThreadPoolExecutor {
+		private final ThreadPoolTelemetry telemetry;
+
+		public Executor(ThreadPoolTelemetry telemetry, int corePoolSize, int maximumPoolSize,
+						long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue,
+						ThreadFactory threadFactory, RejectedExecutionHandler handler) {
+			super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue,
+				  telemetry.threadFactory(threadFactory), handler);
+			this.telemetry = telemetry;
+		}
+
+		public Executor(ThreadPoolTelemetry telemetry, int corePoolSize, int maximumPoolSize,
+						long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue) {
+			this(telemetry, corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue,
+				 Executors.defaultThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+		}
+
+		public ThreadPoolTelemetry getTelemetry() { return telemetry; }
+
+		// The time, in nanoseconds, that the oldest timed task of the work queue has been
+		// waiting, or -1 if no timed task is queued. The queue is FIFO, so it is the wait
+		// of the head of the queue when all the tasks are timed (a sampleInterval of 1),
+		// and a lower bound of it otherwise.
+		public long getHeadQueueWait() {
+			long now = System.nanoTime();
+			for (Runnable task : getQueue()) {
+				if (task instanceof TimedTask)
+					return Math.max(0L, now - ((TimedTask)task).submitted);
+			}
+			return -1L;
+		}
+
+		public void execute(Runnable command) {
+			super.execute(telemetry.wrap(command));
+		}
+
+		protected void beforeExecute(Thread thread, Runnable task) {
+			telemetry.beforeExecute(thread, task);
+		}
+
+		protected void afterExecute(Runnable task, Throwable throwable) {
+			telemetry.afterExecute(task, throwable);
+		}
+
+		protected void terminated() {
+			telemetry.unregister();
+		}
+	}
+
+	//
+	// Test: the overhead per task, measured as the difference between the time to
+	// execute a sequence of empty tasks on one worker thread with and without
+	// telemetry, and the telemetry read through JMX.
+	//
+
+	private static double nanosPerTask(ThreadPoolExecutor pool, int tasks) throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(1);
+		Runnable empty = () -> {};
+		long start = System.nanoTime();
+		for (int i = 0; i < tasks - 1; i++)
+			pool.execute(empty);
+		pool.execute(done::countDown);
+		done.await();
+		return (double)(System.nanoTime() - start) / tasks;
+	}
+
+	private static double bestNanosPerTask(ThreadPoolExecutor pool, int tasks) throws InterruptedException {
+		double best = Double.MAX_VALUE;
+		for (int i = 0; i < 5; i++)
+			best = Math.min(best, nanosPerTask(pool, tasks));
+		return best;
+	}
+
+	private static void testOverhead(int tasks, int sampleInterval) throws InterruptedException {
+		ThreadPoolExecutor plain = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+														  new LinkedBlockingQueue<Runnable>());
+		ThreadPoolExecutor instrumented = new Executor(new ThreadPoolTelemetry("overhead", sampleInterval),
+													   1, 1, 0, TimeUnit.SECONDS,
+													   new LinkedBlockingQueue<Runnable>());
+		// warm up
+		bestNanosPerTask(plain, tasks);
+		bestNanosPerTask(instrumented, tasks);
+		double plainCost = bestNanosPerTask(plain, tasks);
+		double instrumentedCost = bestNanosPerTask(instrumented, tasks);
+		plain.shutdown();
+		instrumented.shutdown();
+		System.out.printf("--%d empty tasks, sample interval %d: %.1f ns/task without telemetry, " +
+						  "%.1f ns/task with telemetry, overhead: %.1f ns/task%n", tasks, sampleInterval,
+						  plainCost, instrumentedCost, instrumentedCost - plainCost);
+	}
+
+	private static void testTelemetry() throws Exception {
+		// all the tasks are timed, as there are only a few
+		ThreadPoolTelemetry telemetry = new ThreadPoolTelemetry("test", 1).register();
+		ThreadPoolExecutor pool = new Executor(telemetry, 2, 4, 200, TimeUnit.MILLISECONDS,
+											   new ArrayBlockingQueue<Runnable>(8));
+		CountDownLatch done = new CountDownLatch(12);
+		for (int i = 0; i < 12; i++) {
+			final int arg = i;
+			pool.execute(() -> {
+				try {
+					Thread.sleep(10 + arg);
+				} catch (InterruptedException ie) {}
+				done.countDown();
+			});
+		}
+		done.await();
+		// wait for the retirement of the workers above the core pool size
+		Thread.sleep(500);
+
+		// read the telemetry as a JMX client does
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		CompositeData runTime = (CompositeData)server.getAttribute(telemetry.getObjectName(), "RunTime");
+		System.out.printf("--JMX %s: RunTime.count: %d, RunTime.p50: %d us, CreatedThreads: %d, " +
+						  "RetiredThreads: %d%n", telemetry.getObjectName(), runTime.get("count"),
+						  runTime.get("p50"), server.getAttribute(telemetry.getObjectName(), "CreatedThreads"),
+						  server.getAttribute(telemetry.getObjectName(), "RetiredThreads"));
+		pool.shutdown();
+		pool.awaitTermination(5, TimeUnit.SECONDS);
+		// the pool terminates before the last worker leaves the wrapper of its body
+		for (int i = 0; telemetry.getLiveThreads() > 0 && i < 100; i++)
+			Thread.sleep(10);
+		System.out.println(telemetry);
+		if (telemetry.getCompletedTasks() != 12 || telemetry.getCreatedThreads() != 4 ||
+			telemetry.getRetiredThreads() != 4 || telemetry.getObjectName() != null)
+			System.out.println("***error: unexpected telemetry");
+	}
+
+	public static void main(String... args) throws Exception {
+		int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		testTelemetry();
+		testOverhead(tasks, DEFAULT_SAMPLE_INTERVAL);
+		testOverhead(tasks, 1);
+	}
+}
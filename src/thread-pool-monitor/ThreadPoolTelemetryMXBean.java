@@ -0,0 +1,42 @@
+/**
+ *
+ * ISEL, LEIC, Concurrent Programming
+ *
+ * The management interface of ThreadPoolTelemetry, visible in JMX clients (jconsole,
+ * VisualVM, ...) under "pc.threadpool:type=ThreadPoolTelemetry,name=<pool name>".
+ *
+ * All times are in microseconds.
+ *
+ **/
+
+public interface ThreadPoolTelemetryMXBean {
+
+	// the number of worker threads created, retired and currently alive
+	long getCreatedThreads();
+	long getRetiredThreads();
+	int getLiveThreads();
+
+	// the number of workers currently running a task, and its maximum value
+	int getActiveCount();
+	int getPeakActiveCount();
+
+	long getCompletedTasks();
+	long getFailedTasks();
+
+	// time between the creation of two consecutive worker threads (the first
+	// creation is not recorded)
+	ThreadPoolTelemetry.HistogramSnapshot getInjectionInterval();
+
+	// time between the submission of a task and the start of its execution, for
+	// the sampled tasks
+	ThreadPoolTelemetry.HistogramSnapshot getQueueWait();
+
+	// execution time of the sampled tasks
+	ThreadPoolTelemetry.HistogramSnapshot getRunTime();
+
+	// time between the end of the last task of a worker thread and its exit
+	ThreadPoolTelemetry.HistogramSnapshot getIdleBeforeRetire();
+
+	// clear the histograms and the task counters (the thread counters are kept)
+	void reset();
+}
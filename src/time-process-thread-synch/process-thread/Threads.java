@@ -4,12 +4,27 @@
  *
  * Test thread creation in Java
  *
+ * Usage: java Threads
+ *          creates up to MAX_THREADS threads blocked on a CountDownLatch
+ *        java Threads -bench [maxCount [kind ...]]
+ *          for each kind of thread, and each count from 1000 to maxCount (x10),
+ *          creates, starts and parks count threads, and writes a CSV line with the
+ *          creation and start latency, the memory per thread and the cost of
+ *          unparking a thread. The kinds are "platform" (default stack size),
+ *          "platform:<stack KB>" and "virtual" (Java 21 or later); the default is
+ *          platform, platform:256, platform:1024 and virtual, up to 20000 platform
+ *          and 1000000 virtual threads (maxCount limits both)
+ *
  * Carlos Martins, October 2016
  *
  ***/
 
 import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
 import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 
 public class Threads {
@@ -20,7 +35,168 @@ public class Threads {
 
 	private static CountDownLatch waitEvent = new CountDownLatch(1); 
 
+	//
+	// Benchmark.
+	//
+
+	private static final int MAX_VIRTUAL_THREADS = 1000000;
+
+	// Creates an unstarted thread of a kind.
+	private interface ThreadMaker {
+		Thread make(Runnable body) throws Exception;
+	}
+
+	//
+	// Virtual threads are created by reflection, as Thread.ofVirtual() only exists
+	// since Java 21 (returns null on older versions).
+	//
+
+	private static ThreadMaker virtualThreadMaker() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+			return (body) -> (Thread)unstarted.invoke(builder, body);
+		} catch (ReflectiveOperationException roe) {
+			return null;
+		}
+	}
+
+	// The resident memory of the process, in KB (Linux only, -1 elsewhere).
+	private static long residentKB() {
+		try {
+			for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+				if (line.startsWith("VmRSS:"))
+					return Long.parseLong(line.replaceAll("[^0-9]", ""));
+			}
+		} catch (IOException | NumberFormatException ex) {}
+		return -1;
+	}
+
+	private static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		System.gc();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	// The threads of a run park until released.
+	private static volatile boolean released;
+
+	//
+	// Create, start, park and unpark count threads, and write a CSV line with the
+	// results (if report is true). Returns false if the threads could not be created.
+	//
+
+	private static boolean benchmark(String kind, ThreadMaker maker, int count, boolean report)
+																	throws InterruptedException {
+		CountDownLatch started = new CountDownLatch(count);
+		CountDownLatch woken = new CountDownLatch(count);
+		Thread[] threads = new Thread[count];
+		Runnable body = () -> {
+			started.countDown();
+			while (!released)
+				LockSupport.park();
+			woken.countDown();
+		};
+		released = false;
+		// let the memory of the previous run be returned to the system
+		long heapBefore = usedHeap();
+		Thread.sleep(200);
+		long rssBefore = residentKB();
+
+		// creation
+		int created = 0;
+		long createTime = System.nanoTime();
+		try {
+			for (; created < count; created++)
+				threads[created] = maker.make(body);
+		} catch (Throwable ex) {
+			System.out.printf("%s,%d,*** creation failed after %d threads: %s%n", kind, count, created, ex);
+			return false;
+		}
+		createTime = System.nanoTime() - createTime;
+
+		// start, until all the threads are running
+		int startedCount = 0;
+		long startTime = System.nanoTime();
+		Throwable failure = null;
+		try {
+			for (; startedCount < count; startedCount++)
+				threads[startedCount].start();
+			started.await();
+		} catch (Throwable ex) {
+			failure = ex;
+		}
+		startTime = System.nanoTime() - startTime;
+
+		// wait until all the threads are parked, and measure the memory
+		if (failure == null) {
+			for (Thread thread : threads) {
+				while (thread.getState() != Thread.State.WAITING)
+					Thread.yield();
+			}
+		}
+		long rssAfter = residentKB(), heapAfter = usedHeap();
+
+		// unpark all the threads, until all have woken up
+		long unparkTime = System.nanoTime();
+		released = true;
+		for (int i = 0; i < startedCount; i++)
+			LockSupport.unpark(threads[i]);
+		if (failure == null)
+			woken.await();
+		unparkTime = System.nanoTime() - unparkTime;
+		for (int i = 0; i < startedCount; i++)
+			threads[i].join();
+		if (failure != null) {
+			System.out.printf("%s,%d,*** start failed after %d threads: %s%n", kind, count, startedCount, failure);
+			return false;
+		}
+		if (report)
+			System.out.printf("%s,%d,%d,%d,%s,%d,%d%n", kind, count, createTime / count, startTime / count,
+							  rssBefore < 0 ? "n/a" : String.valueOf((rssAfter - rssBefore) * 1024 / count),
+							  (heapAfter - heapBefore) / count, unparkTime / count);
+		return true;
+	}
+
+	private static void benchmark(String[] args) throws InterruptedException {
+		int maxCount = args.length > 1 ? Integer.parseInt(args[1]) : MAX_VIRTUAL_THREADS;
+		String[] kinds = args.length > 2 ? java.util.Arrays.copyOfRange(args, 2, args.length)
+										 : new String[] { "platform", "platform:256", "platform:1024", "virtual" };
+		System.out.println("kind,threads,create_ns,start_ns,rss_bytes_per_thread,heap_bytes_per_thread," +
+						   "unpark_ns");
+		for (String kind : kinds) {
+			ThreadMaker maker;
+			int kindMax = Math.min(maxCount, MAX_THREADS);
+			if (kind.equals("virtual")) {
+				if ((maker = virtualThreadMaker()) == null) {
+					System.out.println("virtual,*** virtual threads require Java 21 or later");
+					continue;
+				}
+				kindMax = Math.min(maxCount, MAX_VIRTUAL_THREADS);
+			} else if (kind.equals("platform")) {
+				maker = (body) -> new Thread(body);
+			} else if (kind.startsWith("platform:")) {
+				long stackSize = Long.parseLong(kind.substring("platform:".length())) * 1024;
+				maker = (body) -> new Thread(null, body, "bench", stackSize);
+			} else {
+				throw new IllegalArgumentException("kind");
+			}
+			// warm up
+			benchmark(kind, maker, 1000, false);
+			for (int count = 1000; count <= kindMax; count *= 10) {
+				if (!benchmark(kind, maker, count, true))
+					break;
+				if (count < kindMax && count * 10 > kindMax)
+					benchmark(kind, maker, kindMax, true);
+			}
+		}
+	}
+
 	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length > 0 && args[0].equals("-bench")) {
+			benchmark(args);
+			return;
+		}
 		int count = 0;
 		Thread[] threads = new Thread[MAX_THREADS];
 
@@ -0,0 +1,469 @@
+/***
+ *
+ * ISEL, LEIC, Concurrent Programming
+ *
+ * Java: Execution of an action graph (DAG) on a thread pool
+ *
+ * Graph hard-wires its action graph on four threads and hand-picked synchronizers.
+ * Here each node declares the nodes it depends on, and holds an atomic counter of
+ * the dependencies not yet completed. The node is submitted to the executor when
+ * the counter reaches zero, by the thread that completed its last dependency, so
+ * no thread waits for a dependency and the number of threads is the one of the
+ * executor, whatever the number of nodes.
+ *
+ * With critical path first scheduling, the ready nodes are kept in a priority queue
+ * ordered by the length of the longest path (the sum of the costs) from the node to
+ * the end of the graph, and each task submitted to the executor runs the ready node
+ * with the longest path, which shortens the total time when there are more ready
+ * nodes than threads.
+ *
+ * If an action throws, the nodes that depend on it are skipped (not executed) and
+ * execute throws ExecutionException with the first exception as cause. The same
+ * happens when the executor rejects the task of a node, which is then skipped.
+ * If the thread that called execute is interrupted, the nodes not yet started are
+ * skipped and execute throws InterruptedException after the nodes in flight end.
+ *
+ * Usage: java DagExecutor [nodes [threads]]
+ *        executes the graph of Graph and a random graph with "nodes" nodes
+ *        (default 2000) on "threads" threads (default 8), in FIFO and critical path
+ *        first order
+ *
+ ***/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+
+public final class DagExecutor {
+
+	//
+	// A node of the graph.
+	//
+
+	public static final class Node {
+		private static final AtomicIntegerFieldUpdater<Node> PENDING =
+							AtomicIntegerFieldUpdater.newUpdater(Node.class, "pending");
+
+		private final String name;
+		private final int index;
+		private final long cost;
+		private final Runnable action;
+		private final Node[] dependencies;
+		private final List<Node> successors = new ArrayList<Node>();
+
+		// the length of the longest path from this node to the end of the graph
+		private long criticalPath;
+
+		// the dependencies not yet completed in the current execution
+		private volatile int pending;
+
+		// set when a dependency failed or was skipped, before the dependency decrements pending
+		private volatile boolean skipped;
+
+		// the times, relative to the start of the execution, and the thread of the action
+		private long start, end;
+		private String threadName;
+
+		private Node(String name, int index, long cost, Runnable action, Node[] dependencies) {
+			this.name = name;
+			this.index = index;
+			this.cost = cost;
+			this.action = action;
+			this.dependencies = dependencies;
+		}
+
+		public String getName() { return name; }
+		public long getCost() { return cost; }
+		public long getCriticalPath() { return criticalPath; }
+		public boolean isSkipped() { return skipped; }
+
+		// the times of the last execution, in nanoseconds since its start
+		public long getStart() { return start; }
+		public long getEnd() { return end; }
+		public String getThreadName() { return threadName; }
+
+		public String toString() { return name; }
+	}
+
+	private final List<Node> nodes = new ArrayList<Node>();
+	private volatile boolean executing;
+
+	// the state of the current execution
+	private Executor executor;
+	private boolean criticalPathFirst;
+	private PriorityBlockingQueue<Node> ready;
+	private long startTime;
+	private final AtomicInteger remaining = new AtomicInteger();
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	private CountDownLatch done;
+	private volatile boolean cancelled;
+
+	//
+	// Add a node that depends on already added nodes, so the graph has no cycles.
+	// The cost is the expected duration of the action, in any unit, used to compute
+	// the critical path.
+	//
+
+	public synchronized Node add(String name, long cost, Runnable action, Node... dependencies) {
+		if (executing)
+			throw new IllegalStateException("executing");
+		if (action == null)
+			throw new IllegalArgumentException("action");
+		if (cost < 0)
+			throw new IllegalArgumentException("cost");
+		for (Node dependency : dependencies) {
+			if (dependency == null || dependency.index >= nodes.size() || nodes.get(dependency.index) != dependency)
+				throw new IllegalArgumentException("dependencies");
+		}
+		Node node = new Node(name, nodes.size(), cost, action, dependencies.clone());
+		for (Node dependency : node.dependencies)
+			dependency.successors.add(node);
+		nodes.add(node);
+		return node;
+	}
+
+	public Node add(String name, Runnable action, Node... dependencies) {
+		return add(name, 1, action, dependencies);
+	}
+
+	public synchronized List<Node> getNodes() { return new ArrayList<Node>(nodes); }
+
+	// The length of the critical path of the graph.
+	public synchronized long getCriticalPath() {
+		computeCriticalPaths();
+		long max = 0;
+		for (Node node : nodes)
+			max = Math.max(max, node.criticalPath);
+		return max;
+	}
+
+	// The nodes are added after their dependencies, so the reverse order of addition
+	// visits the successors of a node before the node.
+	private void computeCriticalPaths() {
+		for (int i = nodes.size() - 1; i >= 0; i--) {
+			Node node = nodes.get(i);
+			long longest = 0;
+			for (Node successor : node.successors)
+				longest = Math.max(longest, successor.criticalPath);
+			node.criticalPath = node.cost + longest;
+		}
+	}
+
+	//
+	// Execute the graph on the executor, and wait until all the nodes complete. The
+	// graph can be executed more than once, but not concurrently.
+	//
+
+	public void execute(Executor executor, boolean criticalPathFirst)
+									throws InterruptedException, ExecutionException {
+		List<Node> roots = new ArrayList<Node>();
+		synchronized (this) {
+			if (executing)
+				throw new IllegalStateException("executing");
+			executing = true;
+			if (criticalPathFirst)
+				computeCriticalPaths();
+			this.executor = executor;
+			this.criticalPathFirst = criticalPathFirst;
+			ready = criticalPathFirst ? new PriorityBlockingQueue<Node>(16, (a, b) ->
+								a.criticalPath != b.criticalPath ? Long.compare(b.criticalPath, a.criticalPath)
+																 : Integer.compare(a.index, b.index)) : null;
+			failure.set(null);
+			cancelled = false;
+			for (Node node : nodes) {
+				node.pending = node.dependencies.length;
+				node.skipped = false;
+				node.start = node.end = 0;
+				node.threadName = null;
+				if (node.pending == 0)
+					roots.add(node);
+			}
+			remaining.set(nodes.size());
+			done = new CountDownLatch(1);
+		}
+		try {
+			if (nodes.isEmpty())
+				return;
+			startTime = System.nanoTime();
+			for (Node root : roots)
+				schedule(root);
+			try {
+				done.await();
+			} catch (InterruptedException ie) {
+				// skip the nodes not yet started and wait for the ones in flight, so the
+				// next execution does not reset the state of the nodes under them
+				cancelled = true;
+				awaitUninterruptibly(done);
+				throw ie;
+			}
+			Throwable cause = failure.get();
+			if (cause != null)
+				throw new ExecutionException(cause);
+		} finally {
+			executing = false;
+		}
+	}
+
+	private static void awaitUninterruptibly(CountDownLatch latch) {
+		boolean interrupted = false;
+		for (;;)
+			try {
+				latch.await();
+				break;
+			} catch (InterruptedException ie) {
+				interrupted = true;
+			}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private void schedule(Node node) {
+		Node rejected = node;
+		try {
+			if (node.skipped) {
+				// no action, only propagate the skip (on the executor, as a long chain of
+				// skipped nodes would otherwise be a deep recursion)
+				executor.execute(() -> complete(node));
+			} else if (criticalPathFirst) {
+				ready.add(node);
+				// each task runs the ready node with the longest path, so if the task is
+				// rejected, the node left without a task is not necessarily this one
+				rejected = null;
+				executor.execute(() -> run(ready.poll()));
+			} else {
+				executor.execute(() -> run(node));
+			}
+		} catch (RuntimeException ex) {
+			// the executor rejected the task (e.g. it was shut down), so the node is
+			// skipped, as if its action had thrown, and the execution still ends
+			if (rejected == null)
+				rejected = ready.poll();
+			failure.compareAndSet(null, ex);
+			rejected.skipped = true;
+			complete(rejected);
+		}
+	}
+
+	private void run(Node node) {
+		if (cancelled) {
+			node.skipped = true;
+			complete(node);
+			return;
+		}
+		node.threadName = Thread.currentThread().getName();
+		node.start = System.nanoTime() - startTime;
+		try {
+			node.action.run();
+		} catch (Throwable ex) {
+			failure.compareAndSet(null, ex);
+			node.skipped = true;
+		}
+		node.end = System.nanoTime() - startTime;
+		complete(node);
+	}
+
+	// Release the successors of a completed or skipped node.
+	private void complete(Node node) {
+		for (Node successor : node.successors) {
+			if (node.skipped)
+				successor.skipped = true;
+			if (Node.PENDING.decrementAndGet(successor) == 0)
+				schedule(successor);
+		}
+		if (remaining.decrementAndGet() == 0)
+			done.countDown();
+	}
+
+	//
+	// The times of the last execution, one line per node, in start order.
+	//
+
+	public synchronized void showTimes() {
+		Node[] byStart = nodes.toArray(new Node[0]);
+		Arrays.sort(byStart, (a, b) -> Long.compare(a.start, b.start));
+		for (Node node : byStart) {
+			if (node.skipped && node.threadName == null)
+				System.out.printf("  %-8s skipped%n", node.name);
+			else
+				System.out.printf("  %-8s %6d .. %6d ms  on %s%n", node.name, node.start / 1000000,
+								  node.end / 1000000, node.threadName);
+		}
+	}
+
+	// The time from the start of the last execution to the end of its last node.
+	public synchronized long getMakespan() {
+		long makespan = 0;
+		for (Node node : nodes)
+			makespan = Math.max(makespan, node.end);
+		return makespan;
+	}
+
+	//
+	// Test and benchmark.
+	//
+
+	private static void sleepUninterruptibly(long millis) {
+		boolean interrupted = false;
+		for (;;)
+			try {
+				Thread.sleep(millis);
+				break;
+			} catch (InterruptedException ie) {
+				interrupted = true;
+			}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	// The graph of Graph: A -> {B, C, D, E}, {D, E} -> F, {B, C, F} -> G.
+	private static void testGraph(ExecutorService pool) throws InterruptedException, ExecutionException {
+		Random rand = new Random(1);
+		DagExecutor graph = new DagExecutor();
+		long[] durations = new long[7];
+		for (int i = 0; i < durations.length; i++)
+			durations[i] = rand.nextInt(500) + 50;
+		Runnable[] actions = new Runnable[7];
+		for (int i = 0; i < actions.length; i++) {
+			final long duration = durations[i];
+			actions[i] = () -> sleepUninterruptibly(duration);
+		}
+		Node a = graph.add("A", durations[0], actions[0]);
+		Node b = graph.add("B", durations[1], actions[1], a);
+		Node c = graph.add("C", durations[2], actions[2], a);
+		Node d = graph.add("D", durations[3], actions[3], a);
+		Node e = graph.add("E", durations[4], actions[4], a);
+		Node f = graph.add("F", durations[5], actions[5], d, e);
+		Node g = graph.add("G", durations[6], actions[6], b, c, f);
+		graph.execute(pool, true);
+		System.out.printf("--Graph: makespan %d ms, critical path %d ms%n", graph.getMakespan() / 1000000,
+						  graph.getCriticalPath());
+		graph.showTimes();
+		if (g.start < f.end || g.start < b.end || g.start < c.end || f.start < d.end || f.start < e.end ||
+			b.start < a.end)
+			System.out.println("***error: a node started before one of its dependencies ended");
+
+		// a failure skips the nodes that depend on the failed node
+		DagExecutor failing = new DagExecutor();
+		Node x = failing.add("X", () -> {});
+		Node y = failing.add("Y", () -> { throw new IllegalStateException("Y failed"); }, x);
+		Node z = failing.add("Z", () -> {}, x);
+		Node w = failing.add("W", () -> {}, y, z);
+		try {
+			failing.execute(pool, false);
+			System.out.println("***error: the failure was not reported");
+		} catch (ExecutionException ee) {
+			System.out.printf("--failure: %s; skipped: %s%s%s%n", ee.getCause().getMessage(),
+							  y.isSkipped() ? "Y " : "", w.isSkipped() ? "W " : "", z.isSkipped() ? "Z" : "");
+			if (!w.isSkipped() || z.isSkipped())
+				System.out.println("***error: wrong skipped nodes");
+		}
+
+		// a task rejected by the executor skips its node, and the execution still ends
+		for (boolean criticalPathFirst : new boolean[] { false, true }) {
+			ExecutorService shortLived = Executors.newSingleThreadExecutor();
+			DagExecutor rejecting = new DagExecutor();
+			Node r = rejecting.add("R", shortLived::shutdown);
+			Node s = rejecting.add("S", () -> {}, r);
+			try {
+				rejecting.execute(shortLived, criticalPathFirst);
+				System.out.println("***error: the rejection was not reported");
+			} catch (ExecutionException ee) {
+				System.out.printf("--rejection: %s; skipped: %s%n", ee.getCause().getClass().getSimpleName(),
+								  s.isSkipped() ? "S" : "");
+				if (!(ee.getCause() instanceof RejectedExecutionException) || !s.isSkipped())
+					System.out.println("***error: wrong rejection handling");
+			}
+		}
+
+		// an interrupted execution skips the nodes not yet started, and ends after the
+		// nodes in flight
+		DagExecutor cancelling = new DagExecutor();
+		AtomicInteger running = new AtomicInteger();
+		Node p = cancelling.add("P", () -> {
+			running.incrementAndGet();
+			sleepUninterruptibly(200);
+			running.decrementAndGet();
+		});
+		Node q = cancelling.add("Q", () -> {}, p);
+		Thread caller = Thread.currentThread();
+		new Thread(() -> {
+			sleepUninterruptibly(50);
+			caller.interrupt();
+		}).start();
+		try {
+			cancelling.execute(pool, false);
+			System.out.println("***error: the interrupt was not reported");
+		} catch (InterruptedException ie) {
+			System.out.printf("--interrupted: in flight after return: %d; skipped: %s%n", running.get(),
+							  q.isSkipped() ? "Q" : "");
+			if (running.get() != 0 || !q.isSkipped())
+				System.out.println("***error: the execution ended before the nodes in flight");
+		}
+	}
+
+	// A random layered graph: each node depends on up to 3 nodes of the previous
+	// layers, and costs 1 to 4 ms, with a few long nodes that form a long chain.
+	private static DagExecutor randomGraph(int count, Random rand) {
+		DagExecutor graph = new DagExecutor();
+		List<Node> added = new ArrayList<Node>();
+		Node chain = null;
+		for (int i = 0; i < count; i++) {
+			long cost;
+			Node[] deps;
+			if (i % 50 == 0) {
+				// the long chain
+				cost = 20;
+				deps = chain == null ? new Node[0] : new Node[] { chain };
+			} else {
+				cost = rand.nextInt(4) + 1;
+				int ndeps = added.isEmpty() ? 0 : rand.nextInt(Math.min(3, added.size()) + 1);
+				deps = new Node[ndeps];
+				for (int j = 0; j < ndeps; j++)
+					deps[j] = added.get(Math.max(0, added.size() - 1 - rand.nextInt(200)));
+				deps = Arrays.stream(deps).distinct().toArray(Node[]::new);
+			}
+			final long millis = cost;
+			Node node = graph.add("N" + i, cost, () -> sleepUninterruptibly(millis), deps);
+			if (i % 50 == 0)
+				chain = node;
+			added.add(node);
+		}
+		return graph;
+	}
+
+	public static void main(String... args) throws InterruptedException, ExecutionException {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			testGraph(pool);
+			DagExecutor graph = randomGraph(count, new Random(2));
+			long work = 0;
+			for (Node node : graph.getNodes())
+				work += node.getCost();
+			System.out.printf("--random graph: %d nodes, %d threads, work %d ms, critical path %d ms, " +
+							  "lower bound %d ms%n", count, threads, work, graph.getCriticalPath(),
+							  Math.max(graph.getCriticalPath(), work / threads));
+			for (int run = 0; run < 2; run++) {
+				for (boolean criticalPathFirst : new boolean[] { false, true }) {
+					graph.execute(pool, criticalPathFirst);
+					System.out.printf("  %-20s makespan %d ms%n", criticalPathFirst ? "critical path first:"
+																				 : "FIFO:", graph.getMakespan() / 1000000);
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/***
+ *
+ * ISEL, LEIC, Concurrent Programming
+ *
+ * Java: Measure the cost of false sharing on the current machine
+ *
+ * Each thread increments its own counter (there is no true sharing). The counters
+ * are placed in a long[] at a distance (stride) of 1, 2, 4, 8 and 16 longs, that is,
+ * from adjacent slots to one slot each 128 bytes, and in the padded counters
+ * PaddedLongArray and PaddedLong. The throughput of each thread is compared with
+ * the throughput with the counters 128 bytes apart (the layout of PaddedLongArray,
+ * with the same code), which shows the loss due to false sharing and the minimum
+ * distance between counters that avoids it on this machine. When there are more
+ * threads than processors, the threads do not all run at the same time and the
+ * differences are scheduling noise, so the minimum distance is not concluded.
+ *
+ * Usage: java FalseSharing [threads [millis]]
+ *        (default: the number of processors, at least 2, and 1000 ms per run; each
+ *        measure is the best of 3 runs)
+ *
+ ***/
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+public class FalseSharing {
+
+	private static final VarHandle ELEMENT = MethodHandles.arrayElementVarHandle(long[].class);
+
+	// the loss, in percentage, below which we consider that there is no false sharing
+	private static final double MAX_LOSS = 5.0;
+
+	// the number of runs of each measure, whose best result is used
+	private static final int RUNS = 3;
+
+	//
+	// Test running flag.
+	//
+
+	private static volatile boolean running;
+
+	// the increment done by each thread, which receives the index of the thread
+	private interface Increment {
+		void increment(int tid);
+	}
+
+	//
+	// Run "threads" threads incrementing their counters during "millis" ms, and
+	// return the throughput of each thread, in millions of increments per second.
+	//
+
+	private static double run(int threads, long millis, Increment increment) throws InterruptedException {
+		long[] counts = new long[threads];
+		Thread[] incThreads = new Thread[threads];
+		running = true;
+		for (int i = 0; i < threads; i++) {
+			final int tid = i;
+			incThreads[i] = new Thread(() -> {
+				long count = 0;
+				do {
+					increment.increment(tid);
+					count++;
+				} while (running);
+				counts[tid] = count;
+			});
+			incThreads[i].start();
+		}
+		long start = System.nanoTime();
+		Thread.sleep(millis);
+		running = false;
+		long elapsed = System.nanoTime() - start;
+		long total = 0;
+		for (int i = 0; i < threads; i++) {
+			incThreads[i].join();
+			total += counts[i];
+		}
+		return total / (elapsed / 1000.0) / threads;
+	}
+
+	// the best throughput of RUNS runs, which discards the runs disturbed by other
+	// activity of the machine
+	private static double best(int threads, long millis, Increment increment) throws InterruptedException {
+		double best = 0;
+		for (int i = 0; i < RUNS; i++)
+			best = Math.max(best, run(threads, millis, increment));
+		return best;
+	}
+
+	// the counters in a long[] with the specified stride, after a padding that
+	// separates them from the array header
+	private static Increment strided(int threads, int stride) {
+		long[] counters = new long[PaddedLongArray.STRIDE + threads * stride];
+		return tid -> {
+			int idx = PaddedLongArray.STRIDE + tid * stride;
+			ELEMENT.setRelease(counters, idx, (long)ELEMENT.getOpaque(counters, idx) + 1L);
+		};
+	}
+
+	private static Increment paddedArray(int threads) {
+		PaddedLongArray counters = new PaddedLongArray(threads);
+		return counters::increment;
+	}
+
+	private static Increment paddedLongs(int threads) {
+		PaddedLong[] counters = new PaddedLong[threads];
+		for (int i = 0; i < threads; i++)
+			counters[i] = new PaddedLong();
+		return tid -> counters[tid].increment();
+	}
+
+	public static void main(String... args) throws InterruptedException {
+		int threads = args.length > 0 ? Integer.parseInt(args[0])
+									   : Math.max(2, Runtime.getRuntime().availableProcessors());
+		long millis = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+		if (threads < 2)
+			throw new IllegalArgumentException("threads");
+
+		// warm up the code of all the increments
+		run(threads, millis / 4, strided(threads, 1));
+		run(threads, millis / 4, paddedArray(threads));
+		run(threads, millis / 4, paddedLongs(threads));
+
+		int processors = Runtime.getRuntime().availableProcessors();
+		System.out.printf("--%d threads, %d processors, %d ms per run%n", threads, processors, millis);
+		boolean concurrent = threads <= processors;
+		if (processors < 2)
+			System.out.println("--warning: with only one processor the threads never run at the " +
+							   "same time, so there is no false sharing to measure");
+		else if (!concurrent)
+			System.out.println("--warning: with more threads than processors the threads do not all " +
+							   "run at the same time, so the losses are mostly scheduling noise");
+		double padded = best(threads, millis, strided(threads, PaddedLongArray.STRIDE));
+		System.out.println("counters, distance (bytes), Mops/s per thread, loss (%)");
+		int minStride = 0;
+		for (int stride = 1; stride <= PaddedLongArray.STRIDE; stride *= 2) {
+			double throughput = stride == PaddedLongArray.STRIDE ? padded
+											: best(threads, millis, strided(threads, stride));
+			double loss = Math.max(0, (padded - throughput) / padded * 100);
+			System.out.printf("long[], %d, %.2f, %.1f%n", stride * 8, throughput, loss);
+			if (loss < MAX_LOSS && minStride == 0)
+				minStride = stride;
+			else if (loss >= MAX_LOSS)
+				minStride = 0;
+		}
+		// the padded counters, whose throughput also includes the cost of their code
+		double paddedArray = best(threads, millis, paddedArray(threads));
+		System.out.printf("PaddedLongArray, %d, %.2f, %.1f%n", PaddedLongArray.STRIDE * 8, paddedArray,
+						  Math.max(0, (padded - paddedArray) / padded * 100));
+		double paddedLong = best(threads, millis, paddedLongs(threads));
+		System.out.printf("PaddedLong, %d, %.2f, %.1f%n", 128, paddedLong,
+						  Math.max(0, (padded - paddedLong) / padded * 100));
+		if (!concurrent)
+			System.out.println("--no conclusion about the distance between counters: run with at most " +
+							   "one thread per processor, on a machine with at least 2 processors");
+		else if (minStride == 0)
+			System.out.printf("--false sharing up to %d bytes: use PaddedLong or PaddedLongArray%n",
+							  PaddedLongArray.STRIDE * 8);
+		else
+			System.out.printf("--counters written by different threads must be at least %d bytes apart%n",
+							  minStride * 8);
+	}
+}
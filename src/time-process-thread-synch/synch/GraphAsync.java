@@ -0,0 +1,281 @@
+/***
+ *
+ * ISEL, LEIC, Concurrent Programming
+ *
+ * Control synchronization in Java, with CompletableFuture compositions
+ *
+ * The action graph of Graph (A -> {B, C, D, E}, {D, E} -> F, {B, C, F} -> G)
+ * expressed as CompletableFuture compositions: each action is a continuation of
+ * the actions it depends on, and the joins (allOf) are built on a
+ * CountDownLatchAsync. No thread waits for an edge, the threads are only used
+ * while an action runs.
+ *
+ * The benchmark uses wide graphs, where each of B, C, D and E is a group of
+ * width / 4 actions, and compares:
+ *  - the four-thread design of Graph, where each thread executes its group of
+ *    actions one after the other;
+ *  - the asynchronous design, with the actions running on a cached thread pool
+ *    (which creates a thread only when no other is free), blocking the thread
+ *    during the action;
+ *  - the asynchronous design with asynchronous actions, which wait on a Delayer
+ *    timer instead of blocking a thread (as an asynchronous I/O would do); the
+ *    continuations run on a fixed pool with one thread per processor, as the
+ *    threads are only used to start the actions.
+ *
+ * Usage: java GraphAsync [maxWidth]
+ *        executes the graph of Graph, and the benchmark from width 4 to maxWidth
+ *        (default 256)
+ *
+ ***/
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class GraphAsync {
+
+	//
+	// Constants used to generate random action durations.
+	//
+
+	private static final int MIN_DURATION = 20;
+	private static final int MAX_DURATION = 100;
+
+	//
+	// A future that completes when all the futures complete, built on a
+	// CountDownLatchAsync: each future signals the latch, and the result is the
+	// asynchronous wait for the latch to open. If one of the futures completes
+	// exceptionally, the result completes exceptionally with the first exception.
+	//
+
+	static CompletableFuture<Void> allOf(CompletableFuture<?>... futures) {
+		CountDownLatchAsync latch = new CountDownLatchAsync(futures.length);
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		for (CompletableFuture<?> future : futures) {
+			future.whenComplete((result, ex) -> {
+				if (ex != null)
+					failure.compareAndSet(null, ex);
+				latch.signal();
+			});
+		}
+		return latch.awaitAsync().thenApply((open) -> {
+			Throwable ex = failure.get();
+			if (ex != null)
+				throw ex instanceof CompletionException ? (CompletionException)ex : new CompletionException(ex);
+			return (Void)null;
+		});
+	}
+
+	//
+	// The action, blocking the thread that executes it (as Graph does) or waiting
+	// asynchronously for a Delayer timer.
+	//
+
+	private static void doAction(String actionName, long duration, boolean verbose) {
+		boolean interrupted = false;
+
+		if (verbose)
+			System.out.printf("%n-->%s on %s", actionName, Thread.currentThread().getName());
+		for (;;)
+			try {
+				Thread.sleep(duration);
+				break;
+			} catch (InterruptedException ie) {
+				interrupted = true;
+			}
+		if (verbose)
+			System.out.print("\n<--" + actionName);
+
+		// If the current thread was interrupted, re-assert the interruption.
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private static CompletableFuture<Void> doActionAsync(long duration) {
+		CompletableFuture<Void> done = new CompletableFuture<Void>();
+		Delayer.delay(() -> done.complete(null), duration, TimeUnit.MILLISECONDS);
+		return done;
+	}
+
+	//
+	// The wide graph: durations[0] is A, durations[1 .. width] are the groups B, C, D
+	// and E, durations[width + 1] is F and durations[width + 2] is G.
+	//
+
+	private static long[] durations(int width, Random rand) {
+		long[] durations = new long[width + 3];
+		for (int i = 0; i < durations.length; i++)
+			durations[i] = rand.nextInt(MAX_DURATION - MIN_DURATION) + MIN_DURATION;
+		return durations;
+	}
+
+	private static String name(int width, int i) {
+		if (i == 0)
+			return "A";
+		if (i == width + 1)
+			return "F";
+		if (i == width + 2)
+			return "G";
+		int group = (i - 1) / (width / 4);
+		String groupName = String.valueOf((char)('B' + group));
+		return width == 4 ? groupName : groupName + ((i - 1) % (width / 4));
+	}
+
+	//
+	// Await uninterruptibly on a CountDownLatch.
+	//
+
+	private static void awaitUninterruptibly(CountDownLatch cdl) {
+		boolean interrupted = false;
+
+		do {
+			try {
+				cdl.await();
+				break;
+			} catch (InterruptedException ie) {
+				interrupted = true;
+			}
+		} while (true);
+
+		// If the current thread was interrupted, re-assert the interruption.
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	//
+	// The four-thread design of Graph, with the groups of actions.
+	//
+
+	private static void runFourThreads(long[] durations, int width) throws InterruptedException {
+		CountDownLatch t1_2_t2t3t4 = new CountDownLatch(1);
+		CountDownLatch t4_2_t3 = new CountDownLatch(1);
+		Semaphore t2t3_2_t1 = new Semaphore(0, false);
+		int groupSize = width / 4;
+		Thread t2 = new Thread(() -> {
+			awaitUninterruptibly(t1_2_t2t3t4);
+			for (int i = 1 + groupSize; i <= 2 * groupSize; i++)
+				doAction(null, durations[i], false);
+			t2t3_2_t1.release();
+		});
+		Thread t3 = new Thread(() -> {
+			awaitUninterruptibly(t1_2_t2t3t4);
+			for (int i = 1 + 2 * groupSize; i <= 3 * groupSize; i++)
+				doAction(null, durations[i], false);
+			awaitUninterruptibly(t4_2_t3);
+			doAction(null, durations[width + 1], false);
+			t2t3_2_t1.release();
+		});
+		Thread t4 = new Thread(() -> {
+			awaitUninterruptibly(t1_2_t2t3t4);
+			for (int i = 1 + 3 * groupSize; i <= width; i++)
+				doAction(null, durations[i], false);
+			t4_2_t3.countDown();
+		});
+		t2.start();
+		t3.start();
+		t4.start();
+		// T1 is executed by the current thread
+		doAction(null, durations[0], false);
+		t1_2_t2t3t4.countDown();
+		for (int i = 1; i <= groupSize; i++)
+			doAction(null, durations[i], false);
+		t2t3_2_t1.acquireUninterruptibly(2);
+		doAction(null, durations[width + 2], false);
+		t2.join();
+		t3.join();
+		t4.join();
+	}
+
+	//
+	// The asynchronous design: the actions of each group start when A completes, F
+	// when the groups D and E complete, and G when the groups B and C, and F complete.
+	//
+
+	private static CompletableFuture<Void> runAsync(long[] durations, int width, ExecutorService pool,
+													boolean asyncActions, boolean verbose) {
+		int groupSize = width / 4;
+		CompletableFuture<Void> a = action(CompletableFuture.completedFuture(null), durations, width, 0,
+										   pool, asyncActions, verbose);
+		CompletableFuture<?>[] groups = new CompletableFuture<?>[width];
+		for (int i = 1; i <= width; i++)
+			groups[i - 1] = action(a, durations, width, i, pool, asyncActions, verbose);
+
+		CompletableFuture<?>[] dAndE = new CompletableFuture<?>[2 * groupSize];
+		System.arraycopy(groups, 2 * groupSize, dAndE, 0, 2 * groupSize);
+		CompletableFuture<Void> f = action(allOf(dAndE), durations, width, width + 1, pool, asyncActions, verbose);
+
+		CompletableFuture<?>[] bAndCAndF = new CompletableFuture<?>[2 * groupSize + 1];
+		System.arraycopy(groups, 0, bAndCAndF, 0, 2 * groupSize);
+		bAndCAndF[2 * groupSize] = f;
+		return action(allOf(bAndCAndF), durations, width, width + 2, pool, asyncActions, verbose);
+	}
+
+	private static CompletableFuture<Void> action(CompletableFuture<Void> after, long[] durations, int width,
+												  int i, ExecutorService pool, boolean asyncActions,
+												  boolean verbose) {
+		if (asyncActions)
+			return after.thenComposeAsync((v) -> doActionAsync(durations[i]), pool);
+		return after.thenRunAsync(() -> doAction(name(width, i), durations[i], verbose), pool);
+	}
+
+	//
+	// Benchmark: wall-clock time and platform threads used.
+	//
+
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	private interface Design {
+		void run(ExecutorService pool) throws Exception;
+	}
+
+	private static void measure(String name, int width, ExecutorService pool, Design design) throws Exception {
+		// a new pool for each run, so its threads are counted in the peak
+		int before = threads.getThreadCount();
+		threads.resetPeakThreadCount();
+		long start = System.nanoTime();
+		design.run(pool);
+		long elapsed = (System.nanoTime() - start) / 1000000;
+		int peak = threads.getPeakThreadCount() - before;
+		pool.shutdown();
+		pool.awaitTermination(5, TimeUnit.SECONDS);
+		// the workers exit after the pool terminates, so wait until they are not counted
+		// as alive before the next run
+		Thread.sleep(100);
+		System.out.printf("%d, %s, %d, %d%n", width, name, elapsed, peak);
+	}
+
+	public static void main(String... args) throws Exception {
+		int maxWidth = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+		if (maxWidth < 4)
+			throw new IllegalArgumentException("maxWidth");
+
+		// the graph of Graph
+		System.out.print("++executing actions...");
+		ExecutorService pool = Executors.newCachedThreadPool();
+		runAsync(durations(4, new Random(1)), 4, pool, false, true).join();
+		pool.shutdown();
+		System.out.println();
+
+		// the benchmark (Delayer's thread is created in the first run)
+		doActionAsync(1).join();
+		System.out.println("width, design, wall-clock (ms), platform threads");
+		for (int width = 4; width <= maxWidth; width *= 4) {
+			final int w = width;
+			long[] durations = durations(width, new Random(width));
+			measure("four threads", width, Executors.newCachedThreadPool(),
+					(p) -> runFourThreads(durations, w));
+			measure("async", width, Executors.newCachedThreadPool(),
+					(p) -> runAsync(durations, w, p, false, false).join());
+			measure("async actions", width, Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()),
+					(p) -> runAsync(durations, w, p, true, false).join());
+		}
+	}
+}
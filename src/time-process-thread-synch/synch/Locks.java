@@ -4,6 +4,13 @@
  *
  * Java: Mutable shared data access synchronization
  *
+ * Usage: java Locks [flavour [threads]]
+ *          runs the increment threads for 3 seconds (default: non-fair-semaphore, 1)
+ *        java Locks -sweep [maxThreads [millis]]
+ *          runs all the flavours, from 1 to maxThreads threads, with the private
+ *          counters in the same cache line and padded, and writes a CSV with the
+ *          cost of an increment and the scaling efficiency
+ *
  * Carlos Martins, March 2017
  *
  ***/
@@ -23,7 +30,7 @@ public class Locks {
 	private static final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
 	private static final Semaphore semaphoreLock = new Semaphore(1, false);
 	private static final Semaphore fairSemaphoreLock = new Semaphore(1, true);
-	
+
 	//
 	// The shared counter is implemented by an instance of AtomicInteger
 	// in order to support atomic operations.
@@ -31,10 +38,21 @@ public class Locks {
 
 	private static final AtomicInteger sharedCounter = new AtomicInteger();
 
+	//
+	// The counters that are not a single memory location: a LongAdder, and an array
+	// of counters (stripes), each one in its own cache line (see PaddedLongArray),
+	// where each thread increments the stripe selected by its index.
+	//
+
+	private static final LongAdder adderCounter = new LongAdder();
+
+	private static final int STRIPES = 64;
+	private static final PaddedLongArray stripedCounter = new PaddedLongArray(STRIPES);
+
 	//
 	// Unprotected increment.
 	//
-	
+
 	private static void unprotectedIncrement() {
 		sharedCounter.lazySet(sharedCounter.get() + 1);
 		//sharedCounter.set(sharedCounter.get() + 1);
@@ -42,8 +60,8 @@ public class Locks {
 
 	//
 	// Increment the shared counter using several synchronization mechanisms.
-	// 
-	
+	//
+
 	private static void atomicIncrement() {
 		sharedCounter.incrementAndGet();
 	}
@@ -63,7 +81,7 @@ public class Locks {
 		}
 	}
 
-	private static void  intrinsicLockProtecetedIncrement() {	
+	private static void  intrinsicLockProtecetedIncrement() {
 		synchronized(intrinsicLock) {
 			unprotectedIncrement();
 		}
@@ -93,6 +111,59 @@ public class Locks {
 		fairSemaphoreLock.release();
 	}
 
+	private static void longAdderIncrement() {
+		adderCounter.increment();
+	}
+
+	private static void stripedIncrement(int tid) {
+		stripedCounter.getAndAdd(tid % STRIPES, 1L);
+	}
+
+	//
+	// The value of the shared counter, whatever the flavour used.
+	//
+
+	private static long sharedCount() {
+		return sharedCounter.get() + adderCounter.sum() + stripedCounter.sum();
+	}
+
+	private static void resetSharedCount() {
+		sharedCounter.set(0);
+		adderCounter.reset();
+		stripedCounter.reset();
+	}
+
+	//
+	// The ways to increment the shared counter, by name; the increment receives the
+	// index of the thread.
+	//
+
+	private interface Increment {
+		void increment(int tid);
+	}
+
+	private static final String[] FLAVOURS = {
+		"unprotected", "atomic", "cas", "intrinsic", "reentrant", "read-write",
+		"non-fair-semaphore", "fair-semaphore", "long-adder", "striped"
+	};
+
+	private static Increment flavour(String name) {
+		switch (name) {
+		case "unprotected":			return tid -> unprotectedIncrement();
+		case "atomic":				return tid -> atomicIncrement();
+		case "cas":					return tid -> atomicIncrementUsingCAS();
+		case "intrinsic":			return tid -> intrinsicLockProtecetedIncrement();
+		case "reentrant":			return tid -> reentrantLockProtecetedIncrement();
+		case "read-write":			return tid -> readWriteLockProtecetedIncrement();
+		case "non-fair-semaphore":	return tid -> nonFairSemaphoreProtecetedIncrement();
+		case "fair-semaphore":		return tid -> fairSemaphoreProtecetedIncrement();
+		case "long-adder":			return tid -> longAdderIncrement();
+		case "striped":				return Locks::stripedIncrement;
+		default:
+			throw new IllegalArgumentException("flavour");
+		}
+	}
+
 	//
 	// Test running flag.
 	//
@@ -104,114 +175,159 @@ public class Locks {
 	//
 
 	private static class IncrementThread extends Thread {
-		private Runnable privateRun;
-		
-		public IncrementThread(Runnable pr ) {
-			privateRun = pr;
+		private final Increment increment;
+		private final int tid;
+		private final int privateIdx;
+
+		public IncrementThread(Increment increment, int tid, int privateIdx) {
+			this.increment = increment;
+			this.tid = tid;
+			this.privateIdx = privateIdx;
 		}
-		
+
 		public void run() {
 			do {
-		
 				//
-				// Choose the way to increment the shared counter.
+				// Increment the shared counter with the chosen flavour.
 				//
 
-				//unprotectedIncrement();
-				//atomicIncrement();
-				//atomicIncrementUsingCAS();
-				//intrinsicLockProtecetedIncrement();
-				//reentrantLockProtecetedIncrement();
-				//readWriteLockProtecetedIncrement();
-				nonFairSemaphoreProtecetedIncrement();
-				//fairSemaphoreProtecetedIncrement();
+				increment.increment(tid);
 
 				//
-				// Increment the private counter using the action delegate.
+				// Increment the private counter.
 				//
 
-				privateRun.run();
+				privateCounters[privateIdx]++;
 			} while(running);
 		}
 	}
 
 	//
-	// Array to store the private counters on the same cache line
-	// (ARRAY_SIZE = 2) or in different cache lines (ARRAY_SIZE >= 16).
+	// Array to store the private counters on the same cache line (stride 1)
+	// or in different cache lines (PADDED_STRIDE).
+	//
+
+	private static final int MAX_THREADS = 64;
+	private static final int PADDED_STRIDE = 32;	// 32 ints, 128 bytes
+	private static final int[] privateCounters = new int[MAX_THREADS * PADDED_STRIDE];
+
 	//
-	
-	private static final int ARRAY_SIZE = 16;
-	private static final int FIRST_IDX = 0;
-	private static final int SECOND_IDX = ARRAY_SIZE - 1;
-	private static final int[] privateCounters = new int[ARRAY_SIZE];
-	
+	// The result of a run of the increment threads.
+	//
+
+	private static class RunResult {
+		long elapsed;			// nanoseconds
+		long sharedCount;
+		long privateSum;
+	}
+
+	//
+	// Run the increment threads for the specified time.
+	//
+
+	private static RunResult run(String name, int threads, boolean padded, long millis)
+															throws InterruptedException {
+		Increment increment = flavour(name);
+		int stride = padded ? PADDED_STRIDE : 1;
+		resetSharedCount();
+		java.util.Arrays.fill(privateCounters, 0);
+		running = true;
+		IncrementThread[] incThreads = new IncrementThread[threads];
+		for (int i = 0; i < threads; i++) {
+			incThreads[i] = new IncrementThread(increment, i, i * stride);
+			incThreads[i].start();
+		}
+		long start = System.nanoTime();
+		Thread.sleep(millis);
+
+		//
+		// Clear the running flag and synchronize with the termination
+		// of the increment threads.
+		//
+
+		running = false;
+		RunResult result = new RunResult();
+		result.elapsed = System.nanoTime() - start;
+		for (IncrementThread thread : incThreads)
+			thread.join();
+		result.sharedCount = sharedCount();
+		for (int i = 0; i < threads; i++)
+			result.privateSum += privateCounters[i * stride];
+		return result;
+	}
+
+	//
+	// Run all the flavours, writing a CSV line for each run. The cost of an increment
+	// is the elapsed time divided by the number of increments of all the threads, and
+	// the scaling efficiency is the throughput relative to "threads" times the throughput
+	// of one thread. The increments are counted by the private counters, since the
+	// shared counter loses updates in the unprotected flavour.
+	//
+
+	private static void sweep(int maxThreads, long millis) throws InterruptedException {
+		System.out.println("flavour,padded,threads,increments,ns_per_op,mops_per_s,scaling_efficiency,diff");
+		for (String name : FLAVOURS) {
+			for (boolean padded : new boolean[] { false, true }) {
+				double singleThroughput = 0;
+				for (int threads = 1; threads <= maxThreads; threads++) {
+					RunResult result = run(name, threads, padded, millis);
+					double throughput = result.privateSum / (result.elapsed / 1e9);
+					if (threads == 1)
+						singleThroughput = throughput;
+					System.out.printf("%s,%b,%d,%d,%.2f,%.2f,%.3f,%d%n", name, padded, threads,
+									  result.privateSum, (double)result.elapsed / result.privateSum,
+									  throughput / 1e6, throughput / (threads * singleThroughput),
+									  result.privateSum - result.sharedCount);
+				}
+			}
+		}
+	}
+
 	//
 	// The primary thread.
 	//
-	
+
 	public static void main(String[] args) throws InterruptedException {
-	
+
 		//
 		// Sets the primary thread priority to highest to ensure that,
 		// when ready, it preempts one of the other threads.
 		//
-	
+
 		Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
 
 		// Uncomment to prevent biased locking
 		System.identityHashCode(intrinsicLock);
-		
-		//
-		// Create the increment thread(s) and sleep for a while.
-		//
 
-		Thread thrinc1 = new IncrementThread(new Runnable() {
-			public void run() {
-				privateCounters[FIRST_IDX]++;
-			}
-		});
-		thrinc1.start();
-		
-		/**
-		Thread thrinc2 = new IncrementThread(new Runnable() {
-			public void run() {
-				privateCounters[SECOND_IDX]++;
-			}
-		});
-		thrinc2.start();
-		*/
-		
-				
-		//
-		// Run increment threads for 5 seconds.
+		if (args.length > 0 && args[0].equals("-sweep")) {
+			int maxThreads = args.length > 1 ? Integer.parseInt(args[1])
+											 : Runtime.getRuntime().availableProcessors() * 2;
+			long millis = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+			if (maxThreads < 1 || maxThreads > MAX_THREADS)
+				throw new IllegalArgumentException("maxThreads");
+			sweep(maxThreads, millis);
+			return;
+		}
+		String name = args.length > 0 ? args[0] : "non-fair-semaphore";
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+		if (threads < 1 || threads > MAX_THREADS)
+			throw new IllegalArgumentException("threads");
+
 		//
-		
-		System.out.print("++run increment thread(s) for 3 seconds...\n");
-		
-		long start = System.nanoTime();
-		Thread.sleep(3000);
-	
+		// Run increment threads for 3 seconds.
 		//
-		// Clear the running flag and synchronize with the termination
-		// of the increment threads.
-		//
-	
-		running = false;
-		long elapsed = System.nanoTime() - start;
-		
-		thrinc1.join();
-		//thrinc2.join();
-	
+
+		System.out.printf("++run %d %s increment thread(s) for 3 seconds...%n", threads, name);
+		RunResult result = run(name, threads, true, 3000);
+
 		//
 		// Show the results.
 		//
 
-		int privateSum = privateCounters[FIRST_IDX] + privateCounters[SECOND_IDX];
-		int diff = privateSum - sharedCounter.get();
-	
-		System.out.println("\n--shared Counter: " + (sharedCounter.get() >> 10) +
-						   " K, private counters: " + (privateSum  >> 10) +
+		long diff = result.privateSum - result.sharedCount;
+		System.out.println("\n--shared Counter: " + (result.sharedCount >> 10) +
+						   " K, private counters: " + (result.privateSum  >> 10) +
 						   " K, diff: " + diff + "\n--increment cost: " +
-						   (long)(elapsed / sharedCounter.get()) + " ns");
+						   result.elapsed / result.privateSum + " ns");
 	}
 }
@@ -0,0 +1,69 @@
+/***
+ *
+ * ISEL, LEIC, Concurrent Programming
+ *
+ * Java: A long counter alone in its cache line(s)
+ *
+ * The effect of the annotation @jdk.internal.vm.annotation.Contended (which is not
+ * available to application code without -XX:-RestrictContended) is obtained with
+ * manual padding: 128 bytes before and after the value, which covers cache lines of
+ * 64 bytes with adjacent line prefetch and cache lines of 128 bytes. The JVM may
+ * reorder the fields of a class, but the fields of a superclass are always laid
+ * out before the fields of its subclasses, so the padding is declared in the
+ * classes above and below the class with the value.
+ *
+ ***/
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+abstract class PaddedLongLhsPadding {
+	long p00, p01, p02, p03, p04, p05, p06, p07;
+	long p08, p09, p10, p11, p12, p13, p14, p15;
+}
+
+abstract class PaddedLongValue extends PaddedLongLhsPadding {
+	volatile long value;
+}
+
+public final class PaddedLong extends PaddedLongValue {
+	long p16, p17, p18, p19, p20, p21, p22, p23;
+	long p24, p25, p26, p27, p28, p29, p30, p31;
+
+	private static final VarHandle VALUE;
+
+	static {
+		try {
+			VALUE = MethodHandles.lookup().findVarHandle(PaddedLongValue.class, "value", long.class);
+		} catch (ReflectiveOperationException roe) {
+			throw new ExceptionInInitializerError(roe);
+		}
+	}
+
+	public PaddedLong(long initial) { value = initial; }
+
+	public PaddedLong() { }
+
+	public long get() { return value; }
+
+	public void set(long newValue) { value = newValue; }
+
+	// the write is not ordered with the following reads (as AtomicLong.lazySet)
+	public void lazySet(long newValue) { VALUE.setRelease(this, newValue); }
+
+	public boolean compareAndSet(long expected, long newValue) {
+		return VALUE.compareAndSet(this, expected, newValue);
+	}
+
+	public long getAndAdd(long delta) { return (long)VALUE.getAndAdd(this, delta); }
+
+	public long addAndGet(long delta) { return (long)VALUE.getAndAdd(this, delta) + delta; }
+
+	public long incrementAndGet() { return addAndGet(1L); }
+
+	// increment when the counter is written by only one thread (a private statistic
+	// counter), which needs no atomic instruction
+	public void increment() { VALUE.setRelease(this, value + 1L); }
+
+	public String toString() { return Long.toString(value); }
+}
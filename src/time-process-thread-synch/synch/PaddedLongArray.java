@@ -0,0 +1,80 @@
+/***
+ *
+ * ISEL, LEIC, Concurrent Programming
+ *
+ * Java: An array of long counters, each one alone in its cache line(s)
+ *
+ * The counters are stored in a long[] with STRIDE elements (128 bytes) between
+ * them, and the first counter is preceded by STRIDE elements, so that neither the
+ * array header nor the objects next to the array share a cache line with the
+ * counters. It is used when the number of counters is only known at run time, for
+ * instance, one statistic counter per thread.
+ *
+ ***/
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+public final class PaddedLongArray {
+
+	// the distance, in longs, between two counters
+	public static final int STRIDE = 16;
+
+	private static final VarHandle ELEMENT = MethodHandles.arrayElementVarHandle(long[].class);
+
+	private final long[] counters;
+	private final int length;
+
+	public PaddedLongArray(int length) {
+		if (length < 0)
+			throw new IllegalArgumentException("length");
+		this.length = length;
+		counters = new long[(length + 2) * STRIDE];
+	}
+
+	private static int index(int i) { return (i + 1) * STRIDE; }
+
+	public int length() { return length; }
+
+	public long get(int i) {
+		checkIndex(i);
+		return (long)ELEMENT.getVolatile(counters, index(i));
+	}
+
+	public void set(int i, long newValue) {
+		checkIndex(i);
+		ELEMENT.setVolatile(counters, index(i), newValue);
+	}
+
+	public long getAndAdd(int i, long delta) {
+		checkIndex(i);
+		return (long)ELEMENT.getAndAdd(counters, index(i), delta);
+	}
+
+	public long incrementAndGet(int i) { return getAndAdd(i, 1L) + 1L; }
+
+	// increment a counter written by only one thread, which needs no atomic instruction
+	public void increment(int i) {
+		checkIndex(i);
+		int idx = index(i);
+		ELEMENT.setRelease(counters, idx, (long)ELEMENT.getOpaque(counters, idx) + 1L);
+	}
+
+	// the sum of all the counters; it is not an atomic snapshot
+	public long sum() {
+		long sum = 0;
+		for (int i = 0; i < length; i++)
+			sum += (long)ELEMENT.getVolatile(counters, index(i));
+		return sum;
+	}
+
+	public void reset() {
+		for (int i = 0; i < length; i++)
+			ELEMENT.setVolatile(counters, index(i), 0L);
+	}
+
+	private void checkIndex(int i) {
+		if (i < 0 || i >= length)
+			throw new IndexOutOfBoundsException(i);
+	}
+}